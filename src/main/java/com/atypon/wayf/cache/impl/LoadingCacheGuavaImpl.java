@@ -17,6 +17,7 @@
 package com.atypon.wayf.cache.impl;
 
 import com.atypon.wayf.cache.CacheLoader;
+import com.atypon.wayf.metrics.StageTimings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
@@ -28,6 +29,8 @@ import org.slf4j.LoggerFactory;
 public class LoadingCacheGuavaImpl<K, V> implements com.atypon.wayf.cache.LoadingCache<K, V> {
     private static final Logger LOG  = LoggerFactory.getLogger(LoadingCacheGuavaImpl.class);
 
+    private static final String CACHE_STAGE = "cache";
+
     private Cache<K, V> guavaCache;
     private CacheLoader<K, V> cacheLoader;
 
@@ -52,8 +55,10 @@ public class LoadingCacheGuavaImpl<K, V> implements com.atypon.wayf.cache.Loadin
     public Maybe<V> get(K key) {
         LOG.debug("Reading from cache [{}]", key);
 
+        // Timed as a whole, so a miss includes the layers it loads from
         return Maybe.fromCallable(() -> guavaCache.getIfPresent(key))
-                .switchIfEmpty(load(key));
+                .switchIfEmpty(load(key))
+                .compose(StageTimings.maybe(CACHE_STAGE));
     }
 
     @Override
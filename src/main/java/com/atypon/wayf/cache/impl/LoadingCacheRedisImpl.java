@@ -46,9 +46,16 @@ public class LoadingCacheRedisImpl<K, V> implements com.atypon.wayf.cache.Loadin
         return cacheLoader;
     }
 
+    /**
+     * Redis only holds copies, so when it can't be read the value is loaded from the source instead of failing
+     */
     @Override
     public Maybe<V> get(K key) {
         return redisDao.get(key)
+                .onErrorResumeNext((Throwable e) -> {
+                    LOG.warn("Could not read key [{}] from Redis, loading it instead: {}", key, e.getMessage());
+                    return Maybe.empty();
+                })
                 .switchIfEmpty(load(key));
     }
 
@@ -81,7 +88,10 @@ public class LoadingCacheRedisImpl<K, V> implements com.atypon.wayf.cache.Loadin
                 .flatMap((loadedValue) -> {
                         LOG.debug("Successfully loaded value [{}] for key [{}]", loadedValue, key);
 
-                        return put(key, loadedValue).andThen(Maybe.just(loadedValue));
+                        return put(key, loadedValue)
+                                .doOnError((e) -> LOG.warn("Could not write key [{}] to Redis: {}", key, e.getMessage()))
+                                .onErrorComplete()
+                                .andThen(Maybe.just(loadedValue));
                 });
     }
 }
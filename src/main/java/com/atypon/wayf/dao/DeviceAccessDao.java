@@ -18,12 +18,16 @@ package com.atypon.wayf.dao;
 
 import com.atypon.wayf.data.device.access.DeviceAccess;
 import com.atypon.wayf.data.device.access.DeviceAccessQuery;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 
+import java.util.List;
+
 public interface DeviceAccessDao {
     Single<DeviceAccess> create(DeviceAccess publisherSession);
+    Completable createAll(List<DeviceAccess> deviceAccesses);
     Maybe<DeviceAccess> read(Long id);
 
     Observable<DeviceAccess> filter(DeviceAccessQuery query);
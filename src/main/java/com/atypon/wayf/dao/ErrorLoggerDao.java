@@ -19,7 +19,11 @@ package com.atypon.wayf.dao;
 import com.atypon.wayf.data.ErrorLogEntry;
 import io.reactivex.Completable;
 
+import java.util.List;
+
 public interface ErrorLoggerDao {
 
     Completable logError(ErrorLogEntry logEntry);
+
+    Completable logErrors(List<ErrorLogEntry> logEntries);
 }
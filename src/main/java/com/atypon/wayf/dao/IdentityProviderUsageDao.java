@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.dao;
+
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+
+import java.util.List;
+
+/**
+ * A sliding window of the most recent identity provider uses of each device, newest first
+ */
+public interface IdentityProviderUsageDao {
+
+    /**
+     * Returns the window for the device, or empty if it has not been built since it was last reset or expired
+     */
+    Maybe<List<DeviceAccess>> readRecentUses(Long deviceId);
+
+    /**
+     * Replaces the window for the device with the given uses, newest first
+     */
+    Completable replaceRecentUses(Long deviceId, List<DeviceAccess> deviceAccesses);
+
+    Completable recordUse(DeviceAccess deviceAccess);
+
+    Completable reset(Long deviceId);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.dao;
+
+import com.atypon.wayf.data.RateLimitDecision;
+import io.reactivex.Single;
+
+/**
+ * Rate limits shared by every node, so that a publisher's limit holds for the whole cluster rather than per node
+ */
+public interface RateLimitDao {
+
+    /**
+     * Takes one request from the limit of the given key, which allows perSecond requests a second on average and up to
+     * burst requests at once
+     */
+    Single<RateLimitDecision> acquire(String key, int perSecond, int burst);
+}
@@ -24,12 +24,15 @@ import com.atypon.wayf.reactivex.DaoPolicies;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 @Singleton
 public class DeviceAccessDaoDbImpl implements DeviceAccessDao {
     private static Logger LOG = LoggerFactory.getLogger(com.atypon.wayf.dao.impl.DeviceAccessDaoDbImpl.class);
@@ -61,6 +64,14 @@ public class DeviceAccessDaoDbImpl implements DeviceAccessDao {
                 .toSingle();
     }
 
+    @Override
+    public Completable createAll(List<DeviceAccess> deviceAccesses) {
+        return Single.just(deviceAccesses)
+                .compose((single) -> DaoPolicies.applySingle(single))
+                .flatMap((_deviceAccesses) -> dbExecutor.executeBatchUpdate(createSql, _deviceAccesses))
+                .toCompletable();
+    }
+
     @Override
     public Maybe<DeviceAccess> read(Long id) {
         DeviceAccess session = new DeviceAccess();
@@ -75,6 +86,8 @@ public class DeviceAccessDaoDbImpl implements DeviceAccessDao {
     public Observable<DeviceAccess> filter(DeviceAccessQuery query) {
         return Observable.just(query)
                 .compose((observable) -> DaoPolicies.applyObservable(observable))
+                // Read as one page rather than streamed from a cursor, since the facade inflates every row with further
+                // reads, which would otherwise need a second connection while the cursor still holds the first
                 .flatMap((_query) -> dbExecutor.executeSelect(filterSql, _query, DeviceAccess.class));
     }
 }
@@ -24,6 +24,9 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import io.reactivex.Completable;
+import io.reactivex.Single;
+
+import java.util.List;
 
 @Singleton
 public class ErrorLoggerDaoDbImpl implements ErrorLoggerDao {
@@ -39,4 +42,12 @@ public class ErrorLoggerDaoDbImpl implements ErrorLoggerDao {
     public Completable logError(ErrorLogEntry logEntry) {
         return dbExecutor.executeUpdate(create, logEntry).compose((single) -> DaoPolicies.applySingle(single)).toCompletable();
     }
+
+    @Override
+    public Completable logErrors(List<ErrorLogEntry> logEntries) {
+        return Single.just(logEntries)
+                .compose((single) -> DaoPolicies.applySingle(single))
+                .flatMap((_logEntries) -> dbExecutor.executeBatchUpdate(create, _logEntries))
+                .toCompletable();
+    }
 }
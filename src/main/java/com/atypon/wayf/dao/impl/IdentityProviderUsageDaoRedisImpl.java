@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.dao.impl;
+
+import com.atypon.wayf.dao.IdentityProviderUsageDao;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
+import com.atypon.wayf.data.identity.IdentityProvider;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps each device's window as a Redis list of 'idpId:createdMillis' entries, trimmed to the window size on every
+ * write. A separate marker key records that the list was built from the database; without it the list may only hold
+ * the uses recorded since it expired, so reads report the window as missing. Rebuilding the window keeps the uses
+ * recorded after the newest one the database returned, since they were recorded while it was being read or have not
+ * been written to it yet.
+ */
+public class IdentityProviderUsageDaoRedisImpl implements IdentityProviderUsageDao {
+    private static final Logger LOG = LoggerFactory.getLogger(IdentityProviderUsageDaoRedisImpl.class);
+
+    private static final String KEY_DELIM = "``";
+    private static final String BUILT_SUFFIX = "``BUILT";
+    private static final String ENTRY_DELIM = ":";
+    private static final int MAX_REPLACE_ATTEMPTS = 3;
+
+    private JedisPool pool;
+    private String prefix;
+    private int windowSize;
+    private int ttlSeconds;
+
+    // Unguarded unless the shared Redis breaker is set
+    private CircuitBreaker circuitBreaker = new CircuitBreaker("redis", 0, 0);
+
+    // Calls run on the subscribing thread unless the shared Redis scheduler is set
+    private BulkheadScheduler scheduler;
+
+    public IdentityProviderUsageDaoRedisImpl() {
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setScheduler(BulkheadScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setPool(JedisPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setPrefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public IdentityProviderUsageDaoRedisImpl setTtlSeconds(int ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        return this;
+    }
+
+    @Override
+    public Maybe<List<DeviceAccess>> readRecentUses(Long deviceId) {
+        return Maybe.fromCallable(() -> {
+            String key = buildKey(deviceId);
+
+            Response<Boolean> built;
+            Response<List<String>> entries;
+
+            try (Jedis jedis = pool.getResource()) {
+                Transaction transaction = jedis.multi();
+                built = transaction.exists(key + BUILT_SUFFIX);
+                entries = transaction.lrange(key, 0, windowSize - 1);
+                transaction.exec();
+            } catch (Exception e) {
+                throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
+            }
+
+            if (!built.get()) {
+                return null;
+            }
+
+            List<DeviceAccess> deviceAccesses = new ArrayList<>(entries.get().size());
+            for (String entry : entries.get()) {
+                deviceAccesses.add(deserialize(entry));
+            }
+
+            return deviceAccesses;
+        }).compose(StageTimings.maybe(stageName()))
+                .compose((maybe) -> DaoPolicies.guardMaybe(maybe, circuitBreaker, scheduler));
+    }
+
+    @Override
+    public Completable replaceRecentUses(Long deviceId, List<DeviceAccess> deviceAccesses) {
+        return Completable.fromAction(() -> {
+            String key = buildKey(deviceId);
+
+            try (Jedis jedis = pool.getResource()) {
+                for (int attempt = 0; attempt < MAX_REPLACE_ATTEMPTS; attempt++) {
+                    // A use recorded between reading the list and replacing it aborts the transaction, so try again
+                    jedis.watch(key);
+                    List<String> entries = mergeRecentUses(jedis.lrange(key, 0, windowSize - 1), deviceAccesses, windowSize);
+
+                    Transaction transaction = jedis.multi();
+                    transaction.del(key);
+
+                    if (!entries.isEmpty()) {
+                        transaction.rpush(key, entries.toArray(new String[entries.size()]));
+                        transaction.expire(key, ttlSeconds);
+                    }
+
+                    transaction.setex(key + BUILT_SUFFIX, ttlSeconds, String.valueOf(System.currentTimeMillis()));
+
+                    if (!transaction.exec().isEmpty()) {
+                        return;
+                    }
+                }
+
+                // Left unbuilt, so the next read rebuilds it
+                LOG.warn("Could not replace the recent uses of device [{}], they kept changing", deviceId);
+            } catch (Exception e) {
+                LOG.error("Could not write to Redis", e);
+
+                throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
+    }
+
+    @Override
+    public Completable recordUse(DeviceAccess deviceAccess) {
+        return Completable.fromAction(() -> {
+            String key = buildKey(deviceAccess.getDevice().getId());
+
+            try (Jedis jedis = pool.getResource()) {
+                Transaction transaction = jedis.multi();
+                transaction.lpush(key, serialize(deviceAccess));
+                transaction.ltrim(key, 0, windowSize - 1);
+                transaction.expire(key, ttlSeconds);
+                transaction.exec();
+            } catch (Exception e) {
+                LOG.error("Could not write to Redis", e);
+
+                throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
+    }
+
+    @Override
+    public Completable reset(Long deviceId) {
+        return Completable.fromAction(() -> {
+            String key = buildKey(deviceId);
+
+            try (Jedis jedis = pool.getResource()) {
+                jedis.del(key, key + BUILT_SUFFIX);
+            } catch (Exception e) {
+                LOG.error("Could not write to Redis", e);
+
+                throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
+            }
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
+    }
+
+    // Timed as redis.idp_usage with the default prefix
+    private String stageName() {
+        return "redis." + prefix.toLowerCase(Locale.ROOT);
+    }
+
+    private String buildKey(Long deviceId) {
+        return prefix + KEY_DELIM + deviceId;
+    }
+
+    /**
+     * Puts the uses recorded after the newest database use ahead of the database's, newest first, up to the window size
+     */
+    static List<String> mergeRecentUses(List<String> recordedEntries, List<DeviceAccess> deviceAccesses, int windowSize) {
+        long newestMillis = Long.MIN_VALUE;
+        for (DeviceAccess deviceAccess : deviceAccesses) {
+            if (deviceAccess.getCreatedDate() != null) {
+                newestMillis = Math.max(newestMillis, deviceAccess.getCreatedDate().getTime());
+            }
+        }
+
+        List<String> entries = new ArrayList<>(windowSize);
+
+        for (String recordedEntry : recordedEntries) {
+            if (entries.size() < windowSize && deserialize(recordedEntry).getCreatedDate().getTime() > newestMillis) {
+                entries.add(recordedEntry);
+            }
+        }
+
+        for (DeviceAccess deviceAccess : deviceAccesses) {
+            if (entries.size() < windowSize) {
+                entries.add(serialize(deviceAccess));
+            }
+        }
+
+        return entries;
+    }
+
+    private static String serialize(DeviceAccess deviceAccess) {
+        Date createdDate = deviceAccess.getCreatedDate() != null ? deviceAccess.getCreatedDate() : new Date();
+
+        return deviceAccess.getIdentityProvider().getId() + ENTRY_DELIM + createdDate.getTime();
+    }
+
+    private static DeviceAccess deserialize(String entry) {
+        int delimiter = entry.indexOf(ENTRY_DELIM);
+
+        IdentityProvider identityProvider = new IdentityProvider();
+        identityProvider.setId(Long.valueOf(entry.substring(0, delimiter)));
+
+        DeviceAccess deviceAccess = new DeviceAccess();
+        deviceAccess.setType(DeviceAccessType.ADD_IDP);
+        deviceAccess.setIdentityProvider(identityProvider);
+        deviceAccess.setCreatedDate(new Date(Long.parseLong(entry.substring(delimiter + 1))));
+
+        return deviceAccess;
+    }
+}
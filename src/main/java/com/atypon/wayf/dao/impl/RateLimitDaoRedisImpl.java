@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.dao.impl;
+
+import com.atypon.wayf.dao.RateLimitDao;
+import com.atypon.wayf.data.RateLimitDecision;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
+import io.reactivex.Single;
+import org.apache.http.HttpStatus;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps each limit as a single Redis key holding its theoretical arrival time (GCRA), updated atomically by a script.
+ * The script reads the clock from Redis, so nodes with skewed clocks still share one limit. Keys expire once their
+ * burst has fully refilled.
+ */
+public class RateLimitDaoRedisImpl implements RateLimitDao {
+    private static final String KEY_DELIM = "``";
+
+    // Times are in microseconds. Returns {1, remaining} when allowed and {0, microseconds until allowed} otherwise
+    private static final String GCRA_SCRIPT =
+            "redis.replicate_commands() " +
+            "local time = redis.call('TIME') " +
+            "local now = tonumber(time[1]) * 1000000 + tonumber(time[2]) " +
+            "local interval = tonumber(ARGV[1]) " +
+            "local tolerance = tonumber(ARGV[2]) " +
+            "local tat = tonumber(redis.call('GET', KEYS[1])) or now " +
+            "if tat < now then tat = now end " +
+            "local newTat = tat + interval " +
+            "local allowAt = newTat - tolerance " +
+            "if now < allowAt then return {0, allowAt - now} end " +
+            "redis.call('SET', KEYS[1], newTat, 'PX', math.ceil((newTat - now) / 1000) + 1) " +
+            "return {1, math.floor((tolerance - (newTat - now)) / interval)}";
+
+    private JedisPool pool;
+    private String prefix;
+
+    // Unguarded unless the shared Redis breaker is set
+    private CircuitBreaker circuitBreaker = new CircuitBreaker("redis", 0, 0);
+
+    // Calls run on the subscribing thread unless the shared Redis scheduler is set
+    private BulkheadScheduler scheduler;
+
+    public RateLimitDaoRedisImpl() {
+    }
+
+    public RateLimitDaoRedisImpl setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public RateLimitDaoRedisImpl setScheduler(BulkheadScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    public RateLimitDaoRedisImpl setPool(JedisPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public RateLimitDaoRedisImpl setPrefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    @Override
+    public Single<RateLimitDecision> acquire(String key, int perSecond, int burst) {
+        return Single.fromCallable(() -> {
+            long intervalMicros = TimeUnit.SECONDS.toMicros(1) / perSecond;
+            long toleranceMicros = intervalMicros * burst;
+
+            List<?> result;
+
+            try (Jedis jedis = pool.getResource()) {
+                result = (List<?>) jedis.eval(GCRA_SCRIPT,
+                        Collections.singletonList(prefix + KEY_DELIM + key),
+                        Arrays.asList(String.valueOf(intervalMicros), String.valueOf(toleranceMicros)));
+            } catch (Exception e) {
+                throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
+            }
+
+            // The script returns integer replies, which Jedis hands back as Longs
+            long allowed = ((Number) result.get(0)).longValue();
+            long value = ((Number) result.get(1)).longValue();
+
+            return allowed == 1
+                    ? RateLimitDecision.allowed(perSecond, value)
+                    : RateLimitDecision.rejected(perSecond, TimeUnit.MICROSECONDS.toMillis(value) + 1);
+        }).compose(StageTimings.single(stageName()))
+                .compose((single) -> DaoPolicies.guardSingle(single, circuitBreaker, scheduler));
+    }
+
+    private String stageName() {
+        return "redis." + prefix.toLowerCase(Locale.ROOT);
+    }
+}
@@ -20,6 +20,10 @@ import com.atypon.wayf.dao.RedisDao;
 import com.atypon.wayf.data.ServiceException;
 import com.atypon.wayf.cache.Deserializer;
 import com.atypon.wayf.cache.Serializer;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import org.apache.http.HttpStatus;
@@ -32,6 +36,7 @@ import redis.clients.jedis.ScanResult;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
@@ -45,11 +50,27 @@ public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
     private Deserializer<String, V> deserializer;
     private int ttlSeconds;
 
+    // Unguarded unless the shared Redis breaker is set
+    private CircuitBreaker circuitBreaker = new CircuitBreaker("redis", 0, 0);
+
+    // Calls run on the subscribing thread unless the shared Redis scheduler is set
+    private BulkheadScheduler scheduler;
+
     private String prefixAndDelim;
 
     public RedisDaoImpl() {
     }
 
+    public RedisDaoImpl setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public RedisDaoImpl setScheduler(BulkheadScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
     public RedisDaoImpl setPool(JedisPool pool) {
         this.pool = pool;
         return this;
@@ -102,7 +123,8 @@ public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
 
                 throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
             }
-        });
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
     }
 
     @Override
@@ -126,7 +148,8 @@ public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
 
                 jedis.del(matchingKeys.toArray(new String[matchingKeys.size()]));
             }
-        });
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
     }
 
     @Override
@@ -141,7 +164,8 @@ public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
 
                 throw new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e);
             }
-        });
+        }).compose(StageTimings.completable(stageName()))
+                .compose((completable) -> DaoPolicies.guardCompletable(completable, circuitBreaker, scheduler));
     }
 
     @Override
@@ -157,10 +181,17 @@ public class RedisDaoImpl<K, V> implements RedisDao<K, V> {
             }
 
             return value;
-        }).map((readValue) -> deserialize(readValue));
+        }).map((readValue) -> deserialize(readValue))
+                .compose(StageTimings.maybe(stageName()))
+                .compose((maybe) -> DaoPolicies.guardMaybe(maybe, circuitBreaker, scheduler));
     }
 
 
+    // Timed per key space, e.g. redis.authenticable
+    private String stageName() {
+        return "redis." + prefix.toLowerCase(Locale.ROOT);
+    }
+
     private String buildKey(K key) {
         return prefixAndDelim + key.toString();
     }
@@ -48,6 +48,6 @@ public interface Authenticatable {
             return (Publisher) authenticatable;
         }
 
-        throw new ServiceException(HttpStatus.SC_UNAUTHORIZED, "An authenticated Publisher is required");
+        throw ServiceException.clientError(HttpStatus.SC_UNAUTHORIZED, "An authenticated Publisher is required");
     }
 }
@@ -32,6 +32,7 @@ public class ErrorLogEntry {
     private String exceptionMessage;
     private String exceptionStacktrace;
     private Date errorDate;
+    private int occurrenceCount = 1;
     private Date createdDate;
     private Date modifiedDate;
 
@@ -154,6 +155,15 @@ public class ErrorLogEntry {
         return this;
     }
 
+    public int getOccurrenceCount() {
+        return occurrenceCount;
+    }
+
+    public ErrorLogEntry setOccurrenceCount(int occurrenceCount) {
+        this.occurrenceCount = occurrenceCount;
+        return this;
+    }
+
     public Date getCreatedDate() {
         return createdDate;
     }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.data;
+
+import org.apache.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * The position of the last row of a page in a (created_date, id) ordered list. Clients get it back as an opaque token
+ * in the Link header and send it as the 'cursor' query param to read the next page without an offset scan.
+ */
+public class PageCursor {
+    private static final String DELIMITER = ":";
+
+    private final Timestamp createdDate;
+    private final Long id;
+
+    public PageCursor(Date createdDate, Long id) {
+        if (createdDate == null || id == null) {
+            throw new IllegalArgumentException("A page cursor requires a created date and an id");
+        }
+
+        this.createdDate = createdDate instanceof Timestamp ? (Timestamp) createdDate : new Timestamp(createdDate.getTime());
+        this.id = id;
+    }
+
+    public Timestamp getCreatedDate() {
+        return createdDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String encode() {
+        String value = new StringBuilder()
+                .append(createdDate.getTime())
+                .append(DELIMITER)
+                .append(createdDate.getNanos())
+                .append(DELIMITER)
+                .append(id)
+                .toString();
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = value.split(DELIMITER);
+
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Unexpected cursor format");
+            }
+
+            Timestamp createdDate = new Timestamp(Long.parseLong(parts[0]));
+            createdDate.setNanos(Integer.parseInt(parts[1]));
+
+            return new PageCursor(createdDate, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "Invalid page cursor [" + token + "]");
+        }
+    }
+}
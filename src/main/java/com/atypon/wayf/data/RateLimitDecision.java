@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.data;
+
+/**
+ * The outcome of taking one request from a rate limit: whether it may go ahead, how many more requests the burst still
+ * allows, and otherwise how long until the next one would be allowed
+ */
+public class RateLimitDecision {
+    private final boolean allowed;
+    private final int limit;
+    private final long remaining;
+    private final long retryAfterMillis;
+
+    private RateLimitDecision(boolean allowed, int limit, long remaining, long retryAfterMillis) {
+        this.allowed = allowed;
+        this.limit = limit;
+        this.remaining = remaining;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public static RateLimitDecision allowed(int limit, long remaining) {
+        return new RateLimitDecision(true, limit, remaining, 0);
+    }
+
+    public static RateLimitDecision rejected(int limit, long retryAfterMillis) {
+        return new RateLimitDecision(false, limit, 0, retryAfterMillis);
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * Requests per second
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
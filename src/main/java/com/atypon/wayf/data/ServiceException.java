@@ -19,6 +19,7 @@ package com.atypon.wayf.data;
 public class ServiceException extends RuntimeException {
 
     private int statusCode;
+    private boolean stackless = false;
 
     public ServiceException(int statusCode) {
         super();
@@ -40,6 +41,41 @@ public class ServiceException extends RuntimeException {
         this.statusCode = statusCode;
     }
 
+    private ServiceException(int statusCode, String message, Throwable e, boolean writableStackTrace) {
+        super(message, e, false, writableStackTrace);
+        this.statusCode = statusCode;
+        this.stackless = !writableStackTrace;
+    }
+
+    /**
+     * Builds an exception for an expected client error, such as an unknown ID or a bad token. It does not capture a
+     * stack trace, which is most of the cost of creating an exception, and its response carries only the message
+     */
+    public static ServiceException clientError(int statusCode, String message) {
+        return new ServiceException(statusCode, message, null, false);
+    }
+
+    /**
+     * Only for causes that are client errors themselves. Anything else, such as a failing dependency, would be reported
+     * as the client's fault and without the stack trace needed to diagnose it
+     */
+    public static ServiceException clientError(int statusCode, String message, Throwable e) {
+        return new ServiceException(statusCode, message, e, false);
+    }
+
+    public static boolean isClientError(Throwable e) {
+        if (!(e instanceof ServiceException)) {
+            return false;
+        }
+
+        int statusCode = ((ServiceException) e).getStatusCode();
+        return statusCode >= 400 && statusCode < 500;
+    }
+
+    public boolean isStackless() {
+        return stackless;
+    }
+
     public int getStatusCode() {
         return statusCode;
     }
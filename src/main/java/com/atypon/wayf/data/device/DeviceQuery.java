@@ -17,7 +17,9 @@
 package com.atypon.wayf.data.device;
 
 import com.atypon.wayf.data.InflationPolicy;
+import com.atypon.wayf.data.PageCursor;
 
+import java.sql.Timestamp;
 import java.util.Collection;
 
 public class DeviceQuery {
@@ -28,6 +30,7 @@ public class DeviceQuery {
     private String globalId;
     private Collection<String> globalIds;
     private InflationPolicy inflationPolicy;
+    private PageCursor cursor;
 
     public DeviceQuery() {
     }
@@ -83,4 +86,37 @@ public class DeviceQuery {
         this.inflationPolicy = inflationPolicy;
         return this;
     }
+
+    public PageCursor getCursor() {
+        return cursor;
+    }
+
+    public DeviceQuery setCursor(PageCursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public boolean isNullCursor() {
+        return cursor == null;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Timestamp getCursorCreatedDate() {
+        return cursor == null ? null : cursor.getCreatedDate();
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Long getCursorId() {
+        return cursor == null ? null : cursor.getId();
+    }
 }
@@ -17,7 +17,9 @@
 package com.atypon.wayf.data.device.access;
 
 import com.atypon.wayf.data.InflationPolicy;
+import com.atypon.wayf.data.PageCursor;
 
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.List;
 
@@ -37,6 +39,8 @@ public class DeviceAccessQuery {
     private Integer limit;
     private Integer offset;
 
+    private PageCursor cursor;
+
     public DeviceAccessQuery() {
     }
 
@@ -117,4 +121,37 @@ public class DeviceAccessQuery {
         this.offset = offset;
         return this;
     }
+
+    public PageCursor getCursor() {
+        return cursor;
+    }
+
+    public DeviceAccessQuery setCursor(PageCursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public boolean isNullCursor() {
+        return cursor == null;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Timestamp getCursorCreatedDate() {
+        return cursor == null ? null : cursor.getCreatedDate();
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Long getCursorId() {
+        return cursor == null ? null : cursor.getId();
+    }
 }
@@ -16,6 +16,9 @@
 
 package com.atypon.wayf.data.identity;
 
+import com.atypon.wayf.data.PageCursor;
+
+import java.sql.Timestamp;
 import java.util.Collection;
 
 public class IdentityProviderQuery {
@@ -25,6 +28,7 @@ public class IdentityProviderQuery {
     private IdentityProviderType type;
     private String organizationId;
     private OauthProvider provider;
+    private PageCursor cursor;
 
     public IdentityProviderQuery() {
     }
@@ -90,4 +94,37 @@ public class IdentityProviderQuery {
         this.provider = provider;
         return this;
     }
+
+    public PageCursor getCursor() {
+        return cursor;
+    }
+
+    public IdentityProviderQuery setCursor(PageCursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public boolean isNullCursor() {
+        return cursor == null;
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Timestamp getCursorCreatedDate() {
+        return cursor == null ? null : cursor.getCreatedDate();
+    }
+
+    /**
+     * Database use only
+     * @return
+     */
+    public Long getCursorId() {
+        return cursor == null ? null : cursor.getId();
+    }
 }
@@ -32,6 +32,10 @@ public class Publisher implements Authenticatable {
     private String code;
     private String name;
 
+    // Requests per second and burst size for this publisher, null for the server defaults
+    private Integer rateLimitPerSecond;
+    private Integer rateLimitBurst;
+
     private Date createdDate;
     private Date modifiedDate;
 
@@ -95,6 +99,22 @@ public class Publisher implements Authenticatable {
         this.code = code;
     }
 
+    public Integer getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    public void setRateLimitPerSecond(Integer rateLimitPerSecond) {
+        this.rateLimitPerSecond = rateLimitPerSecond;
+    }
+
+    public Integer getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(Integer rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
     public Date getCreatedDate() {
         return createdDate;
     }
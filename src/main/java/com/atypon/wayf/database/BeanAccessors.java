@@ -0,0 +1,357 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.database;
+
+import org.apache.commons.beanutils.ConvertUtilsBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caches generated getters, setters and constructors for the beans that are read from and written to the database.
+ * Accessors are built once per class with LambdaMetafactory so that mapping a row or binding a query argument is a
+ * plain method call rather than a reflective lookup.
+ */
+final class BeanAccessors {
+    private static final Logger LOG = LoggerFactory.getLogger(BeanAccessors.class);
+
+    private static final String REGEX_DELIMITER = "\\.";
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ConvertUtilsBean CONVERT_UTILS = new ConvertUtilsBean();
+
+    private static final Map<Class<?>, Map<String, Property>> PROPERTIES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Map<String, PropertyPath>> PATHS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Supplier<Object>> CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    private BeanAccessors() {
+    }
+
+    /**
+     * Returns the property of the given class, or null if the class has no readable or writable property by that name
+     */
+    static Property property(Class<?> type, String name) {
+        return PROPERTIES.computeIfAbsent(type, BeanAccessors::introspect).get(name);
+    }
+
+    /**
+     * Returns the writable path for a column label such as 'device.id', resolved against the given root class
+     */
+    static PropertyPath path(Class<?> type, String label) {
+        Map<String, PropertyPath> paths = PATHS.get(type);
+
+        if (paths == null) {
+            paths = PATHS.computeIfAbsent(type, (ignored) -> new ConcurrentHashMap<>());
+        }
+
+        PropertyPath path = paths.get(label);
+
+        if (path == null) {
+            path = paths.computeIfAbsent(label, (ignored) -> new PropertyPath(type, label));
+        }
+
+        return path;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T newInstance(Class<T> type) {
+        return (T) CONSTRUCTORS.computeIfAbsent(type, BeanAccessors::buildConstructor).get();
+    }
+
+    static class Property {
+        private final String name;
+        private final Class<?> type;
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+        private final Function<Object, Object> converter;
+
+        private Property(String name, Class<?> type, Method readMethod, Method writeMethod) {
+            this.name = name;
+            this.type = type;
+            this.getter = readMethod == null ? null : buildGetter(readMethod);
+            this.setter = writeMethod == null ? null : buildSetter(writeMethod);
+            this.converter = buildConverter(type);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public boolean isReadable() {
+            return getter != null;
+        }
+
+        public boolean isWritable() {
+            return setter != null;
+        }
+
+        Object get(Object bean) {
+            return getter.apply(bean);
+        }
+
+        void set(Object bean, Object value) {
+            setter.accept(bean, converter.apply(value));
+        }
+    }
+
+    /**
+     * A nested property path such as 'identityProvider.id'. Missing intermediate beans are created with the cached
+     * constructor of the declared property type.
+     */
+    static class PropertyPath {
+        private final Property[] properties;
+        private final boolean writable;
+
+        private PropertyPath(Class<?> rootType, String label) {
+            String[] fields = label.split(REGEX_DELIMITER);
+
+            Property[] properties = new Property[fields.length];
+
+            Class<?> currentType = rootType;
+            for (int i = 0; i < fields.length; i++) {
+                Property property = property(currentType, fields[i]);
+
+                if (property == null && i < fields.length - 1) {
+                    throw new IllegalArgumentException("Unknown property '" + fields[i] + "' on class '" + currentType + "'");
+                }
+
+                properties[i] = property;
+                currentType = property == null ? null : property.getType();
+            }
+
+            this.properties = properties;
+
+            // Like BeanUtils, columns that do not have a setter on the bean are ignored
+            Property leaf = properties[properties.length - 1];
+            this.writable = leaf != null && leaf.isWritable();
+        }
+
+        public boolean isWritable() {
+            return writable;
+        }
+
+        public Class<?> getType() {
+            return writable ? properties[properties.length - 1].getType() : null;
+        }
+
+        void set(Object bean, Object value) {
+            if (!writable) {
+                return;
+            }
+
+            Object current = bean;
+
+            int leafIndex = properties.length - 1;
+            for (int i = 0; i < leafIndex; i++) {
+                Property property = properties[i];
+
+                Object child = property.get(current);
+                if (child == null) {
+                    child = newInstance(property.getType());
+                    property.set(current, child);
+                }
+
+                current = child;
+            }
+
+            properties[leafIndex].set(current, value);
+        }
+    }
+
+    private static Map<String, Property> introspect(Class<?> type) {
+        try {
+            Map<String, Property> properties = new HashMap<>();
+
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                if (descriptor.getPropertyType() == null) {
+                    continue; // Indexed properties are not used by the beans
+                }
+
+                properties.put(descriptor.getName(), new Property(descriptor.getName(), descriptor.getPropertyType(),
+                        descriptor.getReadMethod(), descriptor.getWriteMethod()));
+            }
+
+            return Collections.unmodifiableMap(properties);
+        } catch (IntrospectionException e) {
+            throw new RuntimeException("Could not introspect class [" + type + "]", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> buildGetter(Method readMethod) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(readMethod);
+
+            CallSite callSite = LambdaMetafactory.metafactory(LOOKUP,
+                    "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(box(readMethod.getReturnType()), readMethod.getDeclaringClass()));
+
+            return (Function<Object, Object>) callSite.getTarget().invoke();
+        } catch (Throwable t) {
+            LOG.debug("Falling back to reflection for getter [{}]", readMethod, t);
+
+            readMethod.setAccessible(true);
+            return (bean) -> {
+                try {
+                    return readMethod.invoke(bean);
+                } catch (Exception e) {
+                    throw new RuntimeException("Could not read property with method [" + readMethod + "]", e);
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> buildSetter(Method writeMethod) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(writeMethod);
+
+            CallSite callSite = LambdaMetafactory.metafactory(LOOKUP,
+                    "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(void.class, writeMethod.getDeclaringClass(), box(writeMethod.getParameterTypes()[0])));
+
+            return (BiConsumer<Object, Object>) callSite.getTarget().invoke();
+        } catch (Throwable t) {
+            LOG.debug("Falling back to reflection for setter [{}]", writeMethod, t);
+
+            writeMethod.setAccessible(true);
+            return (bean, value) -> {
+                try {
+                    writeMethod.invoke(bean, value);
+                } catch (Exception e) {
+                    throw new RuntimeException("Could not write property with method [" + writeMethod + "]", e);
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Object> buildConstructor(Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            return () -> {
+                throw new IllegalArgumentException("Could not instantiate class [" + type + "]");
+            };
+        }
+
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type, MethodType.methodType(void.class));
+
+            CallSite callSite = LambdaMetafactory.metafactory(LOOKUP,
+                    "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class),
+                    handle,
+                    MethodType.methodType(type));
+
+            return (Supplier<Object>) callSite.getTarget().invoke();
+        } catch (Throwable t) {
+            LOG.debug("Falling back to reflection for constructor of [{}]", type, t);
+
+            return () -> {
+                try {
+                    return type.getDeclaredConstructor().newInstance();
+                } catch (Exception e) {
+                    throw new RuntimeException("Could not instantiate class [" + type + "]", e);
+                }
+            };
+        }
+    }
+
+    /**
+     * Builds the conversion from a JDBC value to the property type. Values that are already of the right type are
+     * passed through, numbers are widened or narrowed and strings are converted to enums.
+     */
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> buildConverter(Class<?> type) {
+        Class<?> targetType = box(type);
+
+        if (targetType.isEnum()) {
+            return (value) -> value == null || targetType.isInstance(value) ? value : Enum.valueOf((Class) targetType, value.toString());
+        }
+
+        if (Long.class.equals(targetType)) {
+            return (value) -> value instanceof Number && !(value instanceof Long) ? ((Number) value).longValue() : convert(value, targetType);
+        }
+
+        if (Integer.class.equals(targetType)) {
+            return (value) -> value instanceof Number && !(value instanceof Integer) ? ((Number) value).intValue() : convert(value, targetType);
+        }
+
+        if (Double.class.equals(targetType)) {
+            return (value) -> value instanceof Number && !(value instanceof Double) ? ((Number) value).doubleValue() : convert(value, targetType);
+        }
+
+        if (String.class.equals(targetType)) {
+            return (value) -> value == null || value instanceof String ? value : value.toString();
+        }
+
+        return (value) -> convert(value, targetType);
+    }
+
+    private static Object convert(Object value, Class<?> targetType) {
+        if (value == null || targetType.isInstance(value)) {
+            return value;
+        }
+
+        return CONVERT_UTILS.convert(value.toString(), targetType);
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        if (type == char.class) return Character.class;
+
+        return Void.class;
+    }
+}
@@ -16,22 +16,43 @@
 
 package com.atypon.wayf.database;
 
+import com.atypon.wayf.data.PageCursor;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
+import com.atypon.wayf.request.RequestContext;
 import com.atypon.wayf.request.RequestContextAccessor;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
 import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.functions.BiConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @Singleton
 public class DbExecutor {
@@ -39,6 +60,12 @@ public class DbExecutor {
 
     public static final String LIMIT = "limit";
     public static final String OFFSET = "offset";
+    public static final String CURSOR_ID = "cursorId";
+
+    private static final String CREATED_DATE_PROPERTY = "createdDate";
+    private static final String ID_PROPERTY = "id";
+
+    private static final String DB_STAGE = "db";
 
     @Inject
     private NestedFieldBeanMapper beanMapper;
@@ -46,6 +73,22 @@ public class DbExecutor {
     @Inject
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    @Inject
+    @Named("jdbcCircuitBreaker")
+    private CircuitBreaker circuitBreaker;
+
+    @Inject
+    @Named("jdbcScheduler")
+    private BulkheadScheduler scheduler;
+
+    @Inject
+    @Named("jdbc.compiledColumnPlan")
+    private Boolean useColumnPlan;
+
+    @Inject
+    @Named("jdbc.fetchSize")
+    private Integer fetchSize;
+
     public DbExecutor() {
     }
 
@@ -61,7 +104,16 @@ public class DbExecutor {
         return executeSelect(query, QueryMapper.buildQueryArguments(query, arguments), returnType);
     }
 
+    /**
+     * Runs the select on the JDBC scheduler when subscribed to, behind the JDBC circuit breaker and with retries for
+     * transient errors
+     */
     public <T> Observable<T> executeSelect(String query, Map<String, Object> arguments, Class<T> returnType) {
+        return DaoPolicies.guardSingle(Single.fromCallable(() -> select(query, arguments, returnType)), circuitBreaker, scheduler)
+                .flatMapObservable(Observable::fromIterable);
+    }
+
+    private <T> List<T> select(String query, Map<String, Object> arguments, Class<T> returnType) {
         // Add in limit and offset arguments by default. The limit is increased by 1 so that we can see if there is
         // more data for the client to paginate
         //
@@ -77,18 +129,103 @@ public class DbExecutor {
 
         LOG.debug("Running query [{}] with values [{}]", query, arguments);
 
-        List<T> results = namedParameterJdbcTemplate.query(query, arguments, new NestedFieldRowMapper(returnType, beanMapper));
+        long stageStartNanos = StageTimings.start();
+        List<T> results = namedParameterJdbcTemplate.query(query, arguments, new NestedFieldRowMapper(returnType, beanMapper, useColumnPlan));
+        StageTimings.recordCurrent(stageName(query), stageStartNanos);
 
         // If the results filled the limit + 1, there are more results to paginate through.
-        if (results.size() == RequestContextAccessor.get().getLimit() + 1) {
+        RequestContext requestContext = RequestContextAccessor.get();
+        if (requestContext != null && results.size() == requestContext.getLimit() + 1) {
             results.remove(results.size() - 1);
 
-            if (RequestContextAccessor.get() != null) {
-                RequestContextAccessor.get().setHasAnotherDbPage(Boolean.TRUE);
+            requestContext.setHasAnotherDbPage(Boolean.TRUE);
+
+            if (isKeysetQuery(arguments) && !results.isEmpty()) {
+                requestContext.setNextPageCursor(buildPageCursor(results.get(results.size() - 1)));
+            }
+        }
+
+        return results;
+    }
+
+    public <T> Flowable<T> executeSelectStream(String query, Object arguments, Class<T> returnType) {
+        return executeSelectStream(query, QueryMapper.buildQueryArguments(query, arguments), returnType);
+    }
+
+    /**
+     * Streams the results of a select from an open cursor instead of loading them into a list first. Rows are read
+     * from the database as the subscriber requests them, and the connection is released when the stream completes,
+     * fails or is cancelled.
+     */
+    public <T> Flowable<T> executeSelectStream(String query, Map<String, Object> arguments, Class<T> returnType) {
+        RequestContext requestContext = RequestContextAccessor.get();
+
+        // Only a limit taken from the request pages the results. A caller's own limit reads every row it allows
+        int pageLimit = -1;
+        if (requestContext != null) {
+            if (arguments.get(LIMIT) == null) {
+                pageLimit = requestContext.getLimit();
+                arguments.put(LIMIT, pageLimit + 1);
+            }
+
+            if (arguments.get(OFFSET) == null) {
+                arguments.put(OFFSET, requestContext.getOffset());
             }
         }
 
-        return Observable.fromIterable(results);
+        LOG.debug("Streaming query [{}] with values [{}]", query, arguments);
+
+        JdbcTemplate jdbcTemplate = (JdbcTemplate) namedParameterJdbcTemplate.getJdbcOperations();
+        NestedFieldRowMapper rowMapper = new NestedFieldRowMapper(returnType, beanMapper, useColumnPlan);
+
+        int cursorPageLimit = pageLimit;
+        Callable<ResultSetCursor<T>> openCursor = () ->
+                new ResultSetCursor<T>(query, jdbcTemplate.getDataSource(), jdbcTemplate.getExceptionTranslator(), rowMapper, requestContext, cursorPageLimit)
+                        .setKeyset(isKeysetQuery(arguments))
+                        .open(arguments, fetchSize);
+
+        BiConsumer<ResultSetCursor<T>, Emitter<T>> readRow = ResultSetCursor::next;
+
+        Flowable<T> rows = Flowable.generate(openCursor, readRow, ResultSetCursor::close)
+                .compose(StageTimings.flowable(stageName(query)));
+
+        return DaoPolicies.guardFlowable(rows, circuitBreaker, scheduler);
+    }
+
+    /**
+     * Times each query under the name of the DAO property it was loaded from, e.g. db.device-access.filter
+     */
+    private static String stageName(String query) {
+        String queryName = QueryMapper.getQueryName(query);
+        return queryName != null ? DB_STAGE + "." + queryName : DB_STAGE;
+    }
+
+    /**
+     * Queries that take a cursor id page on (created_date, id) and can hand the client a cursor for the next page
+     */
+    private static boolean isKeysetQuery(Map<String, Object> arguments) {
+        return arguments.containsKey(CURSOR_ID);
+    }
+
+    /**
+     * Builds the cursor that points after the given row, or null if the row has no created date and id to key on
+     */
+    static PageCursor buildPageCursor(Object row) {
+        BeanAccessors.Property createdDateProperty = BeanAccessors.property(row.getClass(), CREATED_DATE_PROPERTY);
+        BeanAccessors.Property idProperty = BeanAccessors.property(row.getClass(), ID_PROPERTY);
+
+        if (createdDateProperty == null || !createdDateProperty.isReadable() || idProperty == null || !idProperty.isReadable()) {
+            return null;
+        }
+
+        Object createdDate = createdDateProperty.get(row);
+        Object id = idProperty.get(row);
+
+        if (!(createdDate instanceof Date) || !(id instanceof Number)) {
+            return null;
+        }
+
+        return new PageCursor((Date) createdDate, ((Number) id).longValue());
     }
 
     public Single<Long> executeUpdate(String query, Object arguments) {
@@ -99,9 +236,12 @@ public class DbExecutor {
         LOG.debug("Running update [{}] with values [{}]", query, arguments);
 
         GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
-        return Single.just(query)
+        Single<Long> update = Single.just(query)
                 .map((ignored) -> namedParameterJdbcTemplate.update(query, new MapSqlParameterSource(arguments), keyHolder))
-                .map((ignored) -> keyHolder.getKey() == null? null : keyHolder.getKey().longValue());
+                .map((ignored) -> keyHolder.getKey() == null? null : keyHolder.getKey().longValue())
+                .compose(StageTimings.single(stageName(query)));
+
+        return DaoPolicies.guardSingle(update, circuitBreaker, scheduler);
     }
 
     public Single<Integer> executeUpdateRowCount(String query, Object arguments) {
@@ -111,7 +251,62 @@ public class DbExecutor {
     public Single<Integer> executeUpdateRowCount(String query, Map<String, Object> arguments) {
         LOG.debug("Running update [{}] with values [{}]", query, arguments);
 
-        return Single.just(query)
-                .map((ignored) -> namedParameterJdbcTemplate.update(query, new MapSqlParameterSource(arguments)));
+        Single<Integer> update = Single.just(query)
+                .map((ignored) -> namedParameterJdbcTemplate.update(query, new MapSqlParameterSource(arguments)))
+                .compose(StageTimings.single(stageName(query)));
+
+        return DaoPolicies.guardSingle(update, circuitBreaker, scheduler);
+    }
+
+    /**
+     * Runs the statement once per bean as a single JDBC batch. The statement is prepared once, so its arguments
+     * cannot be collections. With MySQL, set rewriteBatchedStatements=true on the jdbc.url to send inserts as one
+     * multi-row statement.
+     */
+    public Single<int[]> executeBatchUpdate(String query, List<?> arguments) {
+        LOG.debug("Running batch update [{}] for [{}] rows", query, arguments.size());
+
+        Single<int[]> batchUpdate = Single.just(query)
+                .map((ignored) -> {
+                    if (arguments.isEmpty()) {
+                        return new int[0];
+                    }
+
+                    ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(query);
+
+                    String sql = null;
+                    List<Object[]> rows = new ArrayList<>(arguments.size());
+
+                    for (Object argument : arguments) {
+                        MapSqlParameterSource parameterSource = new MapSqlParameterSource(QueryMapper.buildQueryArguments(query, argument));
+
+                        if (sql == null) {
+                            sql = NamedParameterUtils.substituteNamedParameters(parsedSql, parameterSource);
+                        }
+
+                        rows.add(NamedParameterUtils.buildValueArray(parsedSql, parameterSource, null));
+                    }
+
+                    JdbcTemplate jdbcTemplate = (JdbcTemplate) namedParameterJdbcTemplate.getJdbcOperations();
+
+                    return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement statement, int i) throws SQLException {
+                            Object[] values = rows.get(i);
+
+                            for (int j = 0; j < values.length; j++) {
+                                StatementCreatorUtils.setParameterValue(statement, j + 1, SqlTypeValue.TYPE_UNKNOWN, values[j]);
+                            }
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return rows.size();
+                        }
+                    });
+                })
+                .compose(StageTimings.single(stageName(query)));
+
+        return DaoPolicies.guardSingle(batchUpdate, circuitBreaker, scheduler);
     }
-}
\ No newline at end of file
+}
@@ -19,9 +19,6 @@ package com.atypon.wayf.database;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
-import io.vertx.core.cli.annotations.Name;
-import org.apache.commons.beanutils.BeanUtilsBean;
-import org.apache.commons.beanutils.ConvertUtilsBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,51 +28,27 @@ import java.util.Map;
 class NestedFieldBeanMapper {
     private static final Logger LOG = LoggerFactory.getLogger(NestedFieldBeanMapper.class);
 
-    private static final String DELIMITER = ".";
-    private static final String REGEX_DELIMITER = "\\.";
-
     @Inject
     @Named("beanFactoryMap")
     private Map<Class<?>, BeanFactory<?>> beanFactoryMap;
 
-    private BeanUtilsBean enumConverterUtilsBean = new BeanUtilsBean(new ConvertUtilsBean() {
-        @Override
-        public Object convert(String value, Class clazz) {
-            if (clazz.isEnum()){
-                return Enum.valueOf(clazz, value);
-            } else {
-                return super.convert(value, clazz);
-            }
-        }
-    });
-
     public NestedFieldBeanMapper() {
     }
 
     public <T> T map(Map<String, Object> row, Class<T> type) {
         try {
-            T bean = null;
+            T bean = createInstance(row, type);
 
-            if (beanFactoryMap.get(type) != null) {
-                bean = (T) beanFactoryMap.get(type).createInstance(row);
-            } else {
-                bean = type.newInstance();
-            }
+            Class<?> beanType = bean.getClass();
 
-            for (String key : row.keySet()) {
-                Object value = row.get(key);
+            for (Map.Entry<String, Object> column : row.entrySet()) {
+                Object value = column.getValue();
 
                 if (value == null) {
                     continue;
                 }
 
-                if (key.contains(DELIMITER)) {
-                    String[] pathFields = key.split(REGEX_DELIMITER);
-
-                    handleNestedValue(bean, pathFields, 0, value);
-                } else {
-                    enumConverterUtilsBean.setProperty(bean, key, value);
-                }
+                BeanAccessors.path(beanType, column.getKey()).set(bean, value);
             }
 
             return bean;
@@ -84,31 +57,23 @@ class NestedFieldBeanMapper {
         }
     }
 
-    private Object handleNestedValue(Object bean, String[] path, int index, Object value) throws Exception {
-        LOG.debug("Handling nested value for bean[{}] path[{}] index[{}] value[{}]", bean, path, index, value);
-
-        String fieldName = path[index];
-
-        if (index == path.length - 1) {
-            LOG.debug("Setting bean[{}] field[{}] to value[{}]", bean, fieldName, value);
-
-            if (value != null) {
-                enumConverterUtilsBean.setProperty(bean, fieldName, value);
-            } else {
-                return null;
-            }
-        } else {
-            Object childBean = enumConverterUtilsBean.getPropertyUtils().getProperty(bean, fieldName);
-
-            if (childBean == null) {
-                childBean = enumConverterUtilsBean.getPropertyUtils().getPropertyType(bean, fieldName).newInstance();
-            }
+    boolean hasBeanFactory(Class<?> type) {
+        return beanFactoryMap != null && beanFactoryMap.get(type) != null;
+    }
 
-            LOG.debug("Recursing for childBean bean[{}] field[{}]", childBean, fieldName);
+    @SuppressWarnings("unchecked")
+    <T> T createInstance(Map<String, Object> row, Class<T> type) {
+        BeanFactory<?> beanFactory = beanFactoryMap == null ? null : beanFactoryMap.get(type);
 
-            enumConverterUtilsBean.setProperty(bean, fieldName, handleNestedValue(childBean, path, ++index, value));
+        if (beanFactory != null) {
+            return (T) beanFactory.createInstance(row);
         }
 
-        return bean;
+        return BeanAccessors.newInstance(type);
+    }
+
+    NestedFieldBeanMapper setBeanFactoryMap(Map<Class<?>, BeanFactory<?>> beanFactoryMap) {
+        this.beanFactoryMap = beanFactoryMap;
+        return this;
     }
 }
@@ -33,14 +33,31 @@ public class NestedFieldRowMapper implements RowMapper {
     private Class<?> returnType;
     private NestedFieldBeanMapper beanMapper;
 
+    private boolean useColumnPlan;
+    private ColumnPlan[] columnPlans;
+
     public NestedFieldRowMapper(Class<?> returnType, NestedFieldBeanMapper beanMapper) {
+        this(returnType, beanMapper, false);
+    }
+
+    /**
+     * @param useColumnPlan read the result set metadata once and map each row straight onto the bean by column index.
+     *                      Types that are built by a {@link BeanFactory} always go through the row map.
+     */
+    public NestedFieldRowMapper(Class<?> returnType, NestedFieldBeanMapper beanMapper, boolean useColumnPlan) {
         this.returnType = returnType;
         this.beanMapper = beanMapper;
+        this.useColumnPlan = useColumnPlan && !beanMapper.hasBeanFactory(returnType);
     }
 
     @Override
     public Object mapRow(ResultSet resultSet, int i) throws SQLException {
         LOG.debug("Mapping row {}", i);
+
+        if (useColumnPlan) {
+            return mapRowWithColumnPlan(resultSet);
+        }
+
         ResultSetMetaData metadata = resultSet.getMetaData();
 
         int numColumns = metadata.getColumnCount();
@@ -87,4 +104,93 @@ public class NestedFieldRowMapper implements RowMapper {
 
         return beanMapper.map(resultSetValues, returnType);
     }
+
+    private Object mapRowWithColumnPlan(ResultSet resultSet) throws SQLException {
+        // A row mapper is created per query, so the metadata only has to be read for the first row
+        if (columnPlans == null) {
+            columnPlans = compileColumnPlans(resultSet.getMetaData());
+        }
+
+        Object bean = BeanAccessors.newInstance(returnType);
+
+        for (ColumnPlan columnPlan : columnPlans) {
+            Object value = columnPlan.decoder.decode(resultSet, columnPlan.index);
+
+            if (value != null) {
+                columnPlan.path.set(bean, value);
+            }
+        }
+
+        return bean;
+    }
+
+    private ColumnPlan[] compileColumnPlans(ResultSetMetaData metadata) throws SQLException {
+        int numColumns = metadata.getColumnCount();
+
+        ColumnPlan[] columnPlans = new ColumnPlan[numColumns];
+
+        for (int columnIndex = 1; columnIndex <= numColumns; columnIndex++) {
+            int columnType = metadata.getColumnType(columnIndex);
+            String columnLabel = metadata.getColumnLabel(columnIndex);
+
+            BeanAccessors.PropertyPath path = BeanAccessors.path(returnType, columnLabel);
+
+            columnPlans[columnIndex - 1] = new ColumnPlan(columnIndex, buildDecoder(columnLabel, columnType, path.getType()), path);
+        }
+
+        LOG.debug("Compiled [{}] column plans for type [{}]", numColumns, returnType);
+
+        return columnPlans;
+    }
+
+    private ColumnDecoder buildDecoder(String columnLabel, int columnType, Class<?> targetType) {
+        switch (columnType) {
+            case Types.DOUBLE:
+            case Types.DECIMAL:
+                return (resultSet, index) -> {
+                    double value = resultSet.getDouble(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case Types.INTEGER:
+            case Types.TINYINT:
+            case Types.BIGINT:
+                // Read straight into the property type where possible to avoid a conversion per row
+                if (Long.class.equals(targetType) || long.class.equals(targetType) || columnType == Types.BIGINT) {
+                    return (resultSet, index) -> {
+                        long value = resultSet.getLong(index);
+                        return resultSet.wasNull() ? null : value;
+                    };
+                }
+
+                return (resultSet, index) -> {
+                    int value = resultSet.getInt(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case Types.TIMESTAMP:
+            case Types.DATE:
+                return ResultSet::getTimestamp;
+            case Types.CHAR:
+            case Types.VARCHAR:
+                return ResultSet::getString;
+            default:
+                throw new RuntimeException("Could not determine return type for column [" + columnLabel + "] with type [" + columnType + "]");
+        }
+    }
+
+    @FunctionalInterface
+    private interface ColumnDecoder {
+        Object decode(ResultSet resultSet, int index) throws SQLException;
+    }
+
+    private static class ColumnPlan {
+        private final int index;
+        private final ColumnDecoder decoder;
+        private final BeanAccessors.PropertyPath path;
+
+        ColumnPlan(int index, ColumnDecoder decoder, BeanAccessors.PropertyPath path) {
+            this.index = index;
+            this.decoder = decoder;
+            this.path = path;
+        }
+    }
 }
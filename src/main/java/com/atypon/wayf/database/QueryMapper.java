@@ -18,102 +18,116 @@ package com.atypon.wayf.database;
 
 
 import com.google.common.collect.Sets;
-import org.apache.commons.beanutils.BeanUtilsBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-class QueryMapper {
+public class QueryMapper {
     private static final Logger LOG = LoggerFactory.getLogger(QueryMapper.class);
 
     private static final Set<String> FIELD_BLACKLIST = Sets.newHashSet(DbExecutor.LIMIT, DbExecutor.OFFSET);
 
-    private static final String DELIMITER = ".";
-    private static final String REGEX_DELIMITER = "\\.";
+    private static final String DAO_QUERY_KEY = ".dao.db.";
 
     private static final String FIELD_REGEX = ":([a-zA-Z0-9\\.]+)?";
     private static final Pattern PATTERN = Pattern.compile(FIELD_REGEX, Pattern.DOTALL | Pattern.MULTILINE);
 
-    private static final Map<String, List<String>> parsedQueryCache = new HashMap<>(); // Don't let this grow too big
+    // Queries are compiled at startup, ad-hoc queries are only cached until the limit is reached
+    private static final int MAX_QUERY_PLANS = 1024;
+    private static final Map<String, QueryPlan> queryPlans = new ConcurrentHashMap<>();
+
+    /**
+     * Compiles a query plan for every DAO query in the given properties so that no parsing happens on request threads
+     */
+    public static void precompile(Properties properties) {
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.contains(DAO_QUERY_KEY)) {
+                continue;
+            }
+
+            String query = properties.getProperty(key);
+            if (query == null || query.trim().isEmpty()) {
+                continue;
+            }
 
-    private static BeanUtilsBean beanUtilsBean = new BeanUtilsBean(
-    );
+            queryPlans.put(query, compile(key.replace(DAO_QUERY_KEY, "."), query));
+        }
+
+        LOG.info("Compiled [{}] query plans", queryPlans.size());
+    }
 
     public static Map<String, Object> buildQueryArguments(String query, Object bean) {
-        List<String> parsedQuery = parseQuery(query);
+        List<QueryPlan.Parameter> parameters = getQueryPlan(query).getParameters();
 
         Map<String, Object> values = new HashMap<>();
 
-        for (String queryField : parsedQuery) {
-            values.put(queryField, getValue(queryField, bean));
+        for (QueryPlan.Parameter parameter : parameters) {
+            values.put(parameter.getName(), getValue(parameter, bean));
         }
 
         return values;
     }
 
-    private static List<String> parseQuery(String query) {
-        List<String> parsedQuery = parsedQueryCache.get(query);
-
-        if (parsedQuery == null) {
-            Matcher result = PATTERN.matcher(query);
+    /**
+     * The name of a precompiled DAO query, e.g. device-access.filter, or null for any other query
+     */
+    public static String getQueryName(String query) {
+        QueryPlan queryPlan = queryPlans.get(query);
+        return queryPlan != null ? queryPlan.getName() : null;
+    }
 
-            parsedQuery = new LinkedList<>();
+    static QueryPlan getQueryPlan(String query) {
+        QueryPlan queryPlan = queryPlans.get(query);
 
-            while (result.find()) {
-                for (int i = 1; i <= result.groupCount(); i++) {
-                    String field = result.group(i);
+        if (queryPlan == null) {
+            queryPlan = compile(null, query);
 
-                    if (!FIELD_BLACKLIST.contains(field)) {
-                        parsedQuery.add(field);
-                    }
-                }
+            if (queryPlans.size() < MAX_QUERY_PLANS) {
+                QueryPlan existing = queryPlans.putIfAbsent(query, queryPlan);
+                queryPlan = existing != null ? existing : queryPlan;
+            } else {
+                LOG.warn("Query plan limit reached, not caching query [{}]", query);
             }
-
-            parsedQueryCache.put(query, parsedQuery);
         }
 
-        return parsedQuery;
+        return queryPlan;
     }
 
-    private static Object getValue(String field, Object bean) {
-        LOG.debug("Getting value for field [{}] of bean [{}]", field, bean);
+    private static QueryPlan compile(String name, String query) {
+        Matcher result = PATTERN.matcher(query);
 
-        try {
-            Object fieldValue = field.contains(DELIMITER) ?
-                    handleNestedValue(bean, field.split(REGEX_DELIMITER), 0) :
-                    beanUtilsBean.getPropertyUtils().getProperty(bean, field);
+        // A parameter may appear more than once in a query but only needs to be read once
+        Set<String> parameterNames = new LinkedHashSet<>();
 
-            LOG.debug("Found value [{}] for field [{}] of bean [{}]", fieldValue, field, bean);
+        while (result.find()) {
+            for (int i = 1; i <= result.groupCount(); i++) {
+                String field = result.group(i);
 
-            return getDbValue(fieldValue);
-        } catch (Exception e) {
-            LOG.error("Could not parse argument [{}] from bean [{}]", field, bean);
-            throw new RuntimeException(e);
+                if (field != null && !FIELD_BLACKLIST.contains(field)) {
+                    parameterNames.add(field);
+                }
+            }
         }
-    }
-
-    private static Object handleNestedValue(Object bean, String[] path, int index) throws Exception {
-        LOG.debug("Handling nested value for bean[{}] path[{}] index[{}]", bean, path, index);
-
-        String fieldName = path[index];
 
-        if (index == path.length - 1) {
-            LOG.debug("Returning nested field [{}] of bean [{}]", fieldName, bean);
+        return new QueryPlan(name, new ArrayList<>(parameterNames));
+    }
 
-            return beanUtilsBean.getPropertyUtils().getProperty(bean, fieldName);
-        } else {
-            Object childBean = beanUtilsBean.getPropertyUtils().getProperty(bean, fieldName);
+    private static Object getValue(QueryPlan.Parameter parameter, Object bean) {
+        LOG.debug("Getting value for field [{}] of bean [{}]", parameter.getName(), bean);
 
-            if (childBean == null) {
-                return null;
-            }
+        try {
+            Object fieldValue = parameter.readValue(bean);
 
-            LOG.debug("Recursing for childBean bean[{}] field[{}]", childBean, fieldName);
+            LOG.debug("Found value [{}] for field [{}] of bean [{}]", fieldValue, parameter.getName(), bean);
 
-            return handleNestedValue(childBean, path, ++index);
+            return getDbValue(fieldValue);
+        } catch (Exception e) {
+            LOG.error("Could not parse argument [{}] from bean [{}]", parameter.getName(), bean);
+            throw new RuntimeException(e);
         }
     }
 
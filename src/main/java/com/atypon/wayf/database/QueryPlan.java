@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parsed form of a named-parameter SQL statement. A plan is built once per SQL string and holds the ordered
+ * parameter names, their pre-split property paths and the getters resolved for each path.
+ */
+class QueryPlan {
+    private static final String REGEX_DELIMITER = "\\.";
+
+    private final String name;
+    private final List<Parameter> parameters;
+
+    QueryPlan(String name, List<String> parameterNames) {
+        this.name = name;
+
+        Parameter[] parameters = new Parameter[parameterNames.size()];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = new Parameter(parameterNames.get(i));
+        }
+
+        this.parameters = Collections.unmodifiableList(Arrays.asList(parameters));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    static class Parameter {
+        private final String name;
+        private final String[] path;
+
+        // The getter resolved for each path segment, keyed on the class it was resolved against
+        private final ResolvedGetter[] getters;
+
+        Parameter(String name) {
+            this.name = name;
+            this.path = name.split(REGEX_DELIMITER);
+            this.getters = new ResolvedGetter[path.length];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getPath() {
+            return path;
+        }
+
+        Object readValue(Object bean) throws Exception {
+            Object value = bean;
+
+            for (int i = 0; i < path.length; i++) {
+                if (value == null) {
+                    if (i == 0) {
+                        throw new IllegalArgumentException("No bean specified for parameter [" + name + "]");
+                    }
+
+                    return null;
+                }
+
+                ResolvedGetter getter = getters[i];
+                if (getter == null || getter.type != value.getClass()) {
+                    getter = new ResolvedGetter(value.getClass(), findReadableProperty(value.getClass(), path[i]));
+                    getters[i] = getter;
+                }
+
+                value = getter.property.get(value);
+            }
+
+            return value;
+        }
+    }
+
+    private static class ResolvedGetter {
+        private final Class<?> type;
+        private final BeanAccessors.Property property;
+
+        ResolvedGetter(Class<?> type, BeanAccessors.Property property) {
+            this.type = type;
+            this.property = property;
+        }
+    }
+
+    private static BeanAccessors.Property findReadableProperty(Class<?> type, String name) throws NoSuchMethodException {
+        BeanAccessors.Property property = BeanAccessors.property(type, name);
+
+        if (property == null || !property.isReadable()) {
+            throw new NoSuchMethodException("Unknown property '" + name + "' on class '" + type + "'");
+        }
+
+        return property;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.database;
+
+import com.atypon.wayf.request.RequestContext;
+import io.reactivex.Emitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An open, forward-only cursor over the results of a select. Rows are mapped one at a time as they are requested and
+ * the connection is held until the cursor is closed.
+ */
+class ResultSetCursor<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultSetCursor.class);
+
+    private final String query;
+    private final DataSource dataSource;
+    private final SQLExceptionTranslator exceptionTranslator;
+    private final NestedFieldRowMapper rowMapper;
+    private final RequestContext requestContext;
+    private final int pageLimit;
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+    private int rowNum = 0;
+
+    private boolean keyset = false;
+    private Object lastRow;
+
+    /**
+     * @param pageLimit the number of rows the client asked for. Seeing one more row than that means there is
+     *                  another page. A negative limit emits every row.
+     */
+    ResultSetCursor(String query, DataSource dataSource, SQLExceptionTranslator exceptionTranslator,
+                    NestedFieldRowMapper rowMapper, RequestContext requestContext, int pageLimit) {
+        this.query = query;
+        this.dataSource = dataSource;
+        this.exceptionTranslator = exceptionTranslator;
+        this.rowMapper = rowMapper;
+        this.requestContext = requestContext;
+        this.pageLimit = pageLimit;
+    }
+
+    /**
+     * Marks the query as paging on (created_date, id), so the cursor for the next page is taken from the last row
+     */
+    ResultSetCursor<T> setKeyset(boolean keyset) {
+        this.keyset = keyset;
+        return this;
+    }
+
+    ResultSetCursor<T> open(Map<String, Object> arguments, int fetchSize) {
+        ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(query);
+        MapSqlParameterSource parameterSource = new MapSqlParameterSource(arguments);
+
+        String sql = NamedParameterUtils.substituteNamedParameters(parsedSql, parameterSource);
+        Object[] values = NamedParameterUtils.buildValueArray(parsedSql, parameterSource, null);
+
+        try {
+            connection = DataSourceUtils.getConnection(dataSource);
+
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+
+            int parameterIndex = 1;
+            for (Object value : values) {
+                // Collections were expanded to one placeholder per element by substituteNamedParameters
+                if (value instanceof Collection) {
+                    for (Object element : (Collection<?>) value) {
+                        StatementCreatorUtils.setParameterValue(statement, parameterIndex++, SqlTypeValue.TYPE_UNKNOWN, element);
+                    }
+                } else {
+                    StatementCreatorUtils.setParameterValue(statement, parameterIndex++, SqlTypeValue.TYPE_UNKNOWN, value);
+                }
+            }
+
+            resultSet = statement.executeQuery();
+
+            return this;
+        } catch (SQLException e) {
+            close();
+            throw exceptionTranslator.translate("Opening cursor", sql, e);
+        }
+    }
+
+    void next(Emitter<T> emitter) {
+        try {
+            if (!resultSet.next()) {
+                emitter.onComplete();
+                return;
+            }
+
+            // If the results fill the limit + 1, there are more results to paginate through
+            if (pageLimit >= 0 && rowNum == pageLimit) {
+                if (requestContext != null) {
+                    requestContext.setHasAnotherDbPage(Boolean.TRUE);
+
+                    if (keyset && lastRow != null) {
+                        requestContext.setNextPageCursor(DbExecutor.buildPageCursor(lastRow));
+                    }
+                }
+
+                emitter.onComplete();
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            T row = (T) rowMapper.mapRow(resultSet, rowNum++);
+            lastRow = row;
+
+            emitter.onNext(row);
+        } catch (SQLException e) {
+            emitter.onError(exceptionTranslator.translate("Reading cursor", query, e));
+        }
+    }
+
+    void close() {
+        LOG.debug("Closing cursor after [{}] rows", rowNum);
+
+        JdbcUtils.closeResultSet(resultSet);
+        JdbcUtils.closeStatement(statement);
+        DataSourceUtils.releaseConnection(connection, dataSource);
+
+        resultSet = null;
+        statement = null;
+        connection = null;
+    }
+}
@@ -18,10 +18,12 @@ package com.atypon.wayf.facade;
 
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.AuthorizationToken;
+import io.reactivex.Maybe;
 import io.reactivex.Single;
 
 public interface AuthenticationFacade {
     Single<String> createToken(Authenticatable authenticatable);
     Authenticatable authenticate(AuthorizationToken token);
+    Maybe<Authenticatable> authenticateAsync(AuthorizationToken token);
     AuthorizationToken parseAuthenticationValue(String authenticationValue);
 }
@@ -36,4 +36,6 @@ public interface DeviceFacade {
     Single<Device> readByLocalId(String localId);
 
     String encryptLocalId(Long publisherId, String localId);
+
+    Single<String> encryptLocalIdAsync(Long publisherId, String localId);
 }
@@ -17,8 +17,11 @@
 package com.atypon.wayf.facade;
 
 import com.atypon.wayf.data.device.Device;
+import com.atypon.wayf.data.device.access.DeviceAccess;
 import com.atypon.wayf.data.identity.IdentityProviderUsage;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Single;
 
 import java.util.List;
 
@@ -27,4 +30,16 @@ public interface IdentityProviderUsageFacade {
     Observable<IdentityProviderUsage> buildRecentHistory(String localId);
 
     List<IdentityProviderUsage> buildRecentHistory(Device device);
+
+    Single<List<IdentityProviderUsage>> buildRecentHistoryAsync(Device device);
+
+    /**
+     * Adds an identity provider use to the device's recent usage
+     */
+    Completable recordUse(DeviceAccess deviceAccess);
+
+    /**
+     * Drops the device's recent usage so that it is rebuilt from its activity on the next read
+     */
+    Completable resetUsage(Device device);
 }
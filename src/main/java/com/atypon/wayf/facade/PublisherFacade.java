@@ -29,4 +29,5 @@ public interface PublisherFacade {
     Single<Publisher> lookupCode(String publisherCode);
 
     String getPublishersSalt(Long publisherId);
+    Single<String> getPublishersSaltAsync(Long publisherId);
 }
@@ -23,8 +23,11 @@ import com.atypon.wayf.data.AuthorizationToken;
 import com.atypon.wayf.data.AuthorizationTokenType;
 import com.atypon.wayf.data.ServiceException;
 import com.atypon.wayf.facade.AuthenticationFacade;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.DaoPolicies;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import io.reactivex.Maybe;
 import io.reactivex.Single;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
@@ -40,6 +43,8 @@ public class AuthenticatableFacadeImpl implements AuthenticationFacade {
     private static final String TOKEN_REGEX = "(Token|Bearer) (.*)";
     private static final Pattern TOKEN_MATCHER = Pattern.compile(TOKEN_REGEX, Pattern.DOTALL);
 
+    private static final String AUTHENTICATION_STAGE = "auth";
+
     @Inject
     @Named("authenticatableCache")
     protected LoadingCache<String, Authenticatable> cache;
@@ -56,23 +61,28 @@ public class AuthenticatableFacadeImpl implements AuthenticationFacade {
 
     @Override
     public Authenticatable authenticate(AuthorizationToken token) {
+        return authenticateAsync(token).blockingGet();
+    }
+
+    /**
+     * Looks the token up through the cache layers without blocking. Token types that aren't API tokens complete empty
+     * and an unknown token errors with a 401. A lookup that fails because Redis or the database does is the server's
+     * error, not the caller's
+     */
+    @Override
+    public Maybe<Authenticatable> authenticateAsync(AuthorizationToken token) {
         LOG.debug("Authenticating token");
 
         if (AuthorizationTokenType.API_TOKEN != token.getType()) {
-            return null;
+            return Maybe.empty();
         }
 
-        try {
-            Authenticatable authenticatable = cache.get(token.getValue()).blockingGet();
-
-            if (authenticatable == null) {
-                throw new ServiceException(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token");
-            }
-
-            return authenticatable;
-        } catch (Exception e) {
-            throw new ServiceException(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token", e);
-        }
+        return Maybe.defer(() -> cache.get(token.getValue()))
+                .onErrorResumeNext((Throwable e) -> Maybe.error(ServiceException.isClientError(e)
+                        ? ServiceException.clientError(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token", e)
+                        : DaoPolicies.mapError(e)))
+                .switchIfEmpty(Maybe.error(() -> ServiceException.clientError(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token")))
+                .compose(StageTimings.maybe(AUTHENTICATION_STAGE));
     }
 
     @Override
@@ -90,6 +100,6 @@ public class AuthenticatableFacadeImpl implements AuthenticationFacade {
             return token;
         }
 
-        throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "Could not parse Authentication header");
+        throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "Could not parse Authentication header");
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.data.identity.IdentityProvider;
+import com.atypon.wayf.data.identity.IdentityProviderQuery;
+import com.atypon.wayf.data.identity.OauthEntity;
+import com.atypon.wayf.data.identity.OpenAthensEntity;
+import com.atypon.wayf.data.identity.SamlEntity;
+import com.atypon.wayf.request.RequestContext;
+import com.atypon.wayf.request.RequestContextAccessor;
+import com.google.common.cache.Cache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves identity provider reads, id lookups and resolves from memory. Identity providers are few and rarely change,
+ * so entries are cached by id along with an index from each provider's natural key (SAML entity ID, OpenAthens
+ * organization ID or OAUTH provider) to its id. Creating an identity provider drops the index entry for its key.
+ *
+ * The internal reads of the base facade dispatch to the overrides here, so recording a use or blocking a provider is
+ * served from the cache as well.
+ */
+@Singleton
+public class CachingIdentityProviderFacadeImpl extends IdentityProviderFacadeImpl {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingIdentityProviderFacadeImpl.class);
+
+    private static final String KEY_DELIMITER = ":";
+
+    @Inject
+    @Named("identityProviderCache")
+    private Cache<Long, IdentityProvider> identityProviderCache;
+
+    @Inject
+    @Named("identityProviderKeyCache")
+    private Cache<String, Long> identityProviderKeyCache;
+
+    public CachingIdentityProviderFacadeImpl() {
+    }
+
+    @Override
+    public Single<IdentityProvider> create(IdentityProvider identityProvider) {
+        // A new provider can make a cached resolve for the same key ambiguous
+        invalidateKey(identityProvider);
+
+        return super.create(identityProvider)
+                .doOnSuccess((created) -> {
+                    invalidateKey(created);
+                    identityProviderCache.put(created.getId(), created);
+                });
+    }
+
+    @Override
+    public Single<IdentityProvider> read(Long id) {
+        IdentityProvider cached = id == null ? null : identityProviderCache.getIfPresent(id);
+        if (cached != null) {
+            return Single.just(cached);
+        }
+
+        return super.read(id)
+                .doOnSuccess((identityProvider) -> identityProviderCache.put(identityProvider.getId(), identityProvider));
+    }
+
+    @Override
+    public Single<IdentityProvider> resolve(IdentityProvider identityProvider) {
+        String key = buildKey(identityProvider);
+
+        if (key != null) {
+            Long id = identityProviderKeyCache.getIfPresent(key);
+            IdentityProvider cached = id == null ? null : identityProviderCache.getIfPresent(id);
+
+            if (cached != null) {
+                return Single.just(cached);
+            }
+        }
+
+        return super.resolve(identityProvider)
+                .doOnSuccess((resolved) -> {
+                    identityProviderCache.put(resolved.getId(), resolved);
+
+                    if (key != null) {
+                        identityProviderKeyCache.put(key, resolved.getId());
+                    }
+                });
+    }
+
+    @Override
+    public Observable<IdentityProvider> filter(IdentityProviderQuery query) {
+        if (!isIdLookup(query)) {
+            return super.filter(query);
+        }
+
+        Map<Long, IdentityProvider> cached = identityProviderCache.getAllPresent(query.getIds());
+
+        List<Long> missingIds = new ArrayList<>(query.getIds().size() - cached.size());
+        for (Long id : query.getIds()) {
+            if (!cached.containsKey(id)) {
+                missingIds.add(id);
+            }
+        }
+
+        LOG.debug("Found [{}] of [{}] identity providers in the cache", cached.size(), query.getIds().size());
+
+        Observable<IdentityProvider> loaded = missingIds.isEmpty() ?
+                Observable.empty() :
+                super.filter(new IdentityProviderQuery().setIds(missingIds).setType(query.getType()))
+                        .doOnNext((identityProvider) -> identityProviderCache.put(identityProvider.getId(), identityProvider));
+
+        return loaded.toList()
+                .flatMapObservable((identityProviders) -> {
+                    for (IdentityProvider identityProvider : cached.values()) {
+                        if (query.getType() == null || query.getType() == identityProvider.getType()) {
+                            identityProviders.add(identityProvider);
+                        }
+                    }
+
+                    identityProviders.sort(Comparator.comparing(IdentityProvider::getCreatedDate).thenComparing(IdentityProvider::getId));
+
+                    return Observable.fromIterable(identityProviders);
+                });
+    }
+
+    /**
+     * Only plain lookups by id that fit on one page can be answered from the cache
+     */
+    private boolean isIdLookup(IdentityProviderQuery query) {
+        if (query.getIds() == null || query.getEntityId() != null || query.getOrganizationId() != null
+                || query.getProvider() != null || query.getCursor() != null) {
+            return false;
+        }
+
+        RequestContext requestContext = RequestContextAccessor.get();
+        return requestContext == null || query.getIds().size() <= requestContext.getLimit();
+    }
+
+    private void invalidateKey(IdentityProvider identityProvider) {
+        String key = buildKey(identityProvider);
+
+        if (key != null) {
+            identityProviderKeyCache.invalidate(key);
+        }
+    }
+
+    private static String buildKey(IdentityProvider identityProvider) {
+        Object naturalKey = null;
+
+        if (identityProvider instanceof SamlEntity) {
+            naturalKey = ((SamlEntity) identityProvider).getEntityId();
+        } else if (identityProvider instanceof OpenAthensEntity) {
+            naturalKey = ((OpenAthensEntity) identityProvider).getOrganizationId();
+        } else if (identityProvider instanceof OauthEntity) {
+            naturalKey = ((OauthEntity) identityProvider).getProvider();
+        }
+
+        return naturalKey == null ? null : identityProvider.getType() + KEY_DELIMITER + naturalKey;
+    }
+
+    CachingIdentityProviderFacadeImpl setCaches(Cache<Long, IdentityProvider> identityProviderCache, Cache<String, Long> identityProviderKeyCache) {
+        this.identityProviderCache = identityProviderCache;
+        this.identityProviderKeyCache = identityProviderKeyCache;
+        return this;
+    }
+}
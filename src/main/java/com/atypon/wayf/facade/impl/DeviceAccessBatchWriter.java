@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.dao.DeviceAccessDao;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.schedulers.Schedulers;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind pipeline for device access records. Writes are queued in memory and a single flusher thread inserts
+ * them as JDBC batches, either once a batch fills up or once the oldest queued write has waited the flush interval.
+ */
+@Singleton
+public class DeviceAccessBatchWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceAccessBatchWriter.class);
+
+    public enum Durability {
+        /**
+         * Acknowledge a write as soon as it is queued. Queued writes are lost if the process dies before a flush
+         */
+        ENQUEUE,
+
+        /**
+         * Acknowledge a write once the batch it is part of has been inserted
+         */
+        FLUSH
+    }
+
+    @Inject
+    private DeviceAccessDao deviceAccessDao;
+
+    @Inject
+    @Named("deviceAccess.batch.enabled")
+    private Boolean enabled;
+
+    @Inject
+    @Named("deviceAccess.batch.size")
+    private Integer batchSize;
+
+    @Inject
+    @Named("deviceAccess.batch.flushIntervalMillis")
+    private Long flushIntervalMillis;
+
+    @Inject
+    @Named("deviceAccess.batch.queueDepth")
+    private Integer queueDepth;
+
+    @Inject
+    @Named("deviceAccess.batch.durability")
+    private Durability durability;
+
+    @Inject
+    @Named("deviceAccess.batch.offerTimeoutMillis")
+    private Long offerTimeoutMillis;
+
+    @Inject
+    @Named("deviceAccess.batch.shutdownTimeoutMillis")
+    private Long shutdownTimeoutMillis;
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    // Writes are queued under the read lock and shutdown begins under the write lock, so nothing can be queued once
+    // the flusher may have drained the queue for the last time
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    private volatile BlockingQueue<PendingWrite> queue;
+    private Thread flusher;
+
+    public DeviceAccessBatchWriter() {
+    }
+
+    public boolean isEnabled() {
+        return enabled && !stopped.get();
+    }
+
+    /**
+     * Queues the device access for the next batch. The returned completable applies backpressure: if the queue stays
+     * full for the offer timeout, the write fails with a 503 instead of growing the queue.
+     */
+    public Completable write(DeviceAccess deviceAccess) {
+        if (!isEnabled()) {
+            return deviceAccessDao.create(deviceAccess).toCompletable();
+        }
+
+        Completable enqueue = Completable.create((emitter) -> {
+            shutdownLock.readLock().lock();
+            try {
+                // Shutdown may have begun since the write was built, and then its flusher would never see the queue again
+                if (stopped.get()) {
+                    emitter.setDisposable(deviceAccessDao.create(deviceAccess).toCompletable().subscribe(emitter::onComplete, emitter::onError));
+                    return;
+                }
+
+                start();
+
+                // Stamp the access now rather than at flush time so that activity keeps its real order
+                if (deviceAccess.getCreatedDate() == null) {
+                    deviceAccess.setCreatedDate(new Date());
+                }
+
+                PendingWrite pendingWrite = new PendingWrite(deviceAccess, durability == Durability.FLUSH ? emitter : null);
+
+                if (!queue.offer(pendingWrite, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    emitter.onError(new ServiceException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Device access write queue is full"));
+                    return;
+                }
+            } finally {
+                shutdownLock.readLock().unlock();
+            }
+
+            if (durability == Durability.ENQUEUE) {
+                emitter.onComplete();
+            }
+        });
+
+        // Flushed writes are acknowledged together on the flusher thread, so move each caller's chain off of it. What
+        // follows never blocks, so the bounded computation threads will do
+        return durability == Durability.FLUSH ? enqueue.observeOn(Schedulers.computation()) : enqueue;
+    }
+
+    /**
+     * Stops accepting queued writes and flushes everything already queued. Later writes go straight to the DAO. Safe
+     * to call more than once.
+     */
+    public void shutdown() {
+        shutdownLock.writeLock().lock();
+        try {
+            if (!stopped.compareAndSet(false, true) || flusher == null) {
+                return;
+            }
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+
+        LOG.info("Draining [{}] queued device access writes", queue.size());
+
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (flusher.isAlive()) {
+            LOG.error("Device access writer did not drain within [{}] ms, [{}] writes remain queued", shutdownTimeoutMillis, queue.size());
+        }
+    }
+
+    private synchronized void start() {
+        if (flusher != null) {
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueDepth);
+
+        flusher = new Thread(this::runFlusher, "wayf-device-access-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void runFlusher() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+
+        while (!stopped.get() || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+
+                // Fill the batch until it is full or the first write has waited the flush interval
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || stopped.get()) {
+                        break;
+                    }
+
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOG.warn("Device access writer interrupted with [{}] writes queued", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<DeviceAccess> deviceAccesses = new ArrayList<>(batch.size());
+        for (PendingWrite pendingWrite : batch) {
+            deviceAccesses.add(pendingWrite.deviceAccess);
+        }
+
+        LOG.debug("Flushing [{}] device access writes", deviceAccesses.size());
+
+        try {
+            deviceAccessDao.createAll(deviceAccesses).blockingAwait();
+
+            for (PendingWrite pendingWrite : batch) {
+                pendingWrite.complete();
+            }
+        } catch (Exception e) {
+            LOG.error("Could not flush [{}] device access writes", deviceAccesses.size(), e);
+
+            for (PendingWrite pendingWrite : batch) {
+                pendingWrite.fail(e);
+            }
+        }
+    }
+
+    DeviceAccessBatchWriter setDeviceAccessDao(DeviceAccessDao deviceAccessDao) {
+        this.deviceAccessDao = deviceAccessDao;
+        return this;
+    }
+
+    DeviceAccessBatchWriter setConfig(int batchSize, long flushIntervalMillis, int queueDepth, Durability durability, long offerTimeoutMillis) {
+        this.enabled = Boolean.TRUE;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queueDepth = queueDepth;
+        this.durability = durability;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.shutdownTimeoutMillis = 10000L;
+        return this;
+    }
+
+    private static class PendingWrite {
+        private final DeviceAccess deviceAccess;
+        private final CompletableEmitter emitter;
+
+        PendingWrite(DeviceAccess deviceAccess, CompletableEmitter emitter) {
+            this.deviceAccess = deviceAccess;
+            this.emitter = emitter;
+        }
+
+        void complete() {
+            if (emitter != null) {
+                emitter.onComplete();
+            }
+        }
+
+        void fail(Throwable e) {
+            if (emitter != null) {
+                emitter.onError(e);
+            }
+        }
+    }
+}
@@ -35,7 +35,6 @@ import com.google.inject.Singleton;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
-import io.reactivex.schedulers.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +54,9 @@ public class DeviceAccessFacadeImpl implements DeviceAccessFacade {
     @Inject
     private PublisherFacade publisherFacade;
 
+    @Inject
+    private DeviceAccessBatchWriter batchWriter;
+
     public DeviceAccessFacadeImpl() {
     }
 
@@ -62,6 +64,13 @@ public class DeviceAccessFacadeImpl implements DeviceAccessFacade {
     public Single<DeviceAccess> create(DeviceAccess deviceAcccess) {
         LOG.debug("Creating DeviceAccess [{}]", deviceAcccess);
 
+        // Batched writes are inserted later, so the caller gets back the access it passed in without an ID
+        if (batchWriter.isEnabled()) {
+            return batchWriter.write(deviceAcccess)
+                    .toSingleDefault(deviceAcccess)
+                    .compose((single) -> FacadePolicies.applySingle(single));
+        }
+
         return deviceAccessDao.create(deviceAcccess)
                 .compose((single) -> FacadePolicies.applySingle(single));
     }
@@ -70,11 +79,8 @@ public class DeviceAccessFacadeImpl implements DeviceAccessFacade {
     public Observable<DeviceAccess> filter(DeviceAccessQuery query) {
         LOG.debug("Filtering for publisher sessions with criteria [{}]", query);
 
-        return Single.just(query)
-                .observeOn(Schedulers.io())
-
-                // Fetch the DeviceAccesss from the dao
-                .flatMapObservable((_filterCriteria) -> deviceAccessDao.filter(query))
+        // The DAO reads one page on the JDBC scheduler and hands it back on its thread
+        return deviceAccessDao.filter(query)
 
                 // Collect the results into a Single<Iterable> so that we can batch the populate reads
                 .toList()
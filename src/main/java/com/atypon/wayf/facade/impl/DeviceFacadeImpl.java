@@ -25,19 +25,24 @@ import com.atypon.wayf.data.device.DeviceQuery;
 import com.atypon.wayf.data.device.DeviceStatus;
 import com.atypon.wayf.data.device.access.DeviceAccess;
 import com.atypon.wayf.data.device.access.DeviceAccessQuery;
-import com.atypon.wayf.data.identity.IdentityProviderUsage;
 import com.atypon.wayf.data.publisher.Publisher;
 import com.atypon.wayf.facade.DeviceAccessFacade;
 import com.atypon.wayf.facade.DeviceFacade;
 import com.atypon.wayf.facade.IdentityProviderUsageFacade;
 import com.atypon.wayf.facade.PublisherFacade;
+import com.atypon.wayf.metrics.StageTimings;
 import com.atypon.wayf.reactivex.FacadePolicies;
+import com.atypon.wayf.reactivex.WayfRunnable;
 import com.atypon.wayf.request.RequestContextAccessor;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
@@ -47,8 +52,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.LinkedList;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import static com.atypon.wayf.reactivex.FacadePolicies.singleOrException;
 
@@ -56,6 +64,8 @@ import static com.atypon.wayf.reactivex.FacadePolicies.singleOrException;
 public class DeviceFacadeImpl implements DeviceFacade {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceFacadeImpl.class);
 
+    private static final String HASH_STAGE = "hash";
+
     @Inject
     private DeviceDao deviceDao;
 
@@ -68,9 +78,29 @@ public class DeviceFacadeImpl implements DeviceFacade {
     @Inject
     private IdentityProviderUsageFacade identityProviderUsageFacade;
 
+    @Inject
+    @Named("localIdHashCache")
+    private Cache<String, String> localIdHashCache;
+
+    @Inject
+    @Named("localIdHashExecutor")
+    private ExecutorService localIdHashExecutor;
+
     public DeviceFacadeImpl() {
     }
 
+    public void setPublisherFacade(PublisherFacade publisherFacade) {
+        this.publisherFacade = publisherFacade;
+    }
+
+    public void setLocalIdHashCache(Cache<String, String> localIdHashCache) {
+        this.localIdHashCache = localIdHashCache;
+    }
+
+    public void setLocalIdHashExecutor(ExecutorService localIdHashExecutor) {
+        this.localIdHashExecutor = localIdHashExecutor;
+    }
+
     @Override
     public Single<Device> create(Device device) {
         LOG.debug("Creating device [{}]", device);
@@ -121,7 +151,7 @@ public class DeviceFacadeImpl implements DeviceFacade {
                     deviceDao.updateDevicePublisherLocalIdXref(deviceAccess.getDevice().getId(), deviceAccess.getPublisher().getId(), localId)
                             .map((numAffectedRows) -> {
                                 if (numAffectedRows != 1) {
-                                    throw new ServiceException(HttpStatus.SC_NOT_FOUND, "Could not find local ID");
+                                    throw ServiceException.clientError(HttpStatus.SC_NOT_FOUND, "Could not find local ID");
                                 }
 
                                 return deviceAccess.getDevice();
@@ -184,14 +214,58 @@ public class DeviceFacadeImpl implements DeviceFacade {
             return Completable.complete();
         }
 
-        return Completable.fromAction(() -> {
-            List<IdentityProviderUsage> history = identityProviderUsageFacade.buildRecentHistory(device);
-            device.setHistory(history);
-        });
+        return identityProviderUsageFacade.buildRecentHistoryAsync(device)
+                .flatMapCompletable((history) -> Completable.fromAction(() -> device.setHistory(history)));
     }
 
     @Override
     public String encryptLocalId(Long publisherId, String localId) {
-        return BCrypt.hashpw(localId, publisherFacade.getPublishersSalt(publisherId));
+        return hashLocalId(publisherId, localId, () -> publisherFacade.getPublishersSalt(publisherId));
+    }
+
+    @Override
+    public Single<String> encryptLocalIdAsync(Long publisherId, String localId) {
+        return Single.defer(() -> {
+            String cachedHash = localIdHashCache.getIfPresent(buildLocalIdHashKey(publisherId, localId));
+            if (cachedHash != null) {
+                return Single.just(cachedHash);
+            }
+
+            // Resolve the salt before handing off so that the hashing threads only ever run BCrypt
+            return publisherFacade.getPublishersSaltAsync(publisherId)
+                    .flatMap((salt) -> Single.<String>create((emitter) -> {
+                        try {
+                            // Carry the request state over so that it is still available once the hash is emitted
+                            localIdHashExecutor.execute(new WayfRunnable(() -> {
+                                try {
+                                    emitter.onSuccess(hashLocalId(publisherId, localId, () -> salt));
+                                } catch (Throwable t) {
+                                    emitter.onError(t);
+                                }
+                            }));
+                        } catch (RejectedExecutionException e) {
+                            LOG.warn("Rejected local ID hash for publisher [{}], hashing queue is full", publisherId);
+                            emitter.onError(new ServiceException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Server is too busy to process the local ID, please retry"));
+                        }
+                    }));
+        });
+    }
+
+    private String hashLocalId(Long publisherId, String localId, Supplier<String> salt) {
+        long stageStartNanos = StageTimings.start();
+
+        // The hash is deterministic for a given salt, so repeat lookups for the same reader can skip BCrypt entirely
+        try {
+            return localIdHashCache.get(buildLocalIdHashKey(publisherId, localId), () -> BCrypt.hashpw(localId, salt.get()));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            StageTimings.recordCurrent(HASH_STAGE, stageStartNanos);
+        }
+    }
+
+    private String buildLocalIdHashKey(Long publisherId, String localId) {
+        return publisherId + "-" + localId;
     }
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.dao.ErrorLoggerDao;
+import com.atypon.wayf.data.ErrorLogEntry;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Collapses repeated errors before they reach the error log. Errors are fingerprinted by status, exception type and
+ * top stack frame, and each fingerprint is written once per window with the number of times it occurred. A single
+ * writer thread inserts each window as a JDBC batch, so a burst of failures never turns into a burst of inserts, and
+ * new fingerprints beyond the per-window limit are dropped and counted rather than queued.
+ */
+@Singleton
+public class ErrorLogAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(ErrorLogAggregator.class);
+
+    @Inject
+    private ErrorLoggerDao errorLoggerDao;
+
+    @Inject
+    @Named("errorLog.aggregate.enabled")
+    private Boolean enabled;
+
+    @Inject
+    @Named("errorLog.aggregate.windowMillis")
+    private Long windowMillis;
+
+    @Inject
+    @Named("errorLog.aggregate.maxFingerprints")
+    private Integer maxFingerprints;
+
+    @Inject
+    @Named("errorLog.aggregate.batchSize")
+    private Integer batchSize;
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+
+    private final AtomicReference<ConcurrentMap<String, Aggregate>> window = new AtomicReference<>(new ConcurrentHashMap<>());
+    private final ReadWriteLock windowLock = new ReentrantReadWriteLock();
+
+    private final LongAdder aggregated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    private Thread writer;
+
+    public ErrorLogAggregator() {
+    }
+
+    @Inject
+    void registerMetrics(MetricsRegistry metricsRegistry) {
+        metricsRegistry.registerCounter("wayf_error_log_aggregated_total", "Errors folded into an earlier error of the same window", aggregated::sum);
+        metricsRegistry.registerCounter("wayf_error_log_dropped_total", "Errors not logged because the window was full or its write failed", dropped::sum);
+        metricsRegistry.registerCounter("wayf_error_log_rows_written_total", "Error log rows inserted", written::sum);
+    }
+
+    public boolean isEnabled() {
+        return enabled && !stopped.get();
+    }
+
+    /**
+     * Identifies errors that share a cause, independent of their message, which often carries IDs or tokens
+     */
+    public static String fingerprint(int statusCode, Throwable t) {
+        StringBuilder fingerprint = new StringBuilder()
+                .append(statusCode).append('|').append(t.getClass().getName());
+
+        StackTraceElement[] stackTrace = t.getStackTrace();
+        if (stackTrace.length > 0) {
+            fingerprint.append('|').append(stackTrace[0].getClassName())
+                    .append('.').append(stackTrace[0].getMethodName())
+                    .append(':').append(stackTrace[0].getLineNumber());
+        } else {
+            // Stackless client errors have no frame to tell them apart, so their message does
+            fingerprint.append('|').append(t.getMessage());
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Counts the error against its fingerprint. The entry is only built, stack trace and all, for the first occurrence
+     * in a window. Only waits while a window is being swapped out: returns false if the error was dropped
+     */
+    public boolean add(String fingerprint, Supplier<ErrorLogEntry> entrySupplier) {
+        start();
+
+        // Held while counting, so that the window can't be flushed between being read and being counted into
+        windowLock.readLock().lock();
+        try {
+            return add(window.get(), fingerprint, entrySupplier);
+        } finally {
+            windowLock.readLock().unlock();
+        }
+    }
+
+    private boolean add(ConcurrentMap<String, Aggregate> current, String fingerprint, Supplier<ErrorLogEntry> entrySupplier) {
+        Aggregate aggregate = current.get(fingerprint);
+        if (aggregate == null) {
+            if (current.size() >= maxFingerprints) {
+                dropped.increment();
+                return false;
+            }
+
+            Aggregate created = new Aggregate(entrySupplier.get());
+            aggregate = current.putIfAbsent(fingerprint, created);
+
+            if (aggregate == null) {
+                return true;
+            }
+        }
+
+        aggregate.count.incrementAndGet();
+        aggregated.increment();
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the current window and stops aggregating. Later errors go straight to the DAO. Safe to call more than once
+     */
+    public void shutdown() {
+        if (!stopped.compareAndSet(false, true) || writer == null) {
+            return;
+        }
+
+        stopSignal.countDown();
+
+        try {
+            writer.join(windowMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        writer = new Thread(this::runWriter, "wayf-error-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void runWriter() {
+        try {
+            while (!stopSignal.await(windowMillis, TimeUnit.MILLISECONDS)) {
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void flush() {
+        ConcurrentMap<String, Aggregate> closed;
+
+        windowLock.writeLock().lock();
+        try {
+            closed = window.getAndSet(new ConcurrentHashMap<>());
+        } finally {
+            windowLock.writeLock().unlock();
+        }
+
+        if (closed.isEmpty()) {
+            return;
+        }
+
+        List<ErrorLogEntry> batch = new ArrayList<>(Math.min(batchSize, closed.size()));
+
+        for (Aggregate aggregate : closed.values()) {
+            batch.add(aggregate.entry.setOccurrenceCount(aggregate.count.get()));
+
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<ErrorLogEntry> batch) {
+        try {
+            errorLoggerDao.logErrors(batch).blockingAwait();
+            written.add(batch.size());
+        } catch (Exception e) {
+            // Retrying would only add load to a database that is likely the reason for the errors
+            LOG.error("Could not write [{}] error log rows", batch.size(), e);
+
+            for (ErrorLogEntry entry : batch) {
+                dropped.add(entry.getOccurrenceCount());
+            }
+        }
+    }
+
+    ErrorLogAggregator setErrorLoggerDao(ErrorLoggerDao errorLoggerDao) {
+        this.errorLoggerDao = errorLoggerDao;
+        return this;
+    }
+
+    ErrorLogAggregator setConfig(long windowMillis, int maxFingerprints, int batchSize) {
+        this.enabled = Boolean.TRUE;
+        this.windowMillis = windowMillis;
+        this.maxFingerprints = maxFingerprints;
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    private static class Aggregate {
+        private final ErrorLogEntry entry;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        Aggregate(ErrorLogEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
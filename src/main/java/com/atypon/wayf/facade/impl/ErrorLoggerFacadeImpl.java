@@ -45,6 +45,9 @@ public class ErrorLoggerFacadeImpl implements ErrorLoggerFacade {
     @Inject
     private ErrorLoggerDao errorLoggerDao;
 
+    @Inject
+    private ErrorLogAggregator errorLogAggregator;
+
     private String serverIpAddress;
 
     public ErrorLoggerFacadeImpl() {
@@ -61,6 +64,16 @@ public class ErrorLoggerFacadeImpl implements ErrorLoggerFacade {
     }
 
     public Completable buildAndLogError(int statusCode, Throwable t) {
+        if (errorLogAggregator != null && errorLogAggregator.isEnabled()) {
+            // The request context is only set on this thread, so the entry supplier runs here as well
+            errorLogAggregator.add(ErrorLogAggregator.fingerprint(statusCode, t), () -> buildLogEntry(statusCode, t));
+            return Completable.complete();
+        }
+
+        return errorLoggerDao.logError(buildLogEntry(statusCode, t));
+    }
+
+    private ErrorLogEntry buildLogEntry(int statusCode, Throwable t) {
         ErrorLogEntry logEntry = new ErrorLogEntry();
         logEntry.setResponseCode(statusCode);
 
@@ -99,7 +112,7 @@ public class ErrorLoggerFacadeImpl implements ErrorLoggerFacade {
         logEntry.setHttpMethod(requestContext.getHttpMethod());
         logEntry.setRequestUrl(trim(requestContext.getRequestUrl(), REQUEST_URL_MAX_LENGTH));
 
-        return errorLoggerDao.logError(logEntry);
+        return logEntry;
     }
 
     private String trim(String string, int length) {
@@ -18,6 +18,7 @@ package com.atypon.wayf.facade.impl;
 
 import com.atypon.wayf.dao.IdentityProviderDao;
 import com.atypon.wayf.data.Authenticatable;
+import com.atypon.wayf.data.PageCursor;
 import com.atypon.wayf.data.ServiceException;
 import com.atypon.wayf.data.device.Device;
 import com.atypon.wayf.data.device.DeviceQuery;
@@ -29,6 +30,8 @@ import com.atypon.wayf.facade.DeviceAccessFacade;
 import com.atypon.wayf.facade.DeviceFacade;
 import com.atypon.wayf.facade.DeviceIdentityProviderBlacklistFacade;
 import com.atypon.wayf.facade.IdentityProviderFacade;
+import com.atypon.wayf.facade.IdentityProviderUsageFacade;
+import com.atypon.wayf.request.RequestContext;
 import com.atypon.wayf.request.RequestContextAccessor;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -36,14 +39,15 @@ import com.google.inject.name.Named;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
-import io.reactivex.schedulers.Schedulers;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import static com.atypon.wayf.reactivex.FacadePolicies.singleOrException;
@@ -65,15 +69,23 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
     @Inject
     private DeviceIdentityProviderBlacklistFacade blacklistFacade;
 
+    @Inject
+    private IdentityProviderUsageFacade identityProviderUsageFacade;
+
     public IdentityProviderFacadeImpl() {
     }
 
+    IdentityProviderFacadeImpl setDaosByType(Map<IdentityProviderType, IdentityProviderDao> daosByType) {
+        this.daosByType = daosByType;
+        return this;
+    }
+
     @Override
     public Single<IdentityProvider> create(IdentityProvider identityProvider) {
         IdentityProviderDao dao = daosByType.get(identityProvider.getType());
 
         if (dao == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "IdentityProvider of type [" + identityProvider.getType() + "] not supported");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "IdentityProvider of type [" + identityProvider.getType() + "] not supported");
         }
 
         return dao.create(identityProvider);
@@ -93,7 +105,7 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
         LOG.debug("Attempting to resolve IdentityProvider [{}]", identityProvider);
 
         if (identityProvider.getType() == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "In order to resolve an IdentityProvider, 'type' is required");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "In order to resolve an IdentityProvider, 'type' is required");
         }
 
         Observable<IdentityProvider> foundProviders = null;
@@ -105,7 +117,7 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
         } else if (identityProvider.getType() == IdentityProviderType.SAML) {
             foundProviders = resolveSamlEntity((SamlEntity) identityProvider);
         } else {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "IdentityProvider of type [" + identityProvider.getType() + "] not supported");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "IdentityProvider of type [" + identityProvider.getType() + "] not supported");
         }
 
 
@@ -133,13 +145,17 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
                                 .type(DeviceAccessType.ADD_IDP)
                                 .build()
             ).flatMap((deviceAccess) ->
-                // Run some tasks and return the IDP when they complete
+                // Run some tasks and return the IDP when they complete. Each one reaches its dependency on that
+                // dependency's own scheduler, so they already run in parallel
                 Completable.mergeArray(
                         // Remove the IDP from the blacklist if it was on it
-                        blacklistFacade.remove(deviceAccess.getDevice(), deviceAccess.getIdentityProvider()).subscribeOn(Schedulers.io()),
+                        blacklistFacade.remove(deviceAccess.getDevice(), deviceAccess.getIdentityProvider()),
 
                         // Log the device access
-                        deviceAccessFacade.create(deviceAccess).toCompletable().subscribeOn(Schedulers.io())
+                        deviceAccessFacade.create(deviceAccess).toCompletable(),
+
+                        // Count the use towards the device's recent usage
+                        identityProviderUsageFacade.recordUse(deviceAccess)
                 ).toSingleDefault(deviceAccess.getIdentityProvider())
         );
     }
@@ -170,8 +186,11 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
 
         ).flatMapCompletable((deviceAccess) ->
                 Completable.mergeArray(
-                        blacklistFacade.add(deviceAccess.getDevice(), deviceAccess.getIdentityProvider()).subscribeOn(Schedulers.io()),
-                        deviceAccessFacade.create(deviceAccess).toCompletable().subscribeOn(Schedulers.io())
+                        blacklistFacade.add(deviceAccess.getDevice(), deviceAccess.getIdentityProvider()),
+                        deviceAccessFacade.create(deviceAccess).toCompletable()
+                ).andThen(
+                        // Blocked providers drop out of the recent usage, so rebuild it without them
+                        identityProviderUsageFacade.resetUsage(deviceAccess.getDevice())
                 )
         );
     }
@@ -187,16 +206,34 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
             return Observable.fromIterable(daos)
                     .flatMap((dao) -> dao.filter(query))
                     .collectInto(new LinkedList<IdentityProvider>(), (idpList, idp) -> idpList.add(idp))
-                    .flatMapObservable(idpList -> {
-                        Collections.sort(idpList, (a, b) -> a.getCreatedDate().compareTo(b.getCreatedDate()));
-                        return Observable.fromIterable(idpList);
-                    });
+                    .flatMapObservable(idpList -> Observable.fromIterable(mergePages(idpList)));
+        }
+    }
+
+    /**
+     * Each DAO returned its own page after the cursor, so the merged page is the first 'limit' of their union. The
+     * next page then starts after the last identity provider kept here rather than after the last one of any DAO.
+     */
+    private List<IdentityProvider> mergePages(List<IdentityProvider> idpList) {
+        Collections.sort(idpList, Comparator.comparing(IdentityProvider::getCreatedDate).thenComparing(IdentityProvider::getId));
+
+        RequestContext requestContext = RequestContextAccessor.get();
+        if (requestContext == null || requestContext.getLimit() <= 0 || idpList.size() <= requestContext.getLimit()) {
+            return idpList;
         }
+
+        List<IdentityProvider> page = idpList.subList(0, requestContext.getLimit());
+        IdentityProvider last = page.get(page.size() - 1);
+
+        requestContext.setHasAnotherDbPage(Boolean.TRUE)
+                .setNextPageCursor(new PageCursor(last.getCreatedDate(), last.getId()));
+
+        return page;
     }
 
     private Observable<IdentityProvider> resolveOauth(OauthEntity oauthEntity) {
         if (oauthEntity.getProvider() == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "In order to resolve an OAUTH Entity, 'provider' is required");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "In order to resolve an OAUTH Entity, 'provider' is required");
         }
 
         IdentityProviderQuery query = new IdentityProviderQuery()
@@ -208,7 +245,7 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
 
     private Observable<IdentityProvider> resolveOpenAthens(OpenAthensEntity openAthensEntity) {
         if (openAthensEntity.getOrganizationId() == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "In order to resolve an OpenAthens Entity, 'organizationId' is required");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "In order to resolve an OpenAthens Entity, 'organizationId' is required");
         }
 
         IdentityProviderQuery query  = new IdentityProviderQuery()
@@ -220,7 +257,7 @@ public class IdentityProviderFacadeImpl implements IdentityProviderFacade {
 
     private Observable<IdentityProvider> resolveSamlEntity(SamlEntity samlEntity) {
         if (samlEntity.getEntityId() == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "In order to resolve a SAML Entity, 'entityId' is required");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "In order to resolve a SAML Entity, 'entityId' is required");
         }
 
         IdentityProviderQuery query = new IdentityProviderQuery()
@@ -16,6 +16,7 @@
 
 package com.atypon.wayf.facade.impl;
 
+import com.atypon.wayf.dao.IdentityProviderUsageDao;
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.device.Device;
 import com.atypon.wayf.data.device.access.DeviceAccess;
@@ -30,11 +31,10 @@ import com.atypon.wayf.request.RequestContextAccessor;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
-import io.reactivex.ObservableSource;
 import io.reactivex.Single;
-import io.reactivex.functions.Function4;
-import io.reactivex.schedulers.Schedulers;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
@@ -62,6 +62,9 @@ public class IdentityProviderUsageFacadeImpl implements IdentityProviderUsageFac
     @Inject
     private IdentityProviderFacade identityProviderFacade;
 
+    @Inject
+    private IdentityProviderUsageDao identityProviderUsageDao;
+
     public void setDeviceAccessFacade(DeviceAccessFacade deviceAccessFacade) {
         this.deviceAccessFacade = deviceAccessFacade;
     }
@@ -74,20 +77,24 @@ public class IdentityProviderUsageFacadeImpl implements IdentityProviderUsageFac
         this.identityProviderFacade = identityProviderFacade;
     }
 
+    public void setIdentityProviderUsageDao(IdentityProviderUsageDao identityProviderUsageDao) {
+        this.identityProviderUsageDao = identityProviderUsageDao;
+    }
+
     @Override
     public Observable<IdentityProviderUsage> buildRecentHistory(String localId) {
         return deviceFacade.readByLocalId(localId)
                 .flatMap((device) ->
                         Single.zip(
                                 // Build the history
-                                Single.just(buildRecentHistory(device)).subscribeOn(Schedulers.io()),
+                                buildRecentHistoryAsync(device),
 
                                 // Log this access
                                 deviceAccessFacade.create(new DeviceAccess.Builder()
                                         .device(device)
                                         .publisher(Authenticatable.asPublisher(RequestContextAccessor.get().getAuthenticated()))
                                         .type(DeviceAccessType.READ_IDP_HISTORY)
-                                        .build()).subscribeOn(Schedulers.io()),
+                                        .build()),
 
                                 // Once both the processes complete, return the history
                                 (history, deviceAccess) -> history
@@ -97,123 +104,108 @@ public class IdentityProviderUsageFacadeImpl implements IdentityProviderUsageFac
 
     @Override
     public List<IdentityProviderUsage> buildRecentHistory(Device device) {
-        List<Long> blacklistedIdpIds = idpBlacklistFacade.getBlacklistedIdentityProviders(device)
-                .map((identityProvider) -> identityProvider.getId())
-                .toList()
-                .blockingGet();
-
-        DeviceAccessQuery deviceAccessQuery = new DeviceAccessQuery()
-                .setNotIdps(blacklistedIdpIds)
-                .setDeviceIds(Lists.newArrayList(device.getId()))
-                .setType(DeviceAccessType.ADD_IDP)
-                .setLimit(DEFAULT_RECENT_HISTORY_CUTOFF);
-
-        List<IdentityProviderUsage> deviceAccess = deviceAccessFacade.filter(deviceAccessQuery)
-                .publish(deviceAccessObservable ->
-                        Observable.zip(
-                                // Apply various functions to the DeviceAccess stream
-                                getLatestActiveDateForIdpId(deviceAccessObservable),
-                                getIdpCountByIdpId(deviceAccessObservable),
-                                getTotalAccessCount(deviceAccessObservable),
-                                getInflatedIdpByIdpId(deviceAccessObservable),
-
-                                // Zip the results of the functions and construct a List of IdentityProviderUsage from them
-                                (latestActiveDateByIdpId, idpCountByIdpId, totalCount, inflatedIdpsById) -> BUILD_USAGES.apply(latestActiveDateByIdpId, idpCountByIdpId, totalCount, inflatedIdpsById)
-                        )
-                ).blockingFirst();
-
-        // Sort them by their frequency (highest first)
-        deviceAccess.sort((o1, o2) -> o2.getFrequency().compareTo(o1.getFrequency()));
-
-        return deviceAccess;
+        return buildRecentHistoryAsync(device).blockingGet();
     }
 
     /**
-     * Given an Observable stream of DeviceAccess, get the unique IdentityProviders in the stream and their latest created date
+     * Never blocks, since it continues on whichever bounded scheduler the window, or the reads that rebuild it, came
+     * back on
      */
-    private ObservableSource<HashMap<Long, Date>> getLatestActiveDateForIdpId(Observable<DeviceAccess> deviceAccessObservable) {
-        return deviceAccessObservable.collect(
-                () -> new HashMap<Long, Date>(),
-                (latestActiveDateByIdpId, _deviceAccess) -> {
-                    Long idpId = _deviceAccess.getIdentityProvider().getId();
-
-                    Date deviceAccessDate = _deviceAccess.getCreatedDate();
-                    Date latestActiveDate = latestActiveDateByIdpId.get(idpId);
-
-                    if (latestActiveDate == null) {
-                        latestActiveDateByIdpId.put(idpId, deviceAccessDate);
-                    } else if (latestActiveDate.after(deviceAccessDate)) {
-                        latestActiveDateByIdpId.put(idpId, latestActiveDate);
-                    } else {
-                        latestActiveDateByIdpId.put(idpId, deviceAccessDate);
-                    }
-
+    @Override
+    public Single<List<IdentityProviderUsage>> buildRecentHistoryAsync(Device device) {
+        return identityProviderUsageDao.readRecentUses(device.getId())
+                .onErrorResumeNext((Throwable e) -> {
+                    LOG.error("Could not read the identity provider usage window for device [" + device.getId() + "]", e);
+                    return Maybe.empty();
                 })
-                .toObservable();
+                // The window has not been built yet or was reset, so rebuild it from the device's activity
+                .switchIfEmpty(Maybe.defer(() -> rebuildRecentUses(device).toMaybe()))
+                .toSingle()
+                .flatMap((recentUses) -> buildUsages(recentUses))
+                .map((usages) -> {
+                    // Sort them by their frequency (highest first)
+                    usages.sort((o1, o2) -> o2.getFrequency().compareTo(o1.getFrequency()));
+                    return usages;
+                });
     }
 
-    /**
-     * Given an Observable stream of DeviceAccess, get the unique IdentityProviders in the stream and their number of occurrences
-     */
-    private ObservableSource<HashMap<Long, Integer>> getIdpCountByIdpId(Observable<DeviceAccess> deviceAccessObservable) {
-        return deviceAccessObservable.collect(
-                () -> new HashMap<Long, Integer>(),
-                (idpCountById, _deviceAccess) -> {
-                    Long idpId = _deviceAccess.getIdentityProvider().getId();
-
-                    Integer count = idpCountById.get(idpId);
-                    if (count == null) {
-                        idpCountById.put(idpId, 1);
-                    } else {
-                        idpCountById.put(idpId, count+1);
-                    }
-                })
-                .toObservable();
+    @Override
+    public Completable recordUse(DeviceAccess deviceAccess) {
+        Long deviceId = deviceAccess.getDevice().getId();
+
+        // If the use cannot be added, drop the window so that the next read rebuilds it instead of missing the use
+        return identityProviderUsageDao.recordUse(deviceAccess)
+                .onErrorResumeNext((e) -> identityProviderUsageDao.reset(deviceId))
+                .doOnError((e) -> LOG.error("Could not record identity provider use for device [" + deviceId + "]", e))
+                .onErrorComplete();
     }
 
-    /**
-     * Given an Observable stream of DeviceAccess, count the total number of elements in the stream
-     */
-    private ObservableSource<Long> getTotalAccessCount(Observable<DeviceAccess> deviceAccessObservable) {
-        return deviceAccessObservable.count().toObservable();
+    @Override
+    public Completable resetUsage(Device device) {
+        return identityProviderUsageDao.reset(device.getId())
+                .doOnError((e) -> LOG.error("Could not reset identity provider usage for device [" + device.getId() + "]", e))
+                .onErrorComplete();
+    }
+
+    private Single<List<DeviceAccess>> rebuildRecentUses(Device device) {
+        return idpBlacklistFacade.getBlacklistedIdentityProviders(device)
+                .map((identityProvider) -> identityProvider.getId())
+                .toList()
+                .flatMap((blacklistedIdpIds) -> {
+                    DeviceAccessQuery deviceAccessQuery = new DeviceAccessQuery()
+                            .setNotIdps(blacklistedIdpIds)
+                            .setDeviceIds(Lists.newArrayList(device.getId()))
+                            .setType(DeviceAccessType.ADD_IDP)
+                            .setLimit(DEFAULT_RECENT_HISTORY_CUTOFF);
+
+                    return deviceAccessFacade.filter(deviceAccessQuery).toList();
+                })
+                .flatMap((recentUses) -> identityProviderUsageDao.replaceRecentUses(device.getId(), recentUses)
+                        .doOnError((e) -> LOG.error("Could not store identity provider usage for device [" + device.getId() + "]", e))
+                        .onErrorComplete()
+                        .toSingleDefault(recentUses));
     }
 
     /**
-     * Given an Observable stream of DeviceAccess, get the unique IdentityProviders in the stream and their number of occurrences
+     * Aggregates the use count and latest use of each identity provider in one pass over the recent uses
      */
-    private ObservableSource<HashMap<Long, IdentityProvider>> getInflatedIdpByIdpId(Observable<DeviceAccess> deviceAccessObservable) {
-        return deviceAccessObservable.collect(
-                    () -> new HashSet<Long>(),
-                    (idpIds, _deviceAccess) -> {
-                        Long idpId = _deviceAccess.getIdentityProvider().getId();
-
-                        idpIds.add(idpId);
-                    }
-                )
-                .flatMapObservable((idpIds) -> idpIds.isEmpty()? Observable.empty() : identityProviderFacade.filter(new IdentityProviderQuery().setIds(idpIds)))
-                .collect(
-                        () -> new HashMap<Long, IdentityProvider>(),
-                        (inflatedIdpByIdpId, identityProvider) -> {
-                            inflatedIdpByIdpId.put(identityProvider.getId(), identityProvider);
-                        }
-                )
-                .toObservable();
+    private Single<List<IdentityProviderUsage>> buildUsages(List<DeviceAccess> recentUses) {
+        Map<Long, Integer> countByIdpId = new LinkedHashMap<>();
+        Map<Long, Date> latestActiveDateByIdpId = new HashMap<>();
+
+        for (DeviceAccess recentUse : recentUses) {
+            Long idpId = recentUse.getIdentityProvider().getId();
+
+            countByIdpId.merge(idpId, 1, Integer::sum);
+
+            Date latestActiveDate = latestActiveDateByIdpId.get(idpId);
+            if (latestActiveDate == null || latestActiveDate.before(recentUse.getCreatedDate())) {
+                latestActiveDateByIdpId.put(idpId, recentUse.getCreatedDate());
+            }
+        }
+
+        Single<Map<Long, IdentityProvider>> idpsById = countByIdpId.isEmpty() ?
+                Single.just(Collections.emptyMap()) :
+                identityProviderFacade.filter(new IdentityProviderQuery().setIds(countByIdpId.keySet()))
+                        .toMap(IdentityProvider::getId);
+
+        return idpsById.map((idps) -> buildUsages(recentUses, countByIdpId, latestActiveDateByIdpId, idps));
     }
-    private static final Function4<HashMap<Long, Date>, HashMap<Long, Integer>, Long, HashMap<Long, IdentityProvider>, List<IdentityProviderUsage>> BUILD_USAGES = (latestActiveDateByIdpId, idpCountByIdpId, totalCount, idpsById) -> {
-        Set<Long> idpIds = idpCountByIdpId.keySet();
 
-        List<IdentityProviderUsage> usages = new LinkedList<>();
+    private static List<IdentityProviderUsage> buildUsages(List<DeviceAccess> recentUses, Map<Long, Integer> countByIdpId,
+                                                           Map<Long, Date> latestActiveDateByIdpId, Map<Long, IdentityProvider> idpsById) {
+        List<IdentityProviderUsage> usages = new ArrayList<>(countByIdpId.size());
+
+        BigDecimal totalCountBd = new BigDecimal(recentUses.size());
 
-        BigDecimal totalCountBd = new BigDecimal(totalCount);
+        for (Map.Entry<Long, Integer> idpCount : countByIdpId.entrySet()) {
+            Long idpId = idpCount.getKey();
 
-        for (Long idpId : idpIds) {
             IdentityProviderUsage usage = new IdentityProviderUsage();
             usage.setLastActiveDate(latestActiveDateByIdpId.get(idpId));
+            usage.setIdp(idpsById.get(idpId));
 
-            IdentityProvider identityProvider = idpsById.get(idpId);
-            usage.setIdp(identityProvider);
-
-            BigDecimal idpCountBd = new BigDecimal(idpCountByIdpId.get(idpId).intValue());
+            BigDecimal idpCountBd = new BigDecimal(idpCount.getValue().intValue());
             Double frequency = idpCountBd.divide(totalCountBd, DEFAULT_FREQUENCY_SCALE, RoundingMode.HALF_DOWN).multiply(HUNDRED).doubleValue();
             usage.setFrequency(frequency);
 
@@ -221,5 +213,5 @@ public class IdentityProviderUsageFacadeImpl implements IdentityProviderUsageFac
         }
 
         return usages;
-    };
+    }
 }
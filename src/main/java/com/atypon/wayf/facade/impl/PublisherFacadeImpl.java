@@ -110,6 +110,11 @@ public class PublisherFacadeImpl implements PublisherFacade {
 
     @Override
     public String getPublishersSalt(Long publisherId) {
-        return singleOrException(saltCache.get(publisherId), HttpStatus.SC_INTERNAL_SERVER_ERROR, "Could not find Publisher encryption salt for id [{}]", publisherId).blockingGet();
+        return getPublishersSaltAsync(publisherId).blockingGet();
+    }
+
+    @Override
+    public Single<String> getPublishersSaltAsync(Long publisherId) {
+        return singleOrException(saltCache.get(publisherId), HttpStatus.SC_INTERNAL_SERVER_ERROR, "Could not find Publisher encryption salt for id [{}]", publisherId);
     }
 }
@@ -25,18 +25,28 @@ import com.atypon.wayf.dao.impl.*;
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.InflationPolicyParser;
 import com.atypon.wayf.data.InflationPolicyParserQueryParamImpl;
+import com.atypon.wayf.data.identity.IdentityProvider;
 import com.atypon.wayf.data.identity.IdentityProviderType;
 import com.atypon.wayf.data.identity.OauthEntity;
 import com.atypon.wayf.data.identity.OpenAthensEntity;
 import com.atypon.wayf.data.identity.SamlEntity;
+import com.atypon.wayf.data.publisher.Publisher;
 import com.atypon.wayf.database.AuthenticatableBeanFactory;
 import com.atypon.wayf.database.BeanFactory;
 import com.atypon.wayf.database.DbExecutor;
+import com.atypon.wayf.database.QueryMapper;
 import com.atypon.wayf.facade.*;
 import com.atypon.wayf.facade.impl.*;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
+import com.atypon.wayf.request.RequestReader;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
@@ -51,12 +61,16 @@ import java.io.FileReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class WayfGuiceModule extends AbstractModule {
     private static final Logger LOG = LoggerFactory.getLogger(WayfGuiceModule.class);
 
     private static final String WAYF_CONFIG_FILE = "wayf.properties";
+    private static final String WAYF_DEFAULTS_FILE = "wayf-defaults.properties";
 
     @Override
     protected void configure() {
@@ -65,6 +79,9 @@ public class WayfGuiceModule extends AbstractModule {
 
             Properties properties = new Properties();
 
+            // Load the defaults first so that any value in the wayf config file takes precedence
+            properties.load(classLoader.getResourceAsStream(WAYF_DEFAULTS_FILE));
+
             String configDirectory = System.getProperty("wayf.conf.dir");
             if (configDirectory != null) {
                 String configFile = configDirectory + "/" + WAYF_CONFIG_FILE;
@@ -85,9 +102,15 @@ public class WayfGuiceModule extends AbstractModule {
             properties.load(classLoader.getResourceAsStream("dao/device-identity-provider-blacklist-dao-db.properties"));
             properties.load(classLoader.getResourceAsStream("dao/authentication-dao-db.properties"));
             properties.load(classLoader.getResourceAsStream("dao/error-logger-dao-db.properties"));
+            properties.load(classLoader.getResourceAsStream("dao/saml-entity-dao-db.properties"));
+
+            QueryMapper.precompile(properties);
 
             Names.bindProperties(binder(), properties);
 
+            requestStaticInjection(DaoPolicies.class);
+            requestStaticInjection(RequestReader.class);
+
             bind(DeviceIdentityProviderBlacklistFacade.class).to(DeviceIdentityProviderBlacklistFacadeImpl.class);
             bind(IdentityProviderUsageFacade.class).to(IdentityProviderUsageFacadeImpl.class);
 
@@ -103,7 +126,7 @@ public class WayfGuiceModule extends AbstractModule {
             bind(PublisherFacade.class).to(PublisherFacadeImpl.class);
             bind(PublisherDao.class).to(PublisherDaoDbImpl.class);
 
-            bind(IdentityProviderFacade.class).to(IdentityProviderFacadeImpl.class);
+            bind(IdentityProviderFacade.class).to(CachingIdentityProviderFacadeImpl.class);
 
             bind(ErrorLoggerFacade.class).to(ErrorLoggerFacadeImpl.class);
             bind(ErrorLoggerDao.class).to(ErrorLoggerDaoDbImpl.class);
@@ -119,7 +142,7 @@ public class WayfGuiceModule extends AbstractModule {
         }
     }
 
-    @Provides @Named("samlEntity")
+    @Provides @Singleton @Named("samlEntity")
     public IdentityProviderDao provideSamlEntityDao(DbExecutor dbExecutor) throws Exception {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
@@ -133,7 +156,7 @@ public class WayfGuiceModule extends AbstractModule {
                 SamlEntity.class);
     }
 
-    @Provides @Named("openAthensEntity")
+    @Provides @Singleton @Named("openAthensEntity")
     public IdentityProviderDao provideOpenAthensEntityDao(DbExecutor dbExecutor) throws Exception {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
@@ -148,7 +171,7 @@ public class WayfGuiceModule extends AbstractModule {
                 OpenAthensEntity.class);
     }
 
-    @Provides @Named("oauthEntity")
+    @Provides @Singleton @Named("oauthEntity")
     public IdentityProviderDao provideOauthEntityDao(DbExecutor dbExecutor) throws Exception {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
@@ -163,7 +186,7 @@ public class WayfGuiceModule extends AbstractModule {
                 OauthEntity.class);
     }
 
-    @Provides @Named("identityProviderDaoMap")
+    @Provides @Singleton @Named("identityProviderDaoMap")
     public Map<IdentityProviderType, IdentityProviderDao> provideIdentityProviderDaoMap(
             @Named("samlEntity") IdentityProviderDao samlDao,
             @Named("openAthensEntity") IdentityProviderDao openAthensDao,
@@ -185,11 +208,13 @@ public class WayfGuiceModule extends AbstractModule {
     }
 
     @Provides
+    @Singleton
     public JedisPool getJedisPool(@Named("redis.host") String redisHost, @Named("redis.port") int redisPort) {
         return new JedisPool(new JedisPoolConfig(), redisHost, redisPort);
     }
 
     @Provides
+    @Singleton
     public NamedParameterJdbcTemplate getJdbcTemplate(
             @Named("jdbc.driver") String driver,
             @Named("jdbc.username") String username,
@@ -213,6 +238,83 @@ public class WayfGuiceModule extends AbstractModule {
         return new NamedParameterJdbcTemplate(dataSource);
     }
 
+    @Provides
+    @Singleton
+    @Named("jdbcCircuitBreaker")
+    public CircuitBreaker getJdbcCircuitBreaker(
+            @Named("dao.circuit.failureThreshold") Integer failureThreshold,
+            @Named("dao.circuit.openMillis") Long openMillis,
+            MetricsRegistry metricsRegistry) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("jdbc", failureThreshold, openMillis);
+        circuitBreaker.registerMetrics(metricsRegistry);
+
+        return circuitBreaker;
+    }
+
+    @Provides
+    @Singleton
+    @Named("redisCircuitBreaker")
+    public CircuitBreaker getRedisCircuitBreaker(
+            @Named("dao.circuit.failureThreshold") Integer failureThreshold,
+            @Named("dao.circuit.openMillis") Long openMillis,
+            MetricsRegistry metricsRegistry) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("redis", failureThreshold, openMillis);
+        circuitBreaker.registerMetrics(metricsRegistry);
+
+        return circuitBreaker;
+    }
+
+    @Provides
+    @Singleton
+    @Named("jdbcScheduler")
+    public BulkheadScheduler getJdbcScheduler(
+            @Named("scheduler.jdbc.threads") Integer threads,
+            @Named("scheduler.jdbc.queueDepth") Integer queueDepth,
+            @Named("jdbc.maxActive") Integer maxActive,
+            MetricsRegistry metricsRegistry) {
+        // More threads than connections would only wait on the pool
+        return buildScheduler("jdbc", threads > 0 ? threads : maxActive, queueDepth, metricsRegistry);
+    }
+
+    @Provides
+    @Singleton
+    @Named("redisScheduler")
+    public BulkheadScheduler getRedisScheduler(
+            @Named("scheduler.redis.threads") Integer threads,
+            @Named("scheduler.redis.queueDepth") Integer queueDepth,
+            MetricsRegistry metricsRegistry) {
+        return buildScheduler("redis", threads > 0 ? threads : JedisPoolConfig.DEFAULT_MAX_TOTAL, queueDepth, metricsRegistry);
+    }
+
+    @Provides
+    @Singleton
+    @Named("cpuScheduler")
+    public BulkheadScheduler getCpuScheduler(
+            @Named("scheduler.cpu.threads") Integer threads,
+            @Named("scheduler.cpu.queueDepth") Integer queueDepth,
+            MetricsRegistry metricsRegistry) {
+        return buildScheduler("cpu", threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), queueDepth, metricsRegistry);
+    }
+
+    @Provides
+    @Singleton
+    @Named("responseScheduler")
+    public BulkheadScheduler getResponseScheduler(
+            @Named("scheduler.response.threads") Integer threads,
+            @Named("scheduler.response.queueDepth") Integer queueDepth,
+            MetricsRegistry metricsRegistry) {
+        return buildScheduler("response", threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2, queueDepth, metricsRegistry);
+    }
+
+    private static BulkheadScheduler buildScheduler(String name, int threads, int queueDepth, MetricsRegistry metricsRegistry) {
+        LOG.info("Creating [{}] scheduler with [{}] threads and a queue depth of [{}]", name, threads, queueDepth);
+
+        BulkheadScheduler scheduler = new BulkheadScheduler(name, threads, queueDepth);
+        scheduler.registerMetrics(metricsRegistry);
+
+        return scheduler;
+    }
+
     @Provides
     @Named("jwtSecret")
     public String getJwtSecret() {
@@ -220,11 +322,17 @@ public class WayfGuiceModule extends AbstractModule {
     }
 
     @Provides
+    @Singleton
     @Named("authenticatableRedisDao")
-    public RedisDao<String, Authenticatable> getAuthenticatableRedisDao(JedisPool jedisPool) {
+    public RedisDao<String, Authenticatable> getAuthenticatableRedisDao(
+            JedisPool jedisPool,
+            @Named("redisCircuitBreaker") CircuitBreaker redisCircuitBreaker,
+            @Named("redisScheduler") BulkheadScheduler redisScheduler) {
         return new RedisDaoImpl<String, Authenticatable>()
                 .setPrefix("AUTHENTICABLE")
                 .setPool(jedisPool)
+                .setCircuitBreaker(redisCircuitBreaker)
+                .setScheduler(redisScheduler)
                 .setTtlSeconds(172800)
                 .setDeserializer((json) -> AuthenticatableRedisSerializer.deserialize((String) json))
                 .setSerializer((authenticatable) -> AuthenticatableRedisSerializer.serialize((Authenticatable) authenticatable));
@@ -232,6 +340,7 @@ public class WayfGuiceModule extends AbstractModule {
 
 
     @Provides
+    @Singleton
     @Named("authenticatableRedisCache")
     public LoadingCache<String, Authenticatable> getLoadingCache(
             @Named("authenticatableRedisDao") RedisDao<String, Authenticatable> authenticatableRedisDao,
@@ -244,6 +353,7 @@ public class WayfGuiceModule extends AbstractModule {
     }
 
     @Provides
+    @Singleton
     @Named("authenticatableCache")
     public LoadingCache<String, Authenticatable> getLoadingCache(
             @Named("authenticatableRedisCache") LoadingCache<String, Authenticatable> authenticatableRedisCache) {
@@ -255,17 +365,41 @@ public class WayfGuiceModule extends AbstractModule {
     }
 
     @Provides
+    @Singleton
+    public IdentityProviderUsageDao getIdentityProviderUsageDao(
+            JedisPool jedisPool,
+            @Named("redisCircuitBreaker") CircuitBreaker redisCircuitBreaker,
+            @Named("redisScheduler") BulkheadScheduler redisScheduler,
+            @Named("identityProviderUsage.windowSize") Integer windowSize,
+            @Named("identityProviderUsage.ttlSeconds") Integer ttlSeconds) {
+        return new IdentityProviderUsageDaoRedisImpl()
+                .setPrefix("IDP_USAGE")
+                .setPool(jedisPool)
+                .setCircuitBreaker(redisCircuitBreaker)
+                .setScheduler(redisScheduler)
+                .setWindowSize(windowSize)
+                .setTtlSeconds(ttlSeconds);
+    }
+
+    @Provides
+    @Singleton
     @Named("publisherSaltRedisDao")
-    public RedisDao<Long, String> getPublisherSaltRedisDao(JedisPool jedisPool) {
+    public RedisDao<Long, String> getPublisherSaltRedisDao(
+            JedisPool jedisPool,
+            @Named("redisCircuitBreaker") CircuitBreaker redisCircuitBreaker,
+            @Named("redisScheduler") BulkheadScheduler redisScheduler) {
         return new RedisDaoImpl<String, Authenticatable>()
                 .setPrefix("PUBLISHER_SALT")
                 .setPool(jedisPool)
+                .setCircuitBreaker(redisCircuitBreaker)
+                .setScheduler(redisScheduler)
                 .setTtlSeconds(172800)
                 .setDeserializer((salt) -> salt)
                 .setSerializer((salt) -> salt);
     }
 
     @Provides
+    @Singleton
     @Named("publisherSaltRedisCache")
     public LoadingCache<Long, String> getLoadingCache(
             @Named("publisherSaltRedisDao") RedisDao<Long, String> publisherSaltRedisDao,
@@ -278,6 +412,7 @@ public class WayfGuiceModule extends AbstractModule {
     }
 
     @Provides
+    @Singleton
     @Named("publisherSaltCache")
     public Cache<Long, String> getPublisherSaltLoadingCache(
             @Named("publisherSaltRedisCache") LoadingCache<Long, String> publisherSaltRedisCache) {
@@ -287,4 +422,120 @@ public class WayfGuiceModule extends AbstractModule {
 
         return l1Cache;
     }
-}
\ No newline at end of file
+
+    @Provides
+    @Singleton
+    public RateLimitDao getRateLimitDao(
+            JedisPool jedisPool,
+            @Named("redisCircuitBreaker") CircuitBreaker redisCircuitBreaker,
+            @Named("redisScheduler") BulkheadScheduler redisScheduler) {
+        return new RateLimitDaoRedisImpl()
+                .setPrefix("RATE_LIMIT")
+                .setPool(jedisPool)
+                .setCircuitBreaker(redisCircuitBreaker)
+                .setScheduler(redisScheduler);
+    }
+
+    @Provides
+    @Singleton
+    @Named("publisherRateLimitCache")
+    public Cache<Long, Publisher> getPublisherRateLimitCache(
+            PublisherDao publisherDao,
+            @Named("cache.publisherRateLimit.ttlSeconds") Long ttlSeconds) {
+        LoadingCacheGuavaImpl<Long, Publisher> l1Cache = new LoadingCacheGuavaImpl<>();
+        l1Cache.setGuavaCache(CacheBuilder.newBuilder().expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build());
+        l1Cache.setCacheLoader((key) -> publisherDao.read(key));
+
+        return l1Cache;
+    }
+
+    @Provides
+    @Singleton
+    @Named("localIdHashCache")
+    public com.google.common.cache.Cache<String, String> getLocalIdHashCache(
+            @Named("cache.localIdHash.maxSize") Long maxSize,
+            @Named("cache.localIdHash.ttlSeconds") Long ttlSeconds,
+            MetricsRegistry metricsRegistry) {
+        com.google.common.cache.Cache<String, String> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        return registerCacheMetrics("local_id_hash", cache, metricsRegistry);
+    }
+
+    @Provides
+    @Singleton
+    @Named("identityProviderCache")
+    public com.google.common.cache.Cache<Long, IdentityProvider> getIdentityProviderCache(
+            @Named("cache.identityProvider.maxSize") Long maxSize,
+            @Named("cache.identityProvider.ttlSeconds") Long ttlSeconds,
+            MetricsRegistry metricsRegistry) {
+        com.google.common.cache.Cache<Long, IdentityProvider> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        return registerCacheMetrics("identity_provider", cache, metricsRegistry);
+    }
+
+    @Provides
+    @Singleton
+    @Named("identityProviderKeyCache")
+    public com.google.common.cache.Cache<String, Long> getIdentityProviderKeyCache(
+            @Named("cache.identityProvider.maxSize") Long maxSize,
+            @Named("cache.identityProvider.ttlSeconds") Long ttlSeconds,
+            MetricsRegistry metricsRegistry) {
+        com.google.common.cache.Cache<String, Long> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        return registerCacheMetrics("identity_provider_key", cache, metricsRegistry);
+    }
+
+    private static <K, V> com.google.common.cache.Cache<K, V> registerCacheMetrics(String name, com.google.common.cache.Cache<K, V> cache, MetricsRegistry metricsRegistry) {
+        String prefix = "wayf_cache_" + name;
+
+        metricsRegistry.registerCounter(prefix + "_hits_total", "Lookups served from the " + name + " cache", () -> cache.stats().hitCount());
+        metricsRegistry.registerCounter(prefix + "_misses_total", "Lookups that missed the " + name + " cache", () -> cache.stats().missCount());
+        metricsRegistry.registerCounter(prefix + "_evictions_total", "Entries evicted from the " + name + " cache", () -> cache.stats().evictionCount());
+        metricsRegistry.registerGauge(prefix + "_size", "Entries in the " + name + " cache", cache::size);
+
+        return cache;
+    }
+
+    @Provides
+    @Singleton
+    @Named("localIdHashExecutor")
+    public ExecutorService getLocalIdHashExecutor(
+            @Named("hashing.threads") Integer threads,
+            @Named("hashing.queueDepth") Integer queueDepth) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        LOG.info("Creating local ID hashing executor with [{}] threads and a queue depth of [{}]", poolSize, queueDepth);
+
+        // Requests that overflow the queue are rejected rather than piling up behind a burst of hashes
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth),
+                new ThreadFactoryBuilder().setNameFormat("wayf-hash-%d").setDaemon(true).build());
+    }
+
+    @Provides
+    @Singleton
+    @Named("requestExecutor")
+    public ExecutorService getRequestExecutor(
+            @Named("request.threads") Integer threads,
+            @Named("request.queueDepth") Integer queueDepth) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 8;
+
+        LOG.info("Creating request executor with [{}] threads and a queue depth of [{}]", poolSize, queueDepth);
+
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth),
+                new ThreadFactoryBuilder().setNameFormat("wayf-request-%d").setDaemon(true).build());
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.guice;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * Holds the process-wide injector. Every verticle instance injects itself from here so that singletons such as the
+ * caches, the data source and the Redis pool exist once per process no matter how many instances are deployed.
+ */
+public class WayfInjector {
+    private static volatile Injector injector;
+
+    private WayfInjector() {
+    }
+
+    public static Injector get() {
+        if (injector == null) {
+            synchronized (WayfInjector.class) {
+                if (injector == null) {
+                    injector = Guice.createInjector(new WayfGuiceModule());
+                }
+            }
+        }
+
+        return injector;
+    }
+}
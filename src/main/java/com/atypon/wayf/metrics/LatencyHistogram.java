@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram. Values are recorded in microseconds into log-linear
+ * buckets: each power of two is split into 16 linear sub-buckets, so any recorded value is accurate to within about
+ * 6%. Recording is a single atomic increment and never blocks, which keeps it cheap on the request path.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Values above 2^38 microseconds (about three days) are clamped into the last bucket
+    private static final int MAX_MAGNITUDE = 37;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+
+        counts.incrementAndGet(bucketIndex(value));
+        sumMicros.add(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+
+        return new Snapshot(snapshotCounts, sumMicros.sum());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * The largest value that falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int magnitude = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        int shift = magnitude - SUB_BUCKET_BITS;
+
+        return ((long) (SUB_BUCKET_COUNT + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * A point in time copy of the histogram. The counts are read bucket by bucket while recording carries on, so a
+     * snapshot may include part of a concurrent recording but its total always matches its buckets.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long sumMicros;
+        private final long totalCount;
+
+        private Snapshot(long[] counts, long sumMicros) {
+            this.counts = counts;
+            this.sumMicros = sumMicros;
+
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getSumMicros() {
+            return sumMicros;
+        }
+
+        public long countAtOrBelow(long micros) {
+            long count = 0;
+            for (int i = 0; i < counts.length && bucketUpperBound(i) <= micros; i++) {
+                count += counts[i];
+            }
+
+            return count;
+        }
+
+        public long valueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+
+                if (count >= target) {
+                    return bucketUpperBound(i);
+                }
+            }
+
+            return MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import com.google.inject.Singleton;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the server's request metrics and renders them in the Prometheus text exposition format. Latencies are kept in
+ * one {@link LatencyHistogram} per method, route template and status, and in-flight counts per method and route. The
+ * RxJava scheduler metrics and the request executor's per-publisher queues are rendered alongside them, as are the
+ * counters and gauges other components register.
+ */
+@Singleton
+public class MetricsRegistry {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String REQUEST_DURATION = "wayf_http_request_duration_seconds";
+    private static final String REQUESTS_IN_FLIGHT = "wayf_http_requests_in_flight";
+    private static final String REQUEST_QUEUE_DEPTH = "wayf_request_queue_depth";
+    private static final String REQUEST_QUEUE_WAIT = "wayf_request_queue_wait_seconds";
+    private static final String SCHEDULER_QUEUE_WAIT = "wayf_scheduler_queue_wait_seconds";
+    private static final String SCHEDULER_EXECUTION = "wayf_scheduler_execution_seconds";
+    private static final String SCHEDULER_ACTIVE_THREADS = "wayf_scheduler_active_threads";
+    private static final String SCHEDULER_THREADS = "wayf_scheduler_threads";
+    private static final String SCHEDULER_THREADS_CREATED = "wayf_scheduler_threads_created_total";
+    private static final String SCHEDULER_QUEUE_SIZE = "wayf_scheduler_queue_size";
+    private static final String SCHEDULER_REJECTED = "wayf_scheduler_rejected_total";
+
+    // Exposition bucket boundaries in seconds
+    private static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final ConcurrentMap<RequestKey, LatencyHistogram> requestLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<RequestKey, LongAdder> requestsInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> requestQueueDepths = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> requestQueueWaits = new ConcurrentSkipListMap<>();
+    private final SchedulerMetrics schedulerMetrics = new SchedulerMetrics();
+    private final ConcurrentMap<String, SuppliedMetric> suppliedMetrics = new ConcurrentSkipListMap<>();
+
+    public MetricsRegistry() {
+    }
+
+    public RequestTimer startRequest(String method, String route) {
+        requestsInFlight.computeIfAbsent(new RequestKey(method, route, 0), (key) -> new LongAdder()).increment();
+
+        return new RequestTimer(this, method, route);
+    }
+
+    void requestCompleted(String method, String route, int statusCode, long nanos) {
+        requestsInFlight.get(new RequestKey(method, route, 0)).decrement();
+        requestLatencies.computeIfAbsent(new RequestKey(method, route, statusCode), (key) -> new LatencyHistogram()).recordNanos(nanos);
+    }
+
+    public LatencyHistogram.Snapshot getLatencySnapshot(String method, String route, int statusCode) {
+        LatencyHistogram histogram = requestLatencies.get(new RequestKey(method, route, statusCode));
+        return histogram != null ? histogram.snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    public long getRequestsInFlight(String method, String route) {
+        LongAdder inFlight = requestsInFlight.get(new RequestKey(method, route, 0));
+        return inFlight != null ? inFlight.sum() : 0;
+    }
+
+    /**
+     * Registers one of the request executor's queues, labelled by the publisher it holds requests for
+     */
+    public void registerRequestQueue(String publisher, LongSupplier depth) {
+        requestQueueDepths.put(publisher, depth);
+    }
+
+    public void recordRequestQueueWait(String publisher, long nanos) {
+        requestQueueWaits.computeIfAbsent(publisher, (key) -> new LatencyHistogram()).recordNanos(nanos);
+    }
+
+    public LatencyHistogram.Snapshot getRequestQueueWaitSnapshot(String publisher) {
+        LatencyHistogram histogram = requestQueueWaits.get(publisher);
+        return histogram != null ? histogram.snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    public SchedulerMetrics getSchedulerMetrics() {
+        return schedulerMetrics;
+    }
+
+    /**
+     * Registers a monotonically increasing count, read each time the metrics are scraped. The name should end in
+     * _total. Registering a name again replaces the earlier metric
+     */
+    public void registerCounter(String name, String help, LongSupplier value) {
+        suppliedMetrics.put(name, new SuppliedMetric("counter", help, value));
+    }
+
+    /**
+     * Registers a value that can go up and down, read each time the metrics are scraped
+     */
+    public void registerGauge(String name, String help, LongSupplier value) {
+        suppliedMetrics.put(name, new SuppliedMetric("gauge", help, value));
+    }
+
+    public String scrape() {
+        StringBuilder builder = new StringBuilder();
+
+        writeHeader(builder, REQUEST_DURATION, "histogram", "Request latency by method, route template and status");
+        for (Map.Entry<RequestKey, LatencyHistogram> entry : sorted(requestLatencies).entrySet()) {
+            writeHistogram(builder, REQUEST_DURATION, entry.getKey().toLabels(), entry.getValue().snapshot());
+        }
+
+        writeHeader(builder, REQUESTS_IN_FLIGHT, "gauge", "Requests currently being handled by method and route template");
+        for (Map.Entry<RequestKey, LongAdder> entry : sorted(requestsInFlight).entrySet()) {
+            writeSample(builder, REQUESTS_IN_FLIGHT, entry.getKey().toLabels(), entry.getValue().sum());
+        }
+
+        writeHeader(builder, REQUEST_QUEUE_DEPTH, "gauge", "Requests waiting for a request executor thread by publisher");
+        requestQueueDepths.forEach((publisher, depth) -> writeSample(builder, REQUEST_QUEUE_DEPTH, publisherLabel(publisher), depth.getAsLong()));
+
+        writeHeader(builder, REQUEST_QUEUE_WAIT, "histogram", "Time requests waited for a request executor thread by publisher");
+        requestQueueWaits.forEach((publisher, waits) -> writeHistogram(builder, REQUEST_QUEUE_WAIT, publisherLabel(publisher), waits.snapshot()));
+
+        writeSchedulers(builder);
+
+        for (Map.Entry<String, SuppliedMetric> entry : suppliedMetrics.entrySet()) {
+            SuppliedMetric metric = entry.getValue();
+
+            writeHeader(builder, entry.getKey(), metric.type, metric.help);
+            builder.append(entry.getKey()).append(' ').append(metric.value.getAsLong()).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private void writeSchedulers(StringBuilder builder) {
+        Map<String, SchedulerMetrics.SchedulerStats> schedulers = schedulerMetrics.getSchedulers();
+
+        writeHeader(builder, SCHEDULER_QUEUE_WAIT, "histogram", "Time RxJava tasks waited between being scheduled and starting");
+        schedulers.forEach((name, stats) -> writeHistogram(builder, SCHEDULER_QUEUE_WAIT, schedulerLabel(name), stats.getQueueWait()));
+
+        writeHeader(builder, SCHEDULER_EXECUTION, "histogram", "Time RxJava tasks ran on the scheduler");
+        schedulers.forEach((name, stats) -> writeHistogram(builder, SCHEDULER_EXECUTION, schedulerLabel(name), stats.getExecution()));
+
+        writeHeader(builder, SCHEDULER_ACTIVE_THREADS, "gauge", "Scheduler threads currently running a task");
+        schedulers.forEach((name, stats) -> writeSample(builder, SCHEDULER_ACTIVE_THREADS, schedulerLabel(name), stats.getActiveThreads()));
+
+        writeHeader(builder, SCHEDULER_THREADS, "gauge", "Scheduler threads currently alive");
+        schedulers.forEach((name, stats) -> writeSample(builder, SCHEDULER_THREADS, schedulerLabel(name), stats.getLiveThreads()));
+
+        writeHeader(builder, SCHEDULER_THREADS_CREATED, "counter", "Scheduler threads started since the server started");
+        schedulers.forEach((name, stats) -> writeSample(builder, SCHEDULER_THREADS_CREATED, schedulerLabel(name), stats.getThreadsCreated()));
+
+        writeHeader(builder, SCHEDULER_QUEUE_SIZE, "gauge", "Tasks waiting for a scheduler thread");
+        schedulers.forEach((name, stats) -> writeSample(builder, SCHEDULER_QUEUE_SIZE, schedulerLabel(name), stats.getQueueSize()));
+
+        writeHeader(builder, SCHEDULER_REJECTED, "counter", "Tasks turned away because the scheduler's threads and queue were full");
+        schedulers.forEach((name, stats) -> writeSample(builder, SCHEDULER_REJECTED, schedulerLabel(name), stats.getRejected()));
+    }
+
+    private static String publisherLabel(String publisher) {
+        return "publisher=\"" + escapeLabelValue(publisher) + "\"";
+    }
+
+    private static String schedulerLabel(String scheduler) {
+        return "scheduler=\"" + escapeLabelValue(scheduler) + "\"";
+    }
+
+    private static <V> Map<RequestKey, V> sorted(Map<RequestKey, V> metrics) {
+        Map<RequestKey, V> sortedMetrics = new TreeMap<>();
+        sortedMetrics.putAll(metrics);
+        return sortedMetrics;
+    }
+
+    private static void writeHeader(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeHistogram(StringBuilder builder, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        for (double bucket : LATENCY_BUCKETS) {
+            long count = snapshot.countAtOrBelow((long) (bucket * 1_000_000));
+            writeSample(builder, name + "_bucket", labels + ",le=\"" + bucket + "\"", count);
+        }
+
+        writeSample(builder, name + "_bucket", labels + ",le=\"+Inf\"", snapshot.getTotalCount());
+        writeSample(builder, name + "_sum", labels, snapshot.getSumMicros() / 1_000_000.0);
+        writeSample(builder, name + "_count", labels, snapshot.getTotalCount());
+    }
+
+    private static void writeSample(StringBuilder builder, String name, String labels, Number value) {
+        builder.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class SuppliedMetric {
+        private final String type;
+        private final String help;
+        private final LongSupplier value;
+
+        private SuppliedMetric(String type, String help, LongSupplier value) {
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A method, route and status combination. In-flight counts are not split by status and use a status of 0
+     */
+    private static class RequestKey implements Comparable<RequestKey> {
+        private final String method;
+        private final String route;
+        private final int statusCode;
+
+        private RequestKey(String method, String route, int statusCode) {
+            this.method = method;
+            this.route = route;
+            this.statusCode = statusCode;
+        }
+
+        private String toLabels() {
+            StringBuilder labels = new StringBuilder()
+                    .append("method=\"").append(escapeLabelValue(method)).append("\",")
+                    .append("route=\"").append(escapeLabelValue(route)).append('"');
+
+            if (statusCode != 0) {
+                labels.append(",status=\"").append(statusCode).append('"');
+            }
+
+            return labels.toString();
+        }
+
+        @Override
+        public int compareTo(RequestKey other) {
+            int compare = route.compareTo(other.route);
+            if (compare == 0) {
+                compare = method.compareTo(other.method);
+            }
+            if (compare == 0) {
+                compare = Integer.compare(statusCode, other.statusCode);
+            }
+
+            return compare;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RequestKey)) {
+                return false;
+            }
+
+            RequestKey other = (RequestKey) o;
+            return statusCode == other.statusCode && method.equals(other.method) && route.equals(other.route);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, route, statusCode);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Times one request from the moment its handler starts until the response ends or the client goes away. Only the
+ * first stop is recorded, so every exit path can stop the timer without double counting.
+ */
+public class RequestTimer {
+    public static final String CONTEXT_KEY = "wayf.requestTimer";
+
+    // Recorded when the connection closes before a response was written, following the nginx convention
+    public static final int CLIENT_CLOSED_STATUS = 499;
+
+    private final MetricsRegistry metricsRegistry;
+    private final String method;
+    private final String route;
+    private final long startNanos;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    RequestTimer(MetricsRegistry metricsRegistry, String method, String route) {
+        this.metricsRegistry = metricsRegistry;
+        this.method = method;
+        this.route = route;
+        this.startNanos = System.nanoTime();
+    }
+
+    public void stop(int statusCode) {
+        if (stopped.compareAndSet(false, true)) {
+            metricsRegistry.requestCompleted(method, route, statusCode, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Stops the timer stored on the routing context, if the request is being timed
+     */
+    public static void stop(RoutingContext routingContext, int statusCode) {
+        RequestTimer timer = routingContext.get(CONTEXT_KEY);
+
+        if (timer != null) {
+            timer.stop(statusCode);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the RxJava schedulers through the tasks WayfRunnable wraps: how long a task waited between being scheduled
+ * and starting, how long it ran, how many of a scheduler's threads are busy or alive, and how many it has started.
+ * Tasks are attributed to a scheduler by the name of the thread that runs them; tasks running anywhere else, such as
+ * trampolined ones on the caller's thread, are not measured. RxJava decorates some tasks twice, e.g. scheduleDirect
+ * and then the worker it hands the task to, so only the outermost task running on a thread is measured. Bounded
+ * schedulers register themselves with the prefix of their thread names, and also report their queue and rejections.
+ */
+public class SchedulerMetrics {
+    public static final String IO = "io";
+    public static final String COMPUTATION = "computation";
+
+    private static final String IO_THREAD_PREFIX = "RxCachedThreadScheduler";
+    private static final String COMPUTATION_THREAD_PREFIX = "RxComputationThreadPool";
+
+    private final Map<String, SchedulerStats> schedulers = new ConcurrentSkipListMap<>();
+    private final Map<String, SchedulerStats> schedulersByThreadPrefix = new ConcurrentHashMap<>();
+
+    // Resolves each thread to its scheduler once, which is also the point where a new scheduler thread is counted
+    private final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial(() -> new ThreadState(registerCurrentThread()));
+
+    public SchedulerMetrics() {
+        registerScheduler(IO, IO_THREAD_PREFIX, null);
+        registerScheduler(COMPUTATION, COMPUTATION_THREAD_PREFIX, null);
+    }
+
+    /**
+     * Measures the tasks run by threads whose names start with the prefix. Has to be called before the scheduler
+     * starts its first thread. The queue size supplier may be null if the scheduler doesn't have a queue of its own
+     */
+    public SchedulerStats registerScheduler(String name, String threadPrefix, LongSupplier queueSize) {
+        SchedulerStats stats = new SchedulerStats(queueSize);
+
+        schedulers.put(name, stats);
+        schedulersByThreadPrefix.put(threadPrefix, stats);
+
+        return stats;
+    }
+
+    private SchedulerStats registerCurrentThread() {
+        Thread thread = Thread.currentThread();
+        String name = thread.getName();
+
+        SchedulerStats stats = null;
+        for (Map.Entry<String, SchedulerStats> entry : schedulersByThreadPrefix.entrySet()) {
+            if (name.startsWith(entry.getKey())) {
+                stats = entry.getValue();
+                break;
+            }
+        }
+
+        if (stats != null) {
+            stats.threadsCreated.increment();
+            stats.threads.add(thread);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Called on the running thread as a task starts. A negative wait means the wait is not known, as for the repeated
+     * runs of a periodic task. Returns the token to pass to {@link #taskFinished}, or null if the thread is not
+     * measured
+     */
+    public SchedulerStats taskStarted(long queueWaitNanos) {
+        ThreadState state = threadStates.get();
+
+        if (state.stats == null || state.running) {
+            return null;
+        }
+
+        state.running = true;
+        state.stats.activeThreads.increment();
+
+        if (queueWaitNanos >= 0) {
+            state.stats.queueWait.recordNanos(queueWaitNanos);
+        }
+
+        return state.stats;
+    }
+
+    public void taskFinished(SchedulerStats stats, long executionNanos) {
+        if (stats != null) {
+            threadStates.get().running = false;
+            stats.activeThreads.decrement();
+            stats.execution.recordNanos(executionNanos);
+        }
+    }
+
+    public SchedulerStats getStats(String scheduler) {
+        return schedulers.get(scheduler);
+    }
+
+    Map<String, SchedulerStats> getSchedulers() {
+        return schedulers;
+    }
+
+    private static class ThreadState {
+        private final SchedulerStats stats;
+        private boolean running = false;
+
+        private ThreadState(SchedulerStats stats) {
+            this.stats = stats;
+        }
+    }
+
+    public static class SchedulerStats {
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private final LatencyHistogram execution = new LatencyHistogram();
+        private final LongAdder activeThreads = new LongAdder();
+        private final LongAdder threadsCreated = new LongAdder();
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private final LongAdder rejected = new LongAdder();
+        private final LongSupplier queueSize;
+
+        private SchedulerStats(LongSupplier queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public void recordRejected() {
+            rejected.increment();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * Tasks waiting for a thread. Always 0 for the RxJava schedulers, which have no queue of their own
+         */
+        public long getQueueSize() {
+            return queueSize == null ? 0 : queueSize.getAsLong();
+        }
+
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot getExecution() {
+            return execution.snapshot();
+        }
+
+        public long getActiveThreads() {
+            return activeThreads.sum();
+        }
+
+        public long getThreadsCreated() {
+            return threadsCreated.sum();
+        }
+
+        /**
+         * Threads of the scheduler that are still alive. The io() pool retires idle threads, so this drops back
+         * down after a burst while the created count keeps growing
+         */
+        public long getLiveThreads() {
+            threads.removeIf((thread) -> !thread.isAlive());
+            return threads.size();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.metrics;
+
+import com.atypon.wayf.request.RequestContext;
+import com.atypon.wayf.request.RequestContextAccessor;
+import io.reactivex.Completable;
+import io.reactivex.CompletableTransformer;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeTransformer;
+import io.reactivex.Single;
+import io.reactivex.SingleTransformer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where a request spends its time. Every {@link RequestContext} carries one, and the database, Redis, cache
+ * and hashing layers add to it as they run. Time spent in a stage more than once is summed under the stage's name.
+ * Stages can overlap, e.g. a cache lookup includes the Redis and database reads behind it, so they don't add up to the
+ * total.
+ */
+public class StageTimings {
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<>();
+
+    public StageTimings() {
+    }
+
+    public void record(String stage, long stageStartNanos) {
+        long nanos = System.nanoTime() - stageStartNanos;
+
+        stages.computeIfAbsent(stage, (name) -> new Stage(name, stageStartNanos)).add(nanos);
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * The stages as a Server-Timing header value, in the order they first started, followed by the total so far
+     */
+    public String toServerTimingHeader() {
+        StringBuilder builder = new StringBuilder();
+
+        for (Stage stage : orderedStages()) {
+            builder.append(stage.name).append(";dur=").append(formatMillis(stage.nanos.sum())).append(", ");
+        }
+
+        return builder.append("total;dur=").append(formatMillis(getElapsedNanos())).toString();
+    }
+
+    /**
+     * The stages with their call counts, for logging
+     */
+    public String toLogString() {
+        StringBuilder builder = new StringBuilder()
+                .append("total=").append(formatMillis(getElapsedNanos())).append("ms");
+
+        for (Stage stage : orderedStages()) {
+            builder.append(' ').append(stage.name).append('=').append(formatMillis(stage.nanos.sum())).append("ms");
+
+            long count = stage.count.sum();
+            if (count > 1) {
+                builder.append('(').append(count).append(')');
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private List<Stage> orderedStages() {
+        List<Stage> ordered = new ArrayList<>(stages.values());
+        ordered.sort(Comparator.comparingLong((Stage stage) -> stage.firstStartNanos - startNanos));
+        return ordered;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the stage against the request running on this thread, if there is one
+     */
+    public static void recordCurrent(String stage, long stageStartNanos) {
+        StageTimings timings = current();
+
+        if (timings != null) {
+            timings.record(stage, stageStartNanos);
+        }
+    }
+
+    private static StageTimings current() {
+        RequestContext requestContext = RequestContextAccessor.get();
+        return requestContext != null ? requestContext.getStageTimings() : null;
+    }
+
+    /*
+     * Transformers that time a stream from subscription until it terminates or is disposed. The request is looked up
+     * on the subscribing thread, which is the one that still has the request context set
+     */
+
+    public static <T> MaybeTransformer<T, T> maybe(String stage) {
+        return (upstream) -> Maybe.defer(() -> {
+            StageTimings timings = current();
+            if (timings == null) {
+                return upstream;
+            }
+
+            long stageStartNanos = start();
+            return upstream.doFinally(() -> timings.record(stage, stageStartNanos));
+        });
+    }
+
+    public static <T> SingleTransformer<T, T> single(String stage) {
+        return (upstream) -> Single.defer(() -> {
+            StageTimings timings = current();
+            if (timings == null) {
+                return upstream;
+            }
+
+            long stageStartNanos = start();
+            return upstream.doFinally(() -> timings.record(stage, stageStartNanos));
+        });
+    }
+
+    public static CompletableTransformer completable(String stage) {
+        return (upstream) -> Completable.defer(() -> {
+            StageTimings timings = current();
+            if (timings == null) {
+                return upstream;
+            }
+
+            long stageStartNanos = start();
+            return upstream.doFinally(() -> timings.record(stage, stageStartNanos));
+        });
+    }
+
+    public static <T> FlowableTransformer<T, T> flowable(String stage) {
+        return (upstream) -> Flowable.defer(() -> {
+            StageTimings timings = current();
+            if (timings == null) {
+                return upstream;
+            }
+
+            long stageStartNanos = start();
+            return upstream.doFinally(() -> timings.record(stage, stageStartNanos));
+        });
+    }
+
+    private static class Stage {
+        private final String name;
+        private final long firstStartNanos;
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        private Stage(String name, long firstStartNanos) {
+            this.name = name;
+            this.firstStartNanos = firstStartNanos;
+        }
+
+        private void add(long stageNanos) {
+            nanos.add(stageNanos);
+            count.increment();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.reactivex;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.metrics.SchedulerMetrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.*;
+import io.reactivex.schedulers.Schedulers;
+import org.apache.http.HttpStatus;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A scheduler with a fixed number of threads and a bounded queue, so that work for one dependency can only ever tie up
+ * its own threads. Each subscription holds a slot from the moment it is subscribed until it has terminated or been
+ * disposed and none of its tasks is still queued or running, so a call that is abandoned while it waits on the
+ * dependency keeps its slot until its thread is actually free again. Once every slot is taken, further subscriptions
+ * fail straight away with a 503 instead of waiting. Results are delivered on this scheduler's thread, without another
+ * hop, so whatever runs downstream of them holds the slot until it hands off or returns and must not block.
+ *
+ * RxJava's executor scheduler swallows a rejected task, leaving the subscriber waiting forever, so the executor's queue
+ * is unbounded and the slots do the bounding. A subscription never has more than one task queued or running, so the
+ * queue holds at most one task per slot, plus the occasional task from {@link #getScheduler()}.
+ */
+public class BulkheadScheduler {
+    private final String name;
+    private final int threads;
+    private final int queueDepth;
+
+    private final ThreadPoolExecutor executor;
+    private final Scheduler scheduler;
+    private final Semaphore slots;
+
+    private final LongAdder rejected = new LongAdder();
+    private SchedulerMetrics.SchedulerStats stats;
+
+    public BulkheadScheduler(String name, int threads, int queueDepth) {
+        this.name = name;
+        this.threads = threads;
+        this.queueDepth = queueDepth;
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(getThreadPrefix() + "%d").setDaemon(true).build());
+        this.scheduler = Schedulers.from(executor);
+        this.slots = new Semaphore(threads + queueDepth);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getThreadPrefix() {
+        return "wayf-" + name + "-";
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * The underlying scheduler, which doesn't take a slot. Only for work that must not be turned away, such as writing
+     * an error response
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Subscriptions currently holding a slot, whether running or waiting for a thread
+     */
+    public int getInFlight() {
+        return threads + queueDepth - slots.availablePermits();
+    }
+
+    public <T> Single<T> subscribeOn(Single<T> single) {
+        return Single.defer(() -> {
+            if (!tryAcquire()) {
+                return Single.<T>error(buildRejectedException());
+            }
+
+            Slot slot = new Slot();
+            return single.subscribeOn(slot.scheduler).doFinally(slot::release);
+        });
+    }
+
+    public <T> Maybe<T> subscribeOn(Maybe<T> maybe) {
+        return Maybe.defer(() -> {
+            if (!tryAcquire()) {
+                return Maybe.<T>error(buildRejectedException());
+            }
+
+            Slot slot = new Slot();
+            return maybe.subscribeOn(slot.scheduler).doFinally(slot::release);
+        });
+    }
+
+    public Completable subscribeOn(Completable completable) {
+        return Completable.defer(() -> {
+            if (!tryAcquire()) {
+                return Completable.error(buildRejectedException());
+            }
+
+            Slot slot = new Slot();
+            return completable.subscribeOn(slot.scheduler).doFinally(slot::release);
+        });
+    }
+
+    public <T> Flowable<T> subscribeOn(Flowable<T> flowable) {
+        return Flowable.defer(() -> {
+            if (!tryAcquire()) {
+                return Flowable.<T>error(buildRejectedException());
+            }
+
+            Slot slot = new Slot();
+            return flowable.subscribeOn(slot.scheduler).doFinally(slot::release);
+        });
+    }
+
+    /**
+     * Moves the stream's emissions onto this scheduler, holding one slot for the life of the stream
+     */
+    public <T> Flowable<T> observeOn(Flowable<T> flowable, int bufferSize) {
+        return Flowable.defer(() -> {
+            if (!tryAcquire()) {
+                return Flowable.<T>error(buildRejectedException());
+            }
+
+            Slot slot = new Slot();
+            return flowable.observeOn(slot.scheduler, false, bufferSize).doFinally(slot::release);
+        });
+    }
+
+    private boolean tryAcquire() {
+        if (slots.tryAcquire()) {
+            return true;
+        }
+
+        rejected.increment();
+
+        if (stats != null) {
+            stats.recordRejected();
+        }
+
+        return false;
+    }
+
+    public ServiceException buildRejectedException() {
+        return new ServiceException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Server is too busy to reach [" + name + "], please retry");
+    }
+
+    /**
+     * One subscription's slot. The subscription and each of its tasks on the executor hold a reference, and the slot
+     * goes back once the subscription has finished and its last task has run, or been skipped because the
+     * subscription was disposed while it waited in the queue
+     */
+    private class Slot implements Executor {
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final Scheduler scheduler = Schedulers.from(this);
+
+        @Override
+        public void execute(Runnable task) {
+            references.incrementAndGet();
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Has to be called before the scheduler runs its first task for the task metrics to cover its threads
+     */
+    public void registerMetrics(MetricsRegistry metricsRegistry) {
+        stats = metricsRegistry.getSchedulerMetrics().registerScheduler(name, getThreadPrefix(), () -> executor.getQueue().size());
+    }
+}
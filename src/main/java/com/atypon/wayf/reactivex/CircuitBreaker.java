@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.reactivex;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops calls to a dependency, such as the database or Redis, once it keeps failing. After the failure threshold is
+ * reached in a row the breaker opens and calls fail immediately with a 503. Once the open interval has passed, a single
+ * probe call is let through: if it succeeds the breaker closes, otherwise it opens again. A threshold of 0 disables the
+ * breaker.
+ */
+public class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private volatile State state = State.CLOSED;
+    private long openedAtNanos;
+    private long probeStartedAtNanos;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    /**
+     * Whether a call may go ahead. Always true while the breaker is closed
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED || tryProbe()) {
+            return true;
+        }
+
+        rejected.increment();
+        return false;
+    }
+
+    // A probe that never reports back, e.g. because it was disposed, must not keep the breaker half open, so another
+    // probe is allowed once the open interval has passed again
+    private synchronized boolean tryProbe() {
+        long now = System.nanoTime();
+
+        if (state == State.OPEN && now - openedAtNanos >= openNanos
+                || state == State.HALF_OPEN && now - probeStartedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+            probeStartedAtNanos = now;
+            return true;
+        }
+
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Only a probe closes an open breaker. Calls that started before the breaker opened may still succeed while it is
+     * open, and say nothing about whether the dependency has recovered
+     */
+    public void onSuccess() {
+        State current = state;
+
+        if (current == State.OPEN) {
+            return;
+        }
+
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+
+        if (current == State.HALF_OPEN) {
+            close();
+        }
+    }
+
+    public void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || state == State.HALF_OPEN) {
+            open();
+        }
+    }
+
+    private synchronized void close() {
+        if (state == State.HALF_OPEN) {
+            LOG.info("Closing circuit breaker [{}]", name);
+            state = State.CLOSED;
+        }
+    }
+
+    // Failures of calls that started before the breaker opened don't push the next probe back
+    private synchronized void open() {
+        if (state == State.OPEN) {
+            return;
+        }
+
+        LOG.warn("Opening circuit breaker [{}] after [{}] consecutive failures", name, consecutiveFailures.get());
+
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+    }
+
+    public ServiceException buildOpenException() {
+        return new ServiceException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Dependency [" + name + "] is unavailable, please retry");
+    }
+
+    public void registerMetrics(MetricsRegistry metricsRegistry) {
+        String prefix = "wayf_dependency_" + name;
+
+        metricsRegistry.registerGauge(prefix + "_circuit_state", "Circuit breaker state: 0 closed, 1 open, 2 half open", () -> state.ordinal());
+        metricsRegistry.registerCounter(prefix + "_rejected_total", "Calls failed fast by the open circuit breaker", rejected::sum);
+        metricsRegistry.registerCounter(prefix + "_retries_total", "Calls retried after a transient error", retries::sum);
+    }
+}
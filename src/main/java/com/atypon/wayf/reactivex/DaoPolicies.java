@@ -17,46 +17,262 @@
 package com.atypon.wayf.reactivex;
 
 import com.atypon.wayf.data.ServiceException;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import io.reactivex.*;
-import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import org.apache.http.HttpStatus;
+import org.reactivestreams.Publisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class DaoPolicies {
 
-    private static Scheduler subscribeOnScheduler = Schedulers.io();
-    private static Consumer<? super Throwable> doOnError = (e) -> {throw new ServiceException(HttpStatus.SC_BAD_REQUEST, e);};
-    private static final int RETRY_COUNT = 3;
-    private static final long TIMEOUT = 3l;
-    private static final TimeUnit TIMEOUT_UNIT = TimeUnit.SECONDS;
+    // Set through Guice static injection, the defaults apply when the policies are used without an injector
+    @Inject(optional = true)
+    @Named("dao.callTimeoutMillis")
+    private static long callTimeoutMillis = 3000;
 
+    @Inject(optional = true)
+    @Named("dao.retry.maxRetries")
+    private static int maxRetries = 2;
+
+    @Inject(optional = true)
+    @Named("dao.retry.baseDelayMillis")
+    private static long retryBaseDelayMillis = 20;
+
+    @Inject(optional = true)
+    @Named("dao.retry.maxDelayMillis")
+    private static long retryMaxDelayMillis = 200;
+
+    // Maps the errors of a DAO's chain. Each call in it is already timed by the guard* policies, so the chain as a whole
+    // isn't
     public static <T> Single<T> applySingle(Single<T> single) {
-        return single.subscribeOn(subscribeOnScheduler)
-                .doOnError(doOnError)
-                .retry(RETRY_COUNT)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return single.onErrorResumeNext((Throwable e) -> Single.error(mapError(e)));
     }
 
     public static <T> Maybe<T> applyMaybe(Maybe<T> maybe) {
-        return maybe.subscribeOn(subscribeOnScheduler)
-                .doOnError(doOnError)
-                .retry(RETRY_COUNT)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return maybe.onErrorResumeNext((Throwable e) -> Maybe.error(mapError(e)));
     }
 
     public static <T> Observable<T> applyObservable(Observable<T> observable) {
-        return observable.subscribeOn(subscribeOnScheduler)
-                .doOnError(doOnError)
-                .retry(RETRY_COUNT)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return observable.onErrorResumeNext((Throwable e) -> Observable.error(mapError(e)));
     }
 
     public static Completable applyCompletable(Completable completable) {
-        return completable.subscribeOn(subscribeOnScheduler)
-                .doOnError(doOnError)
-                .retry(RETRY_COUNT)
-                .timeout(TIMEOUT,TIMEOUT_UNIT);
+        return completable.onErrorResumeNext((e) -> Completable.error(mapError(e)));
+    }
+
+    /*
+     * Guards a call to a dependency: the call fails fast while the breaker is open, an attempt that takes longer than
+     * the call timeout fails with a TimeoutException, every outcome is reported to the breaker, and transient errors
+     * are retried with jittered exponential backoff. The call is made again on each
+     * retry, so it has to be lazy. When a scheduler is given, each attempt runs on it and fails fast once it is full,
+     * and the backoff waits on the computation threads, since all it does there is hand the next attempt over. Without
+     * one the call runs on the subscribing thread, which also sits out the backoff.
+     */
+
+    public static <T> Single<T> guardSingle(Single<T> call, CircuitBreaker breaker, BulkheadScheduler scheduler) {
+        return scheduler == null
+                ? guardSingle(call, breaker)
+                : guardSingle(scheduler.subscribeOn(call), breaker, Schedulers.computation());
+    }
+
+    public static <T> Maybe<T> guardMaybe(Maybe<T> call, CircuitBreaker breaker, BulkheadScheduler scheduler) {
+        return scheduler == null
+                ? guardMaybe(call, breaker)
+                : guardMaybe(scheduler.subscribeOn(call), breaker, Schedulers.computation());
+    }
+
+    public static Completable guardCompletable(Completable call, CircuitBreaker breaker, BulkheadScheduler scheduler) {
+        return scheduler == null
+                ? guardCompletable(call, breaker)
+                : guardCompletable(scheduler.subscribeOn(call), breaker, Schedulers.computation());
+    }
+
+    public static <T> Flowable<T> guardFlowable(Flowable<T> call, CircuitBreaker breaker, BulkheadScheduler scheduler) {
+        return guardFlowable(scheduler == null ? call : scheduler.subscribeOn(call), breaker);
+    }
+
+    public static <T> Single<T> guardSingle(Single<T> call, CircuitBreaker breaker) {
+        return guardSingle(call, breaker, Schedulers.trampoline());
+    }
+
+    private static <T> Single<T> guardSingle(Single<T> call, CircuitBreaker breaker, Scheduler backoffScheduler) {
+        return Single.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Single.<T>error(breaker.buildOpenException());
+            }
+
+            return withTimeout(call).doOnSuccess((result) -> breaker.onSuccess())
+                    .doOnError((e) -> recordError(breaker, e));
+        }).retryWhen(backoff(breaker, backoffScheduler));
+    }
+
+    public static <T> Maybe<T> guardMaybe(Maybe<T> call, CircuitBreaker breaker) {
+        return guardMaybe(call, breaker, Schedulers.trampoline());
+    }
+
+    private static <T> Maybe<T> guardMaybe(Maybe<T> call, CircuitBreaker breaker, Scheduler backoffScheduler) {
+        return Maybe.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Maybe.<T>error(breaker.buildOpenException());
+            }
+
+            return withTimeout(call).doOnSuccess((result) -> breaker.onSuccess())
+                    .doOnComplete(breaker::onSuccess)
+                    .doOnError((e) -> recordError(breaker, e));
+        }).retryWhen(backoff(breaker, backoffScheduler));
+    }
+
+    public static Completable guardCompletable(Completable call, CircuitBreaker breaker) {
+        return guardCompletable(call, breaker, Schedulers.trampoline());
+    }
+
+    private static Completable guardCompletable(Completable call, CircuitBreaker breaker, Scheduler backoffScheduler) {
+        return Completable.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Completable.error(breaker.buildOpenException());
+            }
+
+            return withTimeout(call).doOnComplete(breaker::onSuccess)
+                    .doOnError((e) -> recordError(breaker, e));
+        }).retryWhen(backoff(breaker, backoffScheduler));
+    }
+
+    /**
+     * Streams are not retried, since elements may already have been emitted when they fail. Only the first element has
+     * to arrive within the call timeout, since later ones wait for the subscriber to request them
+     */
+    public static <T> Flowable<T> guardFlowable(Flowable<T> call, CircuitBreaker breaker) {
+        return Flowable.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                return Flowable.<T>error(breaker.buildOpenException());
+            }
+
+            return withTimeout(call).doOnComplete(breaker::onSuccess)
+                    .doOnError((e) -> recordError(breaker, e));
+        });
+    }
+
+    // A timeout of 0 or less leaves calls untimed
+    private static <T> Single<T> withTimeout(Single<T> call) {
+        return callTimeoutMillis > 0 ? call.timeout(callTimeoutMillis, TimeUnit.MILLISECONDS) : call;
+    }
+
+    private static <T> Maybe<T> withTimeout(Maybe<T> call) {
+        return callTimeoutMillis > 0 ? call.timeout(callTimeoutMillis, TimeUnit.MILLISECONDS) : call;
+    }
+
+    private static Completable withTimeout(Completable call) {
+        return callTimeoutMillis > 0 ? call.timeout(callTimeoutMillis, TimeUnit.MILLISECONDS) : call;
+    }
+
+    private static <T> Flowable<T> withTimeout(Flowable<T> call) {
+        return callTimeoutMillis > 0
+                ? call.timeout(Flowable.timer(callTimeoutMillis, TimeUnit.MILLISECONDS), (element) -> Flowable.never())
+                : call;
+    }
+
+    static void setCallTimeoutMillis(long callTimeoutMillis) {
+        DaoPolicies.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    // Errors that mean the dependency answered, such as a constraint violation, say nothing about its health. Neither
+    // do our own, such as a full scheduler, which are raised before the dependency is reached. Our own errors that wrap
+    // a dependency failure still count as one
+    private static void recordError(CircuitBreaker breaker, Throwable e) {
+        if (e instanceof ServiceException && !isDependencyFailure(e)) {
+            return;
+        }
+
+        if (isDependencyFailure(e)) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private static Function<Flowable<Throwable>, Publisher<?>> backoff(CircuitBreaker breaker, Scheduler scheduler) {
+        return (errors) -> {
+            AtomicInteger attempts = new AtomicInteger();
+
+            return errors.flatMap((e) -> {
+                int attempt = attempts.incrementAndGet();
+
+                if (attempt > maxRetries || !isRetryable(e)) {
+                    return Flowable.error(e);
+                }
+
+                breaker.retried();
+
+                return Flowable.timer(backoffMillis(attempt), TimeUnit.MILLISECONDS, scheduler);
+            });
+        };
+    }
+
+    /**
+     * Full jitter: a random delay up to an exponentially growing cap, so that callers that failed together don't all
+     * retry together
+     */
+    static long backoffMillis(int attempt) {
+        long cap = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Errors that are likely to succeed if the call is simply made again: deadlocks, lock timeouts, dropped
+     * connections
+     */
+    public static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyFailureException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException
+                    || cause instanceof JedisConnectionException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Errors that say the dependency itself is unhealthy, which are the ones that count towards opening its breaker
+     */
+    public static boolean isDependencyFailure(Throwable e) {
+        if (isRetryable(e)) {
+            return true;
+        }
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Keeps service exceptions as they are. A failing dependency is reported as a 503 so that clients retry later, and
+     * anything else as a 500
+     */
+    public static ServiceException mapError(Throwable e) {
+        if (e instanceof ServiceException) {
+            return (ServiceException) e;
+        }
+
+        int statusCode = isDependencyFailure(e) ? HttpStatus.SC_SERVICE_UNAVAILABLE : HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        return new ServiceException(statusCode, e);
     }
 }
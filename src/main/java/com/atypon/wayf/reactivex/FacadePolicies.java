@@ -19,7 +19,6 @@ package com.atypon.wayf.reactivex;
 import com.atypon.wayf.data.ServiceException;
 import io.reactivex.*;
 import io.reactivex.functions.Consumer;
-import io.reactivex.schedulers.Schedulers;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,29 +31,35 @@ import java.util.concurrent.TimeUnit;
 public class FacadePolicies {
     private static final Logger LOG = LoggerFactory.getLogger(FacadePolicies.class);
 
-    private static Scheduler subscribeOnScheduler = Schedulers.io();
     private static final long TIMEOUT = 10l;
     private static final TimeUnit TIMEOUT_UNIT = TimeUnit.SECONDS;
 
 
+    // Facades only orchestrate, so they run on the subscribing thread. The calls that actually wait on MySQL or Redis
+    // run on those dependencies' bounded schedulers
     public static <T> Single<T> applySingle(Single<T> single) {
-        return single.subscribeOn(subscribeOnScheduler)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return single.timeout(TIMEOUT, TIMEOUT_UNIT);
     }
 
     public static <T> Maybe<T> applyMaybe(Maybe<T> maybe) {
-        return maybe.subscribeOn(subscribeOnScheduler)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return maybe.timeout(TIMEOUT, TIMEOUT_UNIT);
     }
 
     public static <T> Observable<T> applyObservable(Observable<T> observable) {
-        return observable.subscribeOn(subscribeOnScheduler)
-                .timeout(TIMEOUT, TIMEOUT_UNIT);
+        return observable.timeout(TIMEOUT, TIMEOUT_UNIT);
     }
 
     public static Completable applyCompletable(Completable completable) {
-        return completable.subscribeOn(subscribeOnScheduler)
-                .timeout(TIMEOUT,TIMEOUT_UNIT);
+        return completable.timeout(TIMEOUT,TIMEOUT_UNIT);
+    }
+
+    /**
+     * A missing or ambiguous result is an expected outcome for a client error, so those skip the stack trace
+     */
+    private static ServiceException buildException(int statusCode, String message) {
+        return statusCode < HttpStatus.SC_INTERNAL_SERVER_ERROR
+                ? ServiceException.clientError(statusCode, message)
+                : new ServiceException(statusCode, message);
     }
 
     public static final <T> Single<T> singleOrException(Maybe<T> maybe, int statusCode, String message, Object... args) {
@@ -64,7 +69,7 @@ public class FacadePolicies {
             if (_isEmpty) {
                 FormattingTuple formattedMessage = MessageFormatter.arrayFormat(message, args);
 
-                throw new ServiceException(statusCode, formattedMessage.getMessage());
+                throw buildException(statusCode, formattedMessage.getMessage());
             }
 
             return maybe.toSingle();
@@ -78,7 +83,7 @@ public class FacadePolicies {
             if (_count != 1) {
                 FormattingTuple formattedMessage = MessageFormatter.arrayFormat(message, args);
 
-                throw new ServiceException(statusCode, formattedMessage.getMessage());
+                throw buildException(statusCode, formattedMessage.getMessage());
             }
 
 
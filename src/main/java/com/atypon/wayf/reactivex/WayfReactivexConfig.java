@@ -16,6 +16,7 @@
 
 package com.atypon.wayf.reactivex;
 
+import com.atypon.wayf.metrics.SchedulerMetrics;
 import io.reactivex.plugins.RxJavaPlugins;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,4 +32,13 @@ public class WayfReactivexConfig {
 
         RxJavaPlugins.setScheduleHandler((runnable) -> new WayfRunnable(runnable));
     }
+
+    /**
+     * Also feeds the scheduler metrics from every scheduled task
+     */
+    public static void initializePlugins(SchedulerMetrics schedulerMetrics) {
+        LOG.debug("Initializing ReactiveX plugins with scheduler metrics");
+
+        RxJavaPlugins.setScheduleHandler((runnable) -> new WayfRunnable(runnable, schedulerMetrics));
+    }
 }
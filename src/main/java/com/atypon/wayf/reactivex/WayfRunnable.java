@@ -17,6 +17,7 @@
 package com.atypon.wayf.reactivex;
 
 
+import com.atypon.wayf.metrics.SchedulerMetrics;
 import com.atypon.wayf.request.RequestContext;
 import com.atypon.wayf.request.RequestContextAccessor;
 import org.slf4j.MDC;
@@ -26,7 +27,8 @@ import java.util.Map;
 /**
  * This class helps bootstrap the state of threads for use with ReactiveX. The RxJava2 library does a lot of useful
  * threadpool switching but does not copy any thread state over. Any information relevant to the thread that needs to be
- * copied should happen in this class.
+ * copied should happen in this class. When given {@link SchedulerMetrics}, it also times the task's queue wait and
+ * execution.
  */
 public class WayfRunnable implements Runnable {
 
@@ -34,14 +36,46 @@ public class WayfRunnable implements Runnable {
     private RequestContext requestContext;
     private Map<String, String> mdcContents;
 
+    private SchedulerMetrics schedulerMetrics;
+    private long scheduledNanos;
+    private boolean started = false;
+
     public WayfRunnable(Runnable runnable) {
+        this(runnable, null);
+    }
+
+    public WayfRunnable(Runnable runnable, SchedulerMetrics schedulerMetrics) {
         this.runnable = runnable;
         this.requestContext = RequestContextAccessor.get();
         this.mdcContents = MDC.getCopyOfContextMap();
+        this.schedulerMetrics = schedulerMetrics;
+        this.scheduledNanos = schedulerMetrics != null ? System.nanoTime() : 0;
     }
 
     @Override
     public void run() {
+        if (schedulerMetrics == null) {
+            runWithContext();
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+
+        // A periodic task runs the same instance again, and only its first run waited in the queue. The first wait
+        // of a delayed task includes its delay
+        long queueWaitNanos = started ? -1 : startNanos - scheduledNanos;
+        started = true;
+
+        SchedulerMetrics.SchedulerStats stats = schedulerMetrics.taskStarted(queueWaitNanos);
+
+        try {
+            runWithContext();
+        } finally {
+            schedulerMetrics.taskFinished(stats, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void runWithContext() {
         RequestContextAccessor.set(requestContext);
 
         if (mdcContents != null) {
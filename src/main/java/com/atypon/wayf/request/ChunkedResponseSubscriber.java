@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.request;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the elements of a stream as a chunked JSON array. Elements are encoded on the thread that emits them and
+ * written on the request's event loop context, in order. At most {@code window} encoded elements are in flight, and
+ * no more are requested while the Vert.x write queue is full.
+ *
+ * Whether there is a next page is only known once the rows behind it have been read, so up to the request's limit
+ * plus one elements are held back before the headers, including the Link header, are written. A page that fits in
+ * that is sent once the stream completes; a longer stream isn't paged by the request, so its Link can't change.
+ */
+class ChunkedResponseSubscriber implements Subscriber<Object> {
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedResponseSubscriber.class);
+
+    private static final String ARRAY_START = "[";
+    private static final String ARRAY_SEPARATOR = ",";
+    private static final String ARRAY_END = "]";
+
+    private final ResponseWriter responseWriter;
+    private final RoutingContext routingContext;
+    private final RequestContext requestContext;
+    private final Context context;
+    private final int window;
+    private final int holdBack;
+
+    private Subscription subscription;
+
+    // Only touched by the emitting thread, which the Subscriber contract keeps serial. The request context is passed in
+    // because the threads that emit never had it set
+    private boolean firstElement = true;
+
+    // Only touched on the event loop
+    private final List<Buffer> heldChunks = new ArrayList<>();
+    private boolean headersWritten = false;
+    private boolean closed = false;
+    private long deferredRequests = 0;
+
+    ChunkedResponseSubscriber(ResponseWriter responseWriter, RoutingContext routingContext, RequestContext requestContext, Context context, int window) {
+        this.responseWriter = responseWriter;
+        this.routingContext = routingContext;
+        this.requestContext = requestContext;
+        this.context = context;
+        this.window = window;
+        this.holdBack = requestContext.getLimit() + 1;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(Object element) {
+        Buffer chunk = Buffer.buffer();
+
+        try {
+            if (firstElement) {
+                firstElement = false;
+                chunk.appendString(ARRAY_START);
+            } else {
+                chunk.appendString(ARRAY_SEPARATOR);
+            }
+
+            chunk.appendBuffer(responseWriter.encode(element, requestContext));
+        } catch (Exception e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+
+        context.runOnContext((v) -> writeChunk(chunk));
+    }
+
+    @Override
+    public void onComplete() {
+        String linkValue = responseWriter.buildLinkHeaderValue(requestContext);
+        boolean empty = firstElement;
+
+        context.runOnContext((v) -> {
+            if (closed) {
+                return;
+            }
+
+            HttpServerResponse response = routingContext.response();
+
+            if (!headersWritten) {
+                writeHeaders(response, linkValue);
+
+                if (empty) {
+                    response.write(ARRAY_START);
+                }
+            }
+
+            response.end(ARRAY_END);
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        context.runOnContext((v) -> {
+            if (closed) {
+                return;
+            }
+
+            if (!headersWritten) {
+                closed = true;
+                routingContext.fail(throwable);
+                return;
+            }
+
+            // The status is already on the wire, so the best signal left is to cut the response short
+            LOG.error("Error streaming response, closing connection", throwable);
+            closed = true;
+            routingContext.response().close();
+        });
+    }
+
+    private void writeChunk(Buffer chunk) {
+        if (closed) {
+            return;
+        }
+
+        HttpServerResponse response = routingContext.response();
+
+        if (headersWritten) {
+            response.write(chunk);
+        } else {
+            heldChunks.add(chunk);
+
+            // Keep requesting until the page is known to be complete, or the held back elements would never be written
+            if (heldChunks.size() < holdBack) {
+                subscription.request(1);
+                return;
+            }
+
+            writeHeaders(response, responseWriter.buildLinkHeaderValue(requestContext));
+        }
+
+        if (response.writeQueueFull()) {
+            deferredRequests++;
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    private void writeHeaders(HttpServerResponse response, String linkValue) {
+        headersWritten = true;
+
+        response.setChunked(true)
+                .setStatusCode(200)
+                .putHeader(ResponseWriter.CONTENT_TYPE_KEY, ResponseWriter.CONTENT_TYPE_VALUE)
+                .putHeader(ResponseWriter.LINK_HEADER, linkValue);
+
+        // Covers the work up to the headers; the rest of the stream, if any, is still to come
+        responseWriter.putServerTimingHeader(response, requestContext);
+
+        for (Buffer heldChunk : heldChunks) {
+            response.write(heldChunk);
+        }
+        heldChunks.clear();
+
+        response.drainHandler((v) -> {
+            if (deferredRequests > 0) {
+                long requests = deferredRequests;
+                deferredRequests = 0;
+                subscription.request(requests);
+            }
+        });
+
+        CloseHandlers.add(routingContext, (v) -> {
+            closed = true;
+            subscription.cancel();
+        });
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.request;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A response only has one close handler, and setting another replaces it. Components that need to know when the
+ * client goes away add their handlers here instead, and all of them run when the connection closes.
+ */
+public class CloseHandlers {
+    private static final String CONTEXT_KEY = "wayf.closeHandlers";
+
+    private CloseHandlers() {
+    }
+
+    public static void add(RoutingContext routingContext, Handler<Void> handler) {
+        List<Handler<Void>> handlers = routingContext.get(CONTEXT_KEY);
+
+        if (handlers == null) {
+            List<Handler<Void>> installed = new CopyOnWriteArrayList<>();
+            routingContext.put(CONTEXT_KEY, installed);
+            routingContext.response().closeHandler((v) -> installed.forEach((closeHandler) -> closeHandler.handle(v)));
+
+            handlers = installed;
+        }
+
+        handlers.add(handler);
+    }
+}
@@ -18,6 +18,8 @@ package com.atypon.wayf.request;
 
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.AuthorizationToken;
+import com.atypon.wayf.data.PageCursor;
+import com.atypon.wayf.metrics.StageTimings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,11 +29,15 @@ import java.util.Map;
 public class RequestContext {
     private static final Logger LOG = LoggerFactory.getLogger(RequestContext.class);
 
+    public static final String ROUTING_CONTEXT_KEY = "wayf.requestContext";
+
     private static final Integer DEFAULT_LIMIT = 30;
     private static final Integer DEFAULT_OFFSET = 0;
 
     private Integer limit = DEFAULT_LIMIT;
     private Integer offset = DEFAULT_OFFSET;
+    private String cursor;
+    private Boolean prettyPrint = Boolean.FALSE;
 
     private AuthorizationToken authorizationToken;
     private String httpMethod;
@@ -44,7 +50,11 @@ public class RequestContext {
 
     private Authenticatable authenticated;
 
+    // Filled in by the layers the request passes through, reported in the Server-Timing header and slow request log
+    private final StageTimings stageTimings = new StageTimings();
+
     private Boolean hasAnotherDbPage = Boolean.FALSE;
+    private PageCursor nextPageCursor;
 
     public RequestContext() {
     }
@@ -121,6 +131,35 @@ public class RequestContext {
         return this;
     }
 
+    /**
+     * The opaque page token the client sent back from a previous Link header, if any
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public RequestContext setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    public Boolean getPrettyPrint() {
+        return prettyPrint;
+    }
+
+    public RequestContext setPrettyPrint(Boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+        return this;
+    }
+
+    public StageTimings getStageTimings() {
+        return stageTimings;
+    }
+
+    public PageCursor getPageCursor() {
+        return PageCursor.decode(cursor);
+    }
+
     public Boolean getHasAnotherDbPage() {
         return hasAnotherDbPage;
     }
@@ -130,6 +169,15 @@ public class RequestContext {
         return this;
     }
 
+    public PageCursor getNextPageCursor() {
+        return nextPageCursor;
+    }
+
+    public RequestContext setNextPageCursor(PageCursor nextPageCursor) {
+        this.nextPageCursor = nextPageCursor;
+        return this;
+    }
+
     public String getDeviceId() {
         return deviceId;
     }
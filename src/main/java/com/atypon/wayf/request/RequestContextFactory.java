@@ -68,6 +68,14 @@ public class RequestContextFactory {
             requestContext.setOffset(Integer.parseInt(offset));
         }
 
+        // Decoded when the query is built so that a malformed token fails the request with a 400
+        String cursor = RequestReader.getQueryValue(routingContext, RequestReader.CURSOR_QUERY_PARAM);
+        if (cursor != null && !cursor.isEmpty()) {
+            requestContext.setCursor(cursor);
+        }
+
+        requestContext.setPrettyPrint(RequestReader.isPrettyPrintRequested(routingContext));
+
         Cookie deviceIdCookie = routingContext.getCookie(RequestReader.DEVICE_ID);
         if (deviceIdCookie != null) {
             String deviceId = deviceIdCookie.getValue();
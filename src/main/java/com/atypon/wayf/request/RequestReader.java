@@ -17,6 +17,9 @@
 package com.atypon.wayf.request;
 
 import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
 import io.vertx.core.json.Json;
@@ -34,11 +37,18 @@ public class RequestReader {
 
     public static final String LIMIT_QUERY_PARAM = "limit";
     public static final String OFFSET_QUERY_PARAM = "offset";
+    public static final String CURSOR_QUERY_PARAM = "cursor";
+    public static final String PRETTY_QUERY_PARAM = "pretty";
 
     public static final String DEVICE_ID = "deviceId";
     public static final String AUTHORIZATION_HEADER = "Authorization";
     public static final String USER_AGENT_HEADER = "User-Agent";
 
+    // Set through Guice static injection, bodies are decoded on computation() without an injector
+    @Inject(optional = true)
+    @Named("cpuScheduler")
+    private static BulkheadScheduler cpuScheduler;
+
     private static <B> B _readRequestBody(RoutingContext routingContext, Class<B> bodyClass) {
         LOG.debug("Reading request body of type [{}] from request", bodyClass);
 
@@ -46,7 +56,9 @@ public class RequestReader {
     }
 
     public static <B> Single<B> readRequestBody(RoutingContext routingContext, Class<B> bodyClass) {
-        return Single.just(routingContext).observeOn(Schedulers.computation()).map((rc) -> _readRequestBody(rc, bodyClass));
+        Single<B> body = Single.fromCallable(() -> _readRequestBody(routingContext, bodyClass));
+
+        return cpuScheduler == null ? body.subscribeOn(Schedulers.computation()) : cpuScheduler.subscribeOn(body);
     }
 
     public static String readPathArgument(RoutingContext routingContext, String argumentName) {
@@ -60,6 +72,14 @@ public class RequestReader {
         return routingContext.request().getParam(queryKey);
     }
 
+    /**
+     * Whether the response should be indented. A bare {@code ?pretty} turns it on, {@code ?pretty=false} leaves it off
+     */
+    public static boolean isPrettyPrintRequested(RoutingContext routingContext) {
+        String pretty = getQueryValue(routingContext, PRETTY_QUERY_PARAM);
+        return pretty != null && !Boolean.FALSE.toString().equalsIgnoreCase(pretty);
+    }
+
     public static String getHeaderValue(RoutingContext routingContext, String headerName) {
         LOG.debug("Reading header value [{}] from request", headerName);
         return routingContext.request().getHeader(headerName);
@@ -78,7 +98,7 @@ public class RequestReader {
         String parameter = readPathArgument(routingContext, argumentName);
 
         if (parameter == null || parameter.isEmpty()) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, argDescription + " is a required URL parameter");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, argDescription + " is a required URL parameter");
         }
 
         return parameter;
@@ -17,27 +17,53 @@
 package com.atypon.wayf.request;
 
 import com.atypon.wayf.data.ErrorResponse;
+import com.atypon.wayf.data.PageCursor;
 import com.atypon.wayf.data.ServiceException;
 import com.atypon.wayf.facade.ErrorLoggerFacade;
+import com.atypon.wayf.metrics.StageTimings;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.exceptions.CompositeException;
 import io.reactivex.schedulers.Schedulers;
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.EncodeException;
 import io.vertx.core.json.Json;
 import io.vertx.ext.web.RoutingContext;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A utility class to write responses to VertX
@@ -45,60 +71,193 @@ import java.text.SimpleDateFormat;
 @Singleton
 public class ResponseWriter {
     private static final Logger LOG = LoggerFactory.getLogger(ResponseWriter.class);
+    private static final Logger SLOW_REQUEST_LOG = LoggerFactory.getLogger("wayf.slowRequests");
 
     public static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
 
-    private static final String CONTENT_TYPE_KEY = "content-type";
-    private static final String CONTENT_TYPE_VALUE = "application/json; charset=utf-8";
+    static final String CONTENT_TYPE_KEY = "content-type";
+    static final String CONTENT_TYPE_VALUE = "application/json; charset=utf-8";
+    static final String LINK_HEADER = "Link";
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private static final String SERIALIZE_STAGE = "serialize";
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int CLIENT_ERROR_BODY_CACHE_SIZE = 1024;
+
+    // Same output as DATE_FORMAT, but safe to share between the threads that encode responses
+    private static final DateTimeFormatter RESPONSE_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ssZ").withZone(ZoneId.systemDefault());
+
+    private static final ObjectMapper COMPACT_MAPPER = configureMapper(Json.mapper.copy());
+    private static final ObjectMapper PRETTY_MAPPER = configureMapper(Json.mapper.copy()).enable(SerializationFeature.INDENT_OUTPUT);
 
     @Inject
     protected ErrorLoggerFacade errorLoggerFacade;
 
+    // Responses are written on io() unless the bounded response scheduler is bound
+    @Inject(optional = true)
+    @Named("responseScheduler")
+    private BulkheadScheduler responseScheduler;
+
+    @Inject(optional = true)
+    @Named("response.streaming.window")
+    private int streamingWindow = 16;
+
+    @Inject(optional = true)
+    @Named("response.includeStacktrace")
+    private boolean includeStacktrace = true;
+
+    @Inject(optional = true)
+    @Named("timing.serverTimingHeader")
+    private boolean serverTimingEnabled = false;
+
+    @Inject(optional = true)
+    @Named("timing.slowRequestMillis")
+    private long slowRequestMillis = 1000;
+
+    @Inject(optional = true)
+    @Named("timing.slowRequestSampleRate")
+    private double slowRequestSampleRate = 1.0;
+
+    private final ConcurrentMap<String, byte[]> clientErrorBodies = new ConcurrentHashMap<>();
+
     public ResponseWriter() {
-        Json.prettyMapper.setDateFormat(DATE_FORMAT);
-        Json.prettyMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    ResponseWriter setIncludeStacktrace(boolean includeStacktrace) {
+        this.includeStacktrace = includeStacktrace;
+        return this;
+    }
+
+    private static ObjectMapper configureMapper(ObjectMapper mapper) {
+        SimpleModule dateModule = new SimpleModule();
+        dateModule.addSerializer(Date.class, new ResponseDateSerializer());
+
+        return mapper.registerModule(dateModule)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    /**
+     * Serializes the body straight into a Buffer, without building an intermediate String. The output is compact
+     * unless the client asked for pretty printing
+     */
+    protected Buffer encode(Object body, boolean prettyPrint) {
+        Buffer buffer = Buffer.buffer(INITIAL_BUFFER_SIZE);
+
+        if (body != null) {
+            try {
+                (prettyPrint ? PRETTY_MAPPER : COMPACT_MAPPER).writeValue(new BufferOutputStream(buffer), body);
+            } catch (IOException e) {
+                throw new EncodeException("Failed to encode as JSON: " + e.getMessage());
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Encodes the body for a request, counting the time against the request's serialize stage
+     */
+    Buffer encode(Object body, RequestContext requestContext) {
+        long startNanos = StageTimings.start();
+        Buffer buffer = encode(body, isPrettyPrintRequested(requestContext));
+
+        if (requestContext != null) {
+            requestContext.getStageTimings().record(SERIALIZE_STAGE, startNanos);
+        }
+
+        return buffer;
+    }
+
+    static boolean isPrettyPrintRequested(RequestContext requestContext) {
+        return requestContext != null && Boolean.TRUE.equals(requestContext.getPrettyPrint());
     }
 
     public <B> void buildSuccess(RoutingContext routingContext, B body) {
         LOG.debug("Building success message");
 
+        RequestContext requestContext = RequestContextAccessor.get();
+
         Completable.fromAction(
-                () ->
-                        routingContext.response()
-                                .setStatusCode(200)
-                                .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE)
-                                .putHeader("Link", buildLinkHeaderValue())
-                                .end(body != null ? Json.encodePrettily(body) : StringUtils.EMPTY))
-                .subscribeOn(Schedulers.io())
+                () -> {
+                    Buffer encodedBody = encode(body, requestContext);
+
+                    HttpServerResponse response = routingContext.response()
+                            .setStatusCode(200)
+                            .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE)
+                            .putHeader(LINK_HEADER, buildLinkHeaderValue(requestContext));
+
+                    putServerTimingHeader(response, requestContext);
+                    response.end(encodedBody);
+                })
+                .compose(this::onResponseScheduler)
                 .subscribe(
                         () -> {}, // Do nothing on success
                         (ex) -> routingContext.fail(ex)
                 );
     }
 
+    /**
+     * Encodes the body and Link header on the calling thread and then ends the response on the request's event loop
+     * context, so that a worker thread only hands back a finished payload
+     */
+    public <B> void writeSuccess(RoutingContext routingContext, Context context, B body) {
+        LOG.debug("Writing success message");
+
+        RequestContext requestContext = RequestContextAccessor.get();
+
+        Buffer encodedBody = encode(body, requestContext);
+        String linkHeaderValue = buildLinkHeaderValue(requestContext);
+
+        context.runOnContext((v) -> {
+            try {
+                HttpServerResponse response = routingContext.response()
+                        .setStatusCode(200)
+                        .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE)
+                        .putHeader(LINK_HEADER, linkHeaderValue);
+
+                putServerTimingHeader(response, requestContext);
+                response.end(encodedBody);
+            } catch (Exception e) {
+                routingContext.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Streams the elements as a chunked JSON array instead of collecting them first. Elements are encoded on the response
+     * scheduler and written on the request's event loop context, with the write queue holding back further elements
+     * when it fills
+     */
+    public void streamSuccess(RoutingContext routingContext, Context context, Flowable<?> elements) {
+        LOG.debug("Streaming success message");
+
+        // Elements may be emitted on threads that never saw the request, so hand its context over explicitly
+        ChunkedResponseSubscriber subscriber =
+                new ChunkedResponseSubscriber(this, routingContext, RequestContextAccessor.get(), context, streamingWindow);
+
+        Flowable<?> encodedOn = responseScheduler == null
+                ? elements.observeOn(Schedulers.io(), false, streamingWindow)
+                : responseScheduler.observeOn(elements, streamingWindow);
+
+        encodedOn.subscribe(subscriber);
+    }
+
     public void buildFailure(RoutingContext routingContext) {
         Throwable failure = routingContext.failure();
 
-        LOG.error("Error processing request", failure);
-
         // If this is a composite exception from RxJava, get the root failure
         if (CompositeException.class.isAssignableFrom(failure.getClass())) {
             failure = ((CompositeException) failure).getExceptions().get(0);
         }
 
-        // Write the stack trace to a stream
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        PrintStream printStream = new PrintStream(outputStream);
-        failure.printStackTrace(printStream);
+        boolean clientError = isStacklessClientError(failure);
 
-        // Build an error response message
-        ErrorResponse errorResponse = new ErrorResponse();
-        errorResponse.setMessage(failure.getMessage());
-
-        try {
-            errorResponse.setStacktrace(outputStream.toString("utf-8"));
-        } catch (UnsupportedEncodingException e) {
-            LOG.error("Could not build stack trace", e);
+        if (clientError) {
+            LOG.debug("Client error processing request: {}", failure.getMessage());
+        } else {
+            LOG.error("Error processing request", failure);
         }
 
         int statusCode = 500;
@@ -108,6 +267,7 @@ public class ResponseWriter {
         }
 
         final int statusCodeToUse = statusCode;
+        final Throwable failureToWrite = failure;
 
         try {
             errorLoggerFacade.buildAndLogError(statusCode, failure)
@@ -120,35 +280,145 @@ public class ResponseWriter {
         }
 
         Completable.fromAction(
-                () -> routingContext.response()
-                        .setStatusCode(statusCodeToUse)
-                        .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE)
-                        .end(Json.encodePrettily(errorResponse)))
-                .subscribeOn(Schedulers.io())
+                () -> {
+                    boolean prettyPrint = RequestReader.isPrettyPrintRequested(routingContext);
+                    Buffer encodedBody = clientError
+                            ? encodeClientError(failureToWrite.getMessage(), prettyPrint)
+                            : encode(buildErrorResponse(failureToWrite), prettyPrint);
+
+                    HttpServerResponse response = routingContext.response()
+                            .setStatusCode(statusCodeToUse)
+                            .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE);
+
+                    putServerTimingHeader(response, routingContext.get(RequestContext.ROUTING_CONTEXT_KEY));
+                    response.end(encodedBody);
+                })
+                // Error responses are never turned away, which also covers the 503 for a full response scheduler
+                .subscribeOn(responseScheduler == null ? Schedulers.io() : responseScheduler.getScheduler())
                 .subscribe(
                         () -> {},
                         (ex) -> LOG.error("Could not write response to client", ex)
                 );
     }
 
+    /**
+     * Ends the response with an error on the calling thread, usually the event loop, without logging it. For requests
+     * turned away before any work was done for them, which have to stay cheap when the server is overloaded
+     */
+    public void writeRejection(RoutingContext routingContext, int statusCode, String message) {
+        routingContext.response()
+                .setStatusCode(statusCode)
+                .putHeader(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE)
+                .end(encodeClientError(message, false));
+    }
+
+    private Completable onResponseScheduler(Completable write) {
+        return responseScheduler == null ? write.subscribeOn(Schedulers.io()) : responseScheduler.subscribeOn(write);
+    }
+
+    private static boolean isStacklessClientError(Throwable failure) {
+        return failure instanceof ServiceException && ((ServiceException) failure).isStackless();
+    }
+
+    ErrorResponse buildErrorResponse(Throwable failure) {
+        ErrorResponse errorResponse = new ErrorResponse();
+        errorResponse.setMessage(failure.getMessage());
+
+        if (includeStacktrace) {
+            // Write the stack trace to a stream
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            PrintStream printStream = new PrintStream(outputStream);
+            failure.printStackTrace(printStream);
+
+            try {
+                errorResponse.setStacktrace(outputStream.toString("utf-8"));
+            } catch (UnsupportedEncodingException e) {
+                LOG.error("Could not build stack trace", e);
+            }
+        }
+
+        return errorResponse;
+    }
+
+    /**
+     * Client errors carry nothing but their message, so their compact bodies are encoded once per message and reused
+     */
+    Buffer encodeClientError(String message, boolean prettyPrint) {
+        ErrorResponse errorResponse = new ErrorResponse();
+        errorResponse.setMessage(message);
+
+        if (prettyPrint || message == null) {
+            return encode(errorResponse, prettyPrint);
+        }
+
+        byte[] body = clientErrorBodies.get(message);
+
+        if (body == null) {
+            body = encode(errorResponse, false).getBytes();
+
+            // Messages that embed a value could grow the cache without bound, so stop adding once it is full
+            if (clientErrorBodies.size() < CLIENT_ERROR_BODY_CACHE_SIZE) {
+                clientErrorBodies.putIfAbsent(message, body);
+            }
+        }
+
+        return Buffer.buffer(body);
+    }
+
+    void putServerTimingHeader(HttpServerResponse response, RequestContext requestContext) {
+        if (serverTimingEnabled && requestContext != null) {
+            response.putHeader(SERVER_TIMING_HEADER, requestContext.getStageTimings().toServerTimingHeader());
+        }
+    }
+
+    /**
+     * Logs the stage breakdown of a finished request that took longer than timing.slowRequestMillis, for a sampled
+     * share of such requests
+     */
+    public void logIfSlow(RequestContext requestContext, int statusCode) {
+        StageTimings timings = requestContext.getStageTimings();
+
+        if (timings.getElapsedNanos() < slowRequestMillis * 1_000_000L
+                || ThreadLocalRandom.current().nextDouble() >= slowRequestSampleRate) {
+            return;
+        }
+
+        SLOW_REQUEST_LOG.warn("Slow request {} {} status={} {}",
+                requestContext.getHttpMethod(), requestContext.getRequestUri(), statusCode, timings.toLogString());
+    }
+
     protected String buildLinkHeaderValue() {
-        Boolean hasAnotherPage = RequestContextAccessor.get().getHasAnotherDbPage();
+        return buildLinkHeaderValue(RequestContextAccessor.get());
+    }
+
+    String buildLinkHeaderValue(RequestContext requestContext) {
+        Boolean hasAnotherPage = requestContext.getHasAnotherDbPage();
 
         if (hasAnotherPage) {
-            int currentLimit = RequestContextAccessor.get().getLimit();
-            int currentOffset = RequestContextAccessor.get().getOffset();
-            int newOffset = currentOffset + currentLimit;
+            int currentLimit = requestContext.getLimit();
+            PageCursor nextPageCursor = requestContext.getNextPageCursor();
 
             String urlStr = null;
 
             try {
-                URL url = new URL(RequestContextAccessor.get().getRequestUrl());
+                URL url = new URL(requestContext.getRequestUrl());
+                URIBuilder uriBuilder = new URIBuilder(url.toURI())
+                        .setParameter(RequestReader.LIMIT_QUERY_PARAM, String.valueOf(currentLimit));
+
+                if (nextPageCursor != null) {
+                    // The cursor already points past every row the client has seen, so an offset would skip rows
+                    List<NameValuePair> queryParams = uriBuilder.getQueryParams();
+                    queryParams.removeIf((param) -> RequestReader.OFFSET_QUERY_PARAM.equals(param.getName()));
 
-                urlStr = new URIBuilder(url.toURI())
-                        .setParameter(RequestReader.LIMIT_QUERY_PARAM, String.valueOf(currentLimit))
-                        .setParameter(RequestReader.OFFSET_QUERY_PARAM, String.valueOf(newOffset))
-                        .build()
-                        .toString();
+                    uriBuilder.setParameters(queryParams)
+                            .setParameter(RequestReader.CURSOR_QUERY_PARAM, nextPageCursor.encode());
+                } else {
+                    int newOffset = requestContext.getOffset() + currentLimit;
+
+                    uriBuilder.setParameter(RequestReader.OFFSET_QUERY_PARAM, String.valueOf(newOffset));
+                }
+
+                urlStr = uriBuilder.build().toString();
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -162,4 +432,38 @@ public class ResponseWriter {
 
         return StringUtils.EMPTY;
     }
+
+    private static class ResponseDateSerializer extends StdSerializer<Date> {
+        private static final long serialVersionUID = 1L;
+
+        public ResponseDateSerializer() {
+            super(Date.class);
+        }
+
+        @Override
+        public void serialize(Date value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeString(RESPONSE_DATE_FORMATTER.format(Instant.ofEpochMilli(value.getTime())));
+        }
+    }
+
+    /**
+     * Lets Jackson flush its recycled encoding buffers directly into the response Buffer
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final Buffer buffer;
+
+        public BufferOutputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.appendBytes(bytes, offset, length);
+        }
+    }
 }
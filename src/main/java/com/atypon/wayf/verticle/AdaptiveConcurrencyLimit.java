@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrency limit that adapts to how the server is coping, by additive increase and multiplicative decrease. Each
+ * request that completes within the target latency while the limit is at least half used raises the limit by one. A
+ * request that is slower than the target, or that failed because something behind it was overloaded, cuts the limit
+ * by the backoff ratio. Cuts happen at most once per target latency, so that one burst of slow requests counts as a
+ * single congestion signal rather than collapsing the limit.
+ */
+public class AdaptiveConcurrencyLimit {
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecreaseNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis, double backoffRatio) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.backoffRatio = backoffRatio;
+
+        this.limit = new AtomicInteger(Math.max(minLimit, Math.min(maxLimit, initialLimit)));
+        this.lastDecreaseNanos = new AtomicLong(System.nanoTime() - targetLatencyNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return limit.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Whether another request may start. Each admitted request has to be released exactly once
+     */
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit.get()) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases an admitted request, feeding its latency and whether it was dropped further down back into the limit
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        int inFlightBefore = inFlight.getAndDecrement();
+
+        if (dropped || latencyNanos > targetLatencyNanos) {
+            decrease();
+        } else if (inFlightBefore * 2 >= limit.get()) {
+            // Only grow a limit that is actually being used, otherwise a quiet period would leave it far too high
+            limit.updateAndGet((current) -> Math.min(maxLimit, current + 1));
+        }
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        long last = lastDecreaseNanos.get();
+
+        if (now - last >= targetLatencyNanos && lastDecreaseNanos.compareAndSet(last, now)) {
+            limit.updateAndGet((current) -> Math.max(minLimit, (int) (current * backoffRatio)));
+        }
+    }
+
+    public void registerMetrics(MetricsRegistry metricsRegistry) {
+        String prefix = "wayf_admission_" + name;
+
+        metricsRegistry.registerGauge(prefix + "_limit", "Current concurrency limit for " + name + " requests", limit::get);
+        metricsRegistry.registerGauge(prefix + "_in_flight", "Admitted " + name + " requests still running", inFlight::get);
+        metricsRegistry.registerCounter(prefix + "_rejected_total", name + " requests turned away with a 503", rejected::sum);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.metrics.RequestTimer;
+import com.atypon.wayf.request.CloseHandlers;
+import com.atypon.wayf.request.ResponseWriter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.http.HttpStatus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The first handler on the router. It keeps an adaptive concurrency limit per class of route, reads and writes, and
+ * turns requests beyond the limit away straight from the event loop with a 503 and a Retry-After header, before any
+ * work is queued for them. Requests that are let in release their slot when the response ends or the client goes
+ * away. The metrics endpoint, static files and CORS preflights are never limited.
+ */
+@Singleton
+public class AdmissionController implements Handler<RoutingContext> {
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private static final String REJECTED_MESSAGE = "Server is overloaded, please retry";
+
+    static final String READ = "read";
+    static final String WRITE = "write";
+
+    @Inject
+    private ResponseWriter responseWriter;
+
+    @Inject
+    @Named("admission.enabled")
+    private Boolean enabled;
+
+    @Inject
+    @Named("admission.initialLimit")
+    private Integer initialLimit;
+
+    @Inject
+    @Named("admission.minLimit")
+    private Integer minLimit;
+
+    @Inject
+    @Named("admission.maxLimit")
+    private Integer maxLimit;
+
+    @Inject
+    @Named("admission.read.targetLatencyMillis")
+    private Long readTargetLatencyMillis;
+
+    @Inject
+    @Named("admission.write.targetLatencyMillis")
+    private Long writeTargetLatencyMillis;
+
+    @Inject
+    @Named("admission.backoffRatio")
+    private Double backoffRatio;
+
+    @Inject
+    @Named("admission.retryAfterSeconds")
+    private Integer retryAfterSeconds;
+
+    private AdaptiveConcurrencyLimit readLimit;
+    private AdaptiveConcurrencyLimit writeLimit;
+
+    public AdmissionController() {
+    }
+
+    @Inject
+    void initialize(MetricsRegistry metricsRegistry) {
+        readLimit = new AdaptiveConcurrencyLimit(READ, initialLimit, minLimit, maxLimit, readTargetLatencyMillis, backoffRatio);
+        writeLimit = new AdaptiveConcurrencyLimit(WRITE, initialLimit, minLimit, maxLimit, writeTargetLatencyMillis, backoffRatio);
+
+        readLimit.registerMetrics(metricsRegistry);
+        writeLimit.registerMetrics(metricsRegistry);
+    }
+
+    @Override
+    public void handle(RoutingContext event) {
+        HttpServerRequest request = event.request();
+
+        if (!enabled || isExempt(request)) {
+            event.next();
+            return;
+        }
+
+        AdaptiveConcurrencyLimit limit = getLimit(request.method());
+
+        if (!limit.tryAcquire()) {
+            event.response().putHeader(RETRY_AFTER_HEADER, String.valueOf(retryAfterSeconds));
+            responseWriter.writeRejection(event, HttpStatus.SC_SERVICE_UNAVAILABLE, REJECTED_MESSAGE);
+            return;
+        }
+
+        Admission admission = new Admission(limit);
+
+        event.addBodyEndHandler((v) -> admission.release(event.response().getStatusCode()));
+        CloseHandlers.add(event, (v) -> admission.release(RequestTimer.CLIENT_CLOSED_STATUS));
+
+        event.next();
+    }
+
+    AdaptiveConcurrencyLimit getLimit(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD ? readLimit : writeLimit;
+    }
+
+    private static boolean isExempt(HttpServerRequest request) {
+        String path = request.path();
+
+        return request.method() == HttpMethod.OPTIONS
+                || path == null
+                || path.startsWith("/metrics")
+                || path.startsWith("/public/");
+    }
+
+    private static class Admission {
+        private final AdaptiveConcurrencyLimit limit;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Admission(AdaptiveConcurrencyLimit limit) {
+            this.limit = limit;
+        }
+
+        // A 503 or 504 from further down, such as a full scheduler or an open breaker, means the server is overloaded
+        private void release(int statusCode) {
+            if (released.compareAndSet(false, true)) {
+                boolean dropped = statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+                limit.release(System.nanoTime() - startNanos, dropped);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.cache.Cache;
+import com.atypon.wayf.dao.RateLimitDao;
+import com.atypon.wayf.data.Authenticatable;
+import com.atypon.wayf.data.RateLimitDecision;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.publisher.Publisher;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the request rate of each authenticated publisher. A publisher's rate and burst come from its own record, or
+ * the configured defaults when it has none, and a rate of 0 leaves it unlimited. Each publisher has its own bucket,
+ * so publishers never contend with each other. With Redis enabled the bucket is shared by every node, and the local
+ * bucket is only used while Redis cannot be reached.
+ */
+@Singleton
+public class PublisherRateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(PublisherRateLimiter.class);
+
+    public static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+
+    // Not defined by the HttpStatus in use
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final String REJECTED_MESSAGE = "Rate limit exceeded, please retry later";
+
+    @Inject
+    @Named("publisherRateLimitCache")
+    private Cache<Long, Publisher> publisherCache;
+
+    @Inject
+    private RateLimitDao rateLimitDao;
+
+    @Inject
+    @Named("rateLimit.enabled")
+    private Boolean enabled;
+
+    @Inject
+    @Named("rateLimit.redis.enabled")
+    private Boolean redisEnabled;
+
+    @Inject
+    @Named("rateLimit.default.perSecond")
+    private Integer defaultPerSecond;
+
+    @Inject
+    @Named("rateLimit.default.burst")
+    private Integer defaultBurst;
+
+    private final ConcurrentMap<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder redisFallbacks = new LongAdder();
+
+    public PublisherRateLimiter() {
+    }
+
+    @Inject
+    void registerMetrics(MetricsRegistry metricsRegistry) {
+        metricsRegistry.registerCounter("wayf_rate_limit_rejected_total", "Publisher requests turned away with a 429", rejected::sum);
+        metricsRegistry.registerCounter("wayf_rate_limit_redis_fallbacks_total", "Rate limit checks that fell back to the local bucket", redisFallbacks::sum);
+    }
+
+    /**
+     * Takes one request from the caller's limit, adding the rate limit headers to the response. Fails with a 429 and
+     * a Retry-After header once the limit is used up. Callers that are not publishers are never limited
+     */
+    public Completable acquire(Authenticatable authenticated, HttpServerResponse response) {
+        if (!enabled || authenticated == null || authenticated.getType() != Authenticatable.Type.PUBLISHER) {
+            return Completable.complete();
+        }
+
+        Long publisherId = authenticated.getId();
+
+        // Failing to look the limits up should not fail the request, so fall back to the defaults
+        return publisherCache.get(publisherId)
+                .onErrorResumeNext((Throwable e) -> {
+                    LOG.warn("Could not read the rate limits of publisher [{}], using the defaults", publisherId, e);
+                    return Maybe.empty();
+                })
+                .map((publisher) -> limitsOf(publisher))
+                .toSingle(new Limits(defaultPerSecond, Math.max(1, defaultBurst)))
+                .flatMapCompletable((limits) -> {
+                    if (limits.perSecond <= 0) {
+                        return Completable.complete();
+                    }
+
+                    return acquire(publisherId, limits)
+                            .flatMapCompletable((decision) -> apply(decision, response));
+                });
+    }
+
+    private Single<RateLimitDecision> acquire(Long publisherId, Limits limits) {
+        if (!redisEnabled) {
+            return Single.fromCallable(() -> getBucket(publisherId, limits).tryAcquire());
+        }
+
+        return rateLimitDao.acquire(String.valueOf(publisherId), limits.perSecond, limits.burst)
+                .onErrorReturn((e) -> {
+                    LOG.debug("Could not reach the shared rate limit for publisher [{}]", publisherId, e);
+                    redisFallbacks.increment();
+
+                    return getBucket(publisherId, limits).tryAcquire();
+                });
+    }
+
+    private Completable apply(RateLimitDecision decision, HttpServerResponse response) {
+        response.putHeader(LIMIT_HEADER, String.valueOf(decision.getLimit()));
+        response.putHeader(REMAINING_HEADER, String.valueOf(decision.getRemaining()));
+
+        if (decision.isAllowed()) {
+            return Completable.complete();
+        }
+
+        rejected.increment();
+
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(decision.getRetryAfterMillis() + 999));
+        response.putHeader(AdmissionController.RETRY_AFTER_HEADER, String.valueOf(retryAfterSeconds));
+
+        return Completable.error(ServiceException.clientError(TOO_MANY_REQUESTS, REJECTED_MESSAGE));
+    }
+
+    // A publisher whose limits changed gets a fresh bucket
+    private TokenBucket getBucket(Long publisherId, Limits limits) {
+        TokenBucket bucket = buckets.get(publisherId);
+
+        if (bucket != null && bucket.hasLimits(limits.perSecond, limits.burst)) {
+            return bucket;
+        }
+
+        return buckets.compute(publisherId, (id, existing) ->
+                existing != null && existing.hasLimits(limits.perSecond, limits.burst)
+                        ? existing
+                        : new TokenBucket(limits.perSecond, limits.burst));
+    }
+
+    private Limits limitsOf(Publisher publisher) {
+        int perSecond = publisher.getRateLimitPerSecond() != null ? publisher.getRateLimitPerSecond() : defaultPerSecond;
+        int burst = publisher.getRateLimitBurst() != null ? publisher.getRateLimitBurst() : defaultBurst;
+
+        return new Limits(perSecond, Math.max(1, burst));
+    }
+
+    private static class Limits {
+        private final int perSecond;
+        private final int burst;
+
+        private Limits(int perSecond, int burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.reactivex.WayfRunnable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The bounded worker pool that runs the blocking part of a request when handlers execute in single-hop mode. A request
+ * that can't be queued is turned away with a 503 instead of waiting behind the backlog.
+ *
+ * Requests wait in one queue per publisher, and a free thread always takes the request with the earliest virtual
+ * finish time (weighted fair queuing). Each request moves its publisher's finish time on by the inverse of the
+ * publisher's weight, so a burst from one publisher is interleaved with everyone else's requests instead of being
+ * served ahead of them, and a publisher with twice the weight gets twice the share of a saturated pool. Requests
+ * without an authenticated publisher share one queue.
+ */
+@Singleton
+public class RequestExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestExecutor.class);
+
+    static final String UNAUTHENTICATED = "none";
+
+    // The virtual cost of one request at weight 1. Integer tags keep equal shares exactly equal
+    private static final long REQUEST_COST = 1L << 20;
+
+    // Any heavier weight would make a request cost nothing, letting that publisher jump every queue
+    static final int MAX_WEIGHT = (int) REQUEST_COST;
+
+    @Inject
+    @Named("requestExecutor")
+    private ExecutorService executor;
+
+    @Inject
+    @Named("request.queueDepth")
+    private Integer queueDepth;
+
+    private Integer defaultWeight;
+
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    private Map<Long, Integer> weights = Collections.emptyMap();
+
+    private final Object lock = new Object();
+    private final PriorityQueue<QueuedRequest> queue = new PriorityQueue<>();
+    private final Map<String, Flow> flows = new HashMap<>();
+    private long virtualTime = 0;
+    private long sequence = 0;
+
+    public RequestExecutor() {
+    }
+
+    /**
+     * Queues the task behind the publisher's earlier requests. A null publisher uses the unauthenticated queue
+     */
+    public void execute(Long publisherId, Runnable task) {
+        QueuedRequest request = enqueue(publisherId, new WayfRunnable(task));
+
+        // The pool's own queue is at least as deep as ours, so each queued request has a pool task to run it
+        try {
+            executor.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            if (dequeue(request)) {
+                LOG.warn("Rejected request, the request executor is shut down");
+                throw buildRejectedException();
+            }
+        }
+    }
+
+    private QueuedRequest enqueue(Long publisherId, Runnable task) {
+        synchronized (lock) {
+            if (queue.size() >= queueDepth) {
+                LOG.warn("Rejected request, the request queue is full");
+                throw buildRejectedException();
+            }
+
+            Flow flow = getFlow(publisherId);
+
+            // A publisher that has been idle starts from the current virtual time rather than saving up credit
+            long startTag = Math.max(virtualTime, flow.lastFinishTag);
+            flow.lastFinishTag = startTag + flow.cost;
+            flow.depth++;
+
+            QueuedRequest request = new QueuedRequest(flow, task, startTag, flow.lastFinishTag, sequence++);
+            queue.add(request);
+
+            return request;
+        }
+    }
+
+    private boolean dequeue(QueuedRequest request) {
+        synchronized (lock) {
+            if (queue.remove(request)) {
+                request.flow.depth--;
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    private void runNext() {
+        QueuedRequest request;
+
+        synchronized (lock) {
+            request = queue.poll();
+
+            if (request == null) {
+                return;
+            }
+
+            virtualTime = Math.max(virtualTime, request.startTag);
+            request.flow.depth--;
+        }
+
+        metricsRegistry.recordRequestQueueWait(request.flow.name, System.nanoTime() - request.enqueuedNanos);
+
+        request.task.run();
+    }
+
+    private Flow getFlow(Long publisherId) {
+        String name = publisherId != null ? String.valueOf(publisherId) : UNAUTHENTICATED;
+        Flow flow = flows.get(name);
+
+        if (flow == null) {
+            int weight = publisherId != null ? weights.getOrDefault(publisherId, defaultWeight) : defaultWeight;
+
+            flow = new Flow(name, REQUEST_COST / weight);
+            flows.put(name, flow);
+
+            Flow registered = flow;
+            metricsRegistry.registerRequestQueue(name, () -> registered.depth);
+        }
+
+        return flow;
+    }
+
+    private static ServiceException buildRejectedException() {
+        return new ServiceException(HttpStatus.SC_SERVICE_UNAVAILABLE, "Server is too busy to process the request, please retry");
+    }
+
+    /**
+     * Reads weights as a comma separated list of publisherId:weight pairs, e.g. 12:4,57:2
+     */
+    static Map<Long, Integer> parseWeights(String weights) {
+        Map<Long, Integer> parsed = new HashMap<>();
+
+        if (weights == null || weights.trim().isEmpty()) {
+            return parsed;
+        }
+
+        for (String entry : weights.split(",")) {
+            String[] pair = entry.trim().split(":");
+
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid request weight [" + entry + "], expected publisherId:weight");
+            }
+
+            parsed.put(Long.parseLong(pair[0].trim()), checkWeight(Integer.parseInt(pair[1].trim())));
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Rejects weights that aren't positive and caps the rest at the heaviest weight that still gives a request a cost
+     */
+    static int checkWeight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Invalid request weight [" + weight + "], weights must be positive");
+        }
+
+        if (weight > MAX_WEIGHT) {
+            LOG.warn("Request weight [{}] is above the maximum, using [{}]", weight, MAX_WEIGHT);
+            return MAX_WEIGHT;
+        }
+
+        return weight;
+    }
+
+    @Inject
+    RequestExecutor setWeights(@Named("request.fair.weights") String weights) {
+        this.weights = parseWeights(weights);
+        return this;
+    }
+
+    RequestExecutor setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    RequestExecutor setQueueDepth(Integer queueDepth) {
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    @Inject
+    RequestExecutor setDefaultWeight(@Named("request.fair.defaultWeight") Integer defaultWeight) {
+        this.defaultWeight = checkWeight(defaultWeight);
+        return this;
+    }
+
+    RequestExecutor setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        return this;
+    }
+
+    /**
+     * One publisher's queue. Its depth is only changed while holding the lock
+     */
+    private static class Flow {
+        private final String name;
+        private final long cost;
+        private long lastFinishTag = 0;
+        private volatile int depth = 0;
+
+        private Flow(String name, long cost) {
+            this.name = name;
+            this.cost = cost;
+        }
+    }
+
+    private static class QueuedRequest implements Comparable<QueuedRequest> {
+        private final Flow flow;
+        private final Runnable task;
+        private final long startTag;
+        private final long finishTag;
+        private final long sequence;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private QueuedRequest(Flow flow, Runnable task, long startTag, long finishTag, long sequence) {
+            this.flow = flow;
+            this.task = task;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueuedRequest other) {
+            int byFinish = Long.compare(finishTag, other.finishTag);
+            return byFinish != 0 ? byFinish : Long.compare(sequence, other.sequence);
+        }
+    }
+}
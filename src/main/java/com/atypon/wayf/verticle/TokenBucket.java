@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.data.RateLimitDecision;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single theoretical arrival time (GCRA), so taking a token is one compare-and-set with no
+ * lock and no refill task. Each request pushes the arrival time one emission interval further; a request is allowed
+ * while that stays within the burst of the current time.
+ */
+public class TokenBucket {
+    private final int perSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrivalNanos = new AtomicLong(Long.MIN_VALUE);
+
+    public TokenBucket(int perSecond, int burst) {
+        if (perSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.toleranceNanos = intervalNanos * burst;
+    }
+
+    public RateLimitDecision tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    RateLimitDecision tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrivalNanos.get();
+            long newTat = Math.max(tat, nowNanos) + intervalNanos;
+            long allowAt = newTat - toleranceNanos;
+
+            if (nowNanos < allowAt) {
+                return RateLimitDecision.rejected(perSecond, TimeUnit.NANOSECONDS.toMillis(allowAt - nowNanos) + 1);
+            }
+
+            if (theoreticalArrivalNanos.compareAndSet(tat, newTat)) {
+                return RateLimitDecision.allowed(perSecond, (toleranceNanos - (newTat - nowNanos)) / intervalNanos);
+            }
+        }
+    }
+
+    public boolean hasLimits(int perSecond, int burst) {
+        return this.perSecond == perSecond && this.burst == burst;
+    }
+}
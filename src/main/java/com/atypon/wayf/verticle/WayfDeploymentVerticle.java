@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.facade.impl.DeviceAccessBatchWriter;
+import com.atypon.wayf.facade.impl.ErrorLogAggregator;
+import com.atypon.wayf.guice.WayfInjector;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The main verticle. It builds the shared injector once and then deploys the configured number of {@link WayfVerticle}
+ * instances, which all listen on the same port so that Vert.x spreads connections across their event loops. State the
+ * instances share, such as the RxJava plugins and the background writers, is set up and shut down here, once.
+ */
+public class WayfDeploymentVerticle extends AbstractVerticle {
+    private static final Logger LOG = LoggerFactory.getLogger(WayfDeploymentVerticle.class);
+
+    @Inject
+    @Named("wayf.verticle.instances")
+    private Integer configuredInstances;
+
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    @Inject
+    private DeviceAccessBatchWriter deviceAccessBatchWriter;
+
+    @Inject
+    private ErrorLogAggregator errorLogAggregator;
+
+    public WayfDeploymentVerticle() {
+    }
+
+    @Override
+    public void start(Future<Void> fut) {
+        // Creating the injector opens the data source and the Redis pool, so keep it off the event loop
+        vertx.<Integer>executeBlocking(
+                (future) -> {
+                    WayfInjector.get().injectMembers(this);
+                    WayfReactivexConfig.initializePlugins(metricsRegistry.getSchedulerMetrics());
+
+                    future.complete(configuredInstances > 0 ? configuredInstances : Runtime.getRuntime().availableProcessors());
+                },
+                (injected) -> {
+                    if (injected.failed()) {
+                        LOG.error("FAILURE: Could not initialize wayf-cloud", injected.cause());
+                        fut.fail(injected.cause());
+                        return;
+                    }
+
+                    int instances = injected.result();
+                    LOG.info("Deploying [{}] wayf-cloud verticle instances", instances);
+
+                    vertx.deployVerticle(WayfVerticle.class.getName(), new DeploymentOptions().setInstances(instances),
+                            (deployed) -> {
+                                if (deployed.succeeded()) {
+                                    fut.complete();
+                                } else {
+                                    LOG.error("FAILURE: Could not deploy wayf-cloud verticles", deployed.cause());
+                                    fut.fail(deployed.cause());
+                                }
+                            });
+                }
+        );
+    }
+
+    /**
+     * Vert.x undeploys the instances first, so nothing is still queueing writes by the time they are flushed
+     */
+    @Override
+    public void stop(Future<Void> fut) {
+        LOG.info("Stopping wayf-cloud server");
+
+        // Flush any queued device access writes and aggregated errors before the process goes away
+        vertx.executeBlocking(
+                (future) -> {
+                    if (deviceAccessBatchWriter != null) {
+                        deviceAccessBatchWriter.shutdown();
+                    }
+                    if (errorLogAggregator != null) {
+                        errorLogAggregator.shutdown();
+                    }
+                    future.complete();
+                },
+                (result) -> fut.complete()
+        );
+    }
+}
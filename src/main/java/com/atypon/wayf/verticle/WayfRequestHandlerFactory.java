@@ -19,26 +19,30 @@ package com.atypon.wayf.verticle;
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.AuthorizationToken;
 import com.atypon.wayf.facade.AuthenticationFacade;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.metrics.RequestTimer;
+import com.atypon.wayf.request.CloseHandlers;
 import com.atypon.wayf.request.RequestContext;
 import com.atypon.wayf.request.RequestContextAccessor;
 import com.atypon.wayf.request.RequestContextFactory;
 import com.atypon.wayf.request.ResponseWriter;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.functions.Function;
-import io.reactivex.schedulers.Schedulers;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
-import io.vertx.core.json.Json;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.CookieHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
-
 /**
  * An implementation of Handler that ensures all inbound requests are handled uniformly. This stores relevant
  * information about inbound requests, switches the processing to an appropriate threadpool, and guarantees consistent
@@ -48,6 +52,18 @@ import java.text.SimpleDateFormat;
 public class WayfRequestHandlerFactory {
     private static final Logger LOG = LoggerFactory.getLogger(WayfRequestHandlerFactory.class);
 
+    private static final String UNKNOWN_ROUTE = "unknown";
+
+    /**
+     * SINGLE_HOP runs the delegate and waits for its result on the request executor, then writes the response on the
+     * request's event loop context. RX only subscribes to the delegate on the request executor and writes the response
+     * from whichever bounded scheduler the result arrives on.
+     */
+    public enum ExecutionMode {
+        SINGLE_HOP,
+        RX
+    }
+
     @Inject
     private ResponseWriter responseWriter;
 
@@ -57,138 +73,244 @@ public class WayfRequestHandlerFactory {
     @Inject
     private AuthenticationFacade authenticationFacade;
 
+    @Inject
+    private PublisherRateLimiter rateLimiter;
+
+    @Inject
+    private RequestExecutor requestExecutor;
+
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    @Inject
+    @Named("request.executionMode")
+    private ExecutionMode executionMode;
+
+    @Inject
+    @Named("response.streaming.enabled")
+    private Boolean streamingEnabled;
+
     public WayfRequestHandlerFactory() {
-        Json.prettyMapper.setDateFormat(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S"));
     }
 
     public Handler<RoutingContext> observable(Function<RoutingContext, Observable<?>> delegate) {
-        return new WayfRequestHandlerObservableImpl(requestContextFactory, delegate);
+        return new WayfRequestHandlerObservableImpl(delegate);
     }
 
 
     public Handler<RoutingContext> cookieSingle(Function<RoutingContext, Single<?>> delegate) {
-        return new WayfRequestHandlerCookieSingleImpl(requestContextFactory, delegate);
+        return new WayfRequestHandlerCookieSingleImpl(delegate);
     }
 
 
     public Handler<RoutingContext> single(Function<RoutingContext, Single<?>> delegate) {
-        return new WayfRequestHandlerSingleImpl(requestContextFactory, delegate);
+        return new WayfRequestHandlerSingleImpl(delegate);
     }
 
     public Handler<RoutingContext> completable(Function<RoutingContext, Completable> delegate) {
-        return new WayfRequestHandlerCompletableImpl(requestContextFactory, delegate);
+        return new WayfRequestHandlerCompletableImpl(delegate);
     }
 
-    private class WayfRequestHandlerCookieSingleImpl<T> implements CookieHandler {
-        private Function<RoutingContext, Single<T>> singleDelegate;
-        private RequestContextFactory requestContextFactory;
+    /**
+     * The common request path. Each handler only adapts its delegate to a Maybe, which completes empty when there is
+     * no response body.
+     */
+    private abstract class WayfRequestHandler implements Handler<RoutingContext> {
 
-        public WayfRequestHandlerCookieSingleImpl(RequestContextFactory requestContextFactory, Function<RoutingContext, Single<T>> delegate) {
-            this.requestContextFactory = requestContextFactory;
-            this.singleDelegate = delegate;
+        protected abstract Maybe<?> process(RoutingContext event) throws Exception;
+
+        protected boolean isStreamed() {
+            return false;
+        }
+
+        /**
+         * Handlers that stream override this along with isStreamed. Any other handler streams its single result
+         */
+        protected Flowable<?> processStream(RoutingContext event) throws Exception {
+            return process(event).toFlowable();
         }
 
         public void handle(RoutingContext event) {
-            RequestContextAccessor.set(requestContextFactory.fromRoutingContext(event));
-            authenticate();
+            RequestContext requestContext = requestContextFactory.fromRoutingContext(event);
+            event.put(RequestContext.ROUTING_CONTEXT_KEY, requestContext);
+
+            startTimer(event, requestContext);
+
+            RequestContextAccessor.set(requestContext);
+
+            try {
+                if (isStreamed()) {
+                    handleStream(event);
+                } else if (executionMode == ExecutionMode.RX) {
+                    handleRx(event);
+                } else {
+                    handleSingleHop(event);
+                }
+            } catch (Exception e) {
+                event.fail(e);
+            } finally {
+                RequestContextAccessor.remove();
+            }
+        }
+
+        private void handleSingleHop(RoutingContext event) {
+            // Captured on the event loop so that the response is written back where the request arrived
+            Context context = event.vertx().getOrCreateContext();
+
+            executeAuthenticated(event, context, () -> {
+                try {
+                    responseWriter.writeSuccess(event, context, Maybe.defer(() -> process(event)).blockingGet());
+                } catch (Throwable e) {
+                    context.runOnContext((v) -> event.fail(e));
+                }
+            });
+        }
+
+        private void handleStream(RoutingContext event) {
+            Context context = event.vertx().getOrCreateContext();
+
+            // Subscribing never blocks, so both execution modes start the stream from the request executor
+            executeAuthenticated(event, context,
+                    () -> responseWriter.streamSuccess(event, context, Flowable.defer(() -> processStream(event))));
+        }
 
-            Single.just(event)
-                    .observeOn(Schedulers.io())
-                    .flatMap((s_event) -> singleDelegate.apply(s_event))
-                    .subscribeOn(Schedulers.io()) // Write HTTP response on IO thread
+        /**
+         * Authenticates the caller before queueing the task, so that it waits in its publisher's queue on the request
+         * executor. Authentication doesn't block, so a cache miss on the token is still never waited on from the event
+         * loop, and a caller that fails authentication or its rate limit never takes a place in the queue.
+         */
+        private void executeAuthenticated(RoutingContext event, Context context, Runnable task) {
+            RequestContext requestContext = RequestContextAccessor.get();
+
+            authenticate(event, requestContext).subscribe(
+                    () -> {
+                        // Authentication may finish on another thread, and the task takes its context from this one
+                        RequestContextAccessor.set(requestContext);
+
+                        try {
+                            requestExecutor.execute(publisherIdOf(requestContext), task);
+                        } catch (Exception e) {
+                            context.runOnContext((v) -> event.fail(e));
+                        } finally {
+                            RequestContextAccessor.remove();
+                        }
+                    },
+                    (e) -> context.runOnContext((v) -> event.fail(e))
+            );
+        }
+
+        /**
+         * Subscribes to the chain from the request executor without waiting on it, so the response is written from
+         * whichever bounded scheduler the result arrives on
+         */
+        private void handleRx(RoutingContext event) {
+            Context context = event.vertx().getOrCreateContext();
+
+            executeAuthenticated(event, context, () -> Maybe.defer(() -> process(event))
                     .subscribe(
                             (result) -> responseWriter.buildSuccess(event, result),
-                            (e) -> event.fail(e)
-                    );
-
-            RequestContextAccessor.remove();
+                            (e) -> context.runOnContext((v) -> event.fail(e)),
+                            () -> responseWriter.buildSuccess(event, null)
+                    ));
         }
     }
 
-    private class WayfRequestHandlerSingleImpl<T> implements Handler<RoutingContext> {
+    private class WayfRequestHandlerSingleImpl<T> extends WayfRequestHandler {
         private Function<RoutingContext, Single<T>> singleDelegate;
-        private RequestContextFactory requestContextFactory;
 
-        public WayfRequestHandlerSingleImpl(RequestContextFactory requestContextFactory, Function<RoutingContext, Single<T>> delegate) {
-            this.requestContextFactory = requestContextFactory;
+        public WayfRequestHandlerSingleImpl(Function<RoutingContext, Single<T>> delegate) {
             this.singleDelegate = delegate;
         }
 
-        public void handle(RoutingContext event) {
-            RequestContextAccessor.set(requestContextFactory.fromRoutingContext(event));
-            authenticate();
+        @Override
+        protected Maybe<?> process(RoutingContext event) throws Exception {
+            return singleDelegate.apply(event).toMaybe();
+        }
+    }
 
-            Single.just(event)
-                    .observeOn(Schedulers.io())
-                    .flatMap((s_event) -> singleDelegate.apply(s_event))
-                    .subscribeOn(Schedulers.io()) // Write HTTP response on IO thread
-                    .subscribe(
-                            (result) -> responseWriter.buildSuccess(event, result),
-                            (e) -> event.fail(e)
-                    );
+    private class WayfRequestHandlerCookieSingleImpl<T> extends WayfRequestHandlerSingleImpl<T> implements CookieHandler {
 
-            RequestContextAccessor.remove();
+        public WayfRequestHandlerCookieSingleImpl(Function<RoutingContext, Single<T>> delegate) {
+            super(delegate);
         }
     }
 
-    private class WayfRequestHandlerObservableImpl<T> implements Handler<RoutingContext> {
-        private RequestContextFactory requestContextFactory;
+    private class WayfRequestHandlerObservableImpl<T> extends WayfRequestHandler {
         private Function<RoutingContext, Observable<T>> observableDelegate;
 
-        public WayfRequestHandlerObservableImpl(RequestContextFactory requestContextFactory, Function<RoutingContext, Observable<T>> delegate) {
-            this.requestContextFactory = requestContextFactory;
+        public WayfRequestHandlerObservableImpl(Function<RoutingContext, Observable<T>> delegate) {
             this.observableDelegate = delegate;
         }
 
-        public void handle(RoutingContext event) {
-            RequestContextAccessor.set(requestContextFactory.fromRoutingContext(event));
-            authenticate();
-
-            Single.just(event)
-                    .observeOn(Schedulers.io())
-                    .flatMapObservable((s_event) -> observableDelegate.apply(s_event))
-                    .toList()
-                    .subscribeOn(Schedulers.io()) // Write HTTP response on IO thread
-                    .subscribe(
-                            (result) -> responseWriter.buildSuccess(event, result),
-                            (e) -> event.fail(e)
-                    );
+        @Override
+        protected Maybe<?> process(RoutingContext event) throws Exception {
+            return observableDelegate.apply(event).toList().toMaybe();
+        }
+
+        @Override
+        protected boolean isStreamed() {
+            return streamingEnabled;
+        }
 
-            RequestContextAccessor.remove();
+        @Override
+        protected Flowable<?> processStream(RoutingContext event) throws Exception {
+            // Writes are held back by the response's write queue, so buffer whatever the Observable emits meanwhile
+            return observableDelegate.apply(event).toFlowable(BackpressureStrategy.BUFFER);
         }
     }
 
-    private class WayfRequestHandlerCompletableImpl implements Handler<RoutingContext> {
-        private RequestContextFactory requestContextFactory;
+    private class WayfRequestHandlerCompletableImpl extends WayfRequestHandler {
         private Function<RoutingContext, Completable> completableDelgate;
 
-        public WayfRequestHandlerCompletableImpl(RequestContextFactory requestContextFactory, Function<RoutingContext, Completable> delegate) {
-            this.requestContextFactory = requestContextFactory;
+        public WayfRequestHandlerCompletableImpl(Function<RoutingContext, Completable> delegate) {
             this.completableDelgate = delegate;
         }
 
-        public void handle(RoutingContext event) {
-            RequestContextAccessor.set(requestContextFactory.fromRoutingContext(event));
-            authenticate();
+        @Override
+        protected Maybe<?> process(RoutingContext event) throws Exception {
+            return completableDelgate.apply(event).toMaybe();
+        }
+    }
 
-            Single.just(event)
-                    .observeOn(Schedulers.io())
-                    .flatMapCompletable((s_event) -> completableDelgate.apply(s_event))
-                    .subscribeOn(Schedulers.io()) // Write HTTP response on IO thread
-                    .subscribe(
-                            () -> responseWriter.buildSuccess(event, null),
-                            (e) -> event.fail(e)
-                    );
+    /**
+     * Times the request under its route template until the response ends, including failures written by the
+     * failure handler, or until the client closes the connection. Slow requests are also logged with their stage
+     * breakdown once the response ends
+     */
+    private void startTimer(RoutingContext event, RequestContext requestContext) {
+        RequestTimer timer = metricsRegistry.startRequest(event.request().method().name(), routeName(event));
+        event.put(RequestTimer.CONTEXT_KEY, timer);
+
+        event.addBodyEndHandler((v) -> {
+            int statusCode = event.response().getStatusCode();
+
+            timer.stop(statusCode);
+            responseWriter.logIfSlow(requestContext, statusCode);
+        });
+        CloseHandlers.add(event, (v) -> timer.stop(RequestTimer.CLIENT_CLOSED_STATUS));
+    }
 
-            RequestContextAccessor.remove();
-        }
+    private static Long publisherIdOf(RequestContext requestContext) {
+        Authenticatable authenticated = requestContext.getAuthenticated();
+        return authenticated != null && authenticated.getType() == Authenticatable.Type.PUBLISHER ? authenticated.getId() : null;
     }
 
-    private final void authenticate() {
-        AuthorizationToken token = RequestContextAccessor.get().getAuthorizationToken();
-        if (token != null) {
-            Authenticatable authenticated = authenticationFacade.authenticate(token);
-            RequestContextAccessor.get().setAuthenticated(authenticated);
+    private static String routeName(RoutingContext event) {
+        String path = event.currentRoute() != null ? event.currentRoute().getPath() : null;
+        return path != null ? path : UNKNOWN_ROUTE;
+    }
+
+    /**
+     * Authenticates the caller, if it sent a token, and then takes the request from its rate limit
+     */
+    private Completable authenticate(RoutingContext event, RequestContext requestContext) {
+        AuthorizationToken token = requestContext.getAuthorizationToken();
+        if (token == null) {
+            return Completable.complete();
         }
+
+        return authenticationFacade.authenticateAsync(token)
+                .doOnSuccess((authenticated) -> requestContext.setAuthenticated(authenticated))
+                .flatMapCompletable((authenticated) -> rateLimiter.acquire(authenticated, event.response()));
     }
 }
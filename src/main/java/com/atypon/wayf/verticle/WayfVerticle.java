@@ -17,14 +17,12 @@
 package com.atypon.wayf.verticle;
 
 import com.atypon.wayf.data.device.access.DeviceAccess;
-import com.atypon.wayf.guice.WayfGuiceModule;
-import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import com.atypon.wayf.guice.WayfInjector;
 import com.atypon.wayf.request.RequestReader;
 import com.atypon.wayf.request.ResponseWriter;
 import com.atypon.wayf.verticle.routing.*;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import io.vertx.core.AbstractVerticle;
@@ -43,6 +41,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
+/**
+ * One of the HTTP verticle instances deployed by {@link WayfDeploymentVerticle}. It only owns its routers and
+ * listeners; the state the instances share is set up and shut down by the deployment verticle.
+ */
 public class WayfVerticle extends AbstractVerticle {
     private static final Logger LOG = LoggerFactory.getLogger(WayfVerticle.class);
 
@@ -61,13 +63,27 @@ public class WayfVerticle extends AbstractVerticle {
     @Inject
     private DeviceAccessRouting deviceAccessRouting;
 
+    @Inject
+    private MetricsRouting metricsRouting;
+
     @Inject
     private ResponseWriter responseWriter;
 
+    @Inject
+    private AdmissionController admissionController;
+
     @Inject
     @Named("wayf.port")
     private Integer wayfPort;
 
+    @Inject
+    @Named("wayf.management.host")
+    private String managementHost;
+
+    @Inject
+    @Named("wayf.management.port")
+    private Integer managementPort;
+
     private List<RoutingProvider> routingProviders;
 
     public WayfVerticle() {
@@ -76,11 +92,19 @@ public class WayfVerticle extends AbstractVerticle {
     @Override
     public void start(Future<Void> fut) {
         LOG.info("Starting wayf-cloud server");
-        startWebApp((http) -> completeStartup(http, fut));
+        startWebApp((http) -> {
+            if (http.failed()) {
+                completeStartup(http, fut);
+                return;
+            }
+
+            startManagementApp((management) -> completeStartup(management, fut));
+        });
     }
     
     private void startWebApp(Handler<AsyncResult<HttpServer>> next) {
-        Guice.createInjector(new WayfGuiceModule()).injectMembers(this);
+        // All instances share one injector so that their caches, pools and executors are not duplicated
+        WayfInjector.get().injectMembers(this);
         routingProviders = Lists.newArrayList(identityProviderUsageRouting, identityProviderRouting, deviceRoutingProvider, publisherRouting, deviceAccessRouting);
         // Create a router object.
         Router router = Router.router(vertx);
@@ -106,6 +130,8 @@ public class WayfVerticle extends AbstractVerticle {
             routingContext.response().putHeader("Access-Control-Allow-Origin", requestOrigin).end();
         });*/
 
+        // Shed excess load before anything else is done for a request
+        router.route().handler(admissionController);
         router.route().handler(handler);
         router.route().handler(CookieHandler.create());
         LOG.debug("Adding routes");
@@ -129,10 +155,32 @@ public class WayfVerticle extends AbstractVerticle {
                 );
     }
 
+    /**
+     * Serves /metrics on its own listener rather than wayf.port, so that it is only reachable from wherever the
+     * management host and port are exposed to
+     */
+    private void startManagementApp(Handler<AsyncResult<HttpServer>> next) {
+        if (managementPort <= 0) {
+            LOG.info("Management server disabled, /metrics is not served");
+            next.handle(Future.succeededFuture());
+            return;
+        }
+
+        Router router = Router.router(vertx);
+        metricsRouting.addRoutings(router);
+
+        LOG.debug("Starting management HTTP server on [{}:{}]", managementHost, managementPort);
+        vertx.createHttpServer()
+                .requestHandler(router::accept)
+                .listen(
+                        managementPort,
+                        managementHost,
+                        next::handle
+                );
+    }
+
     private void completeStartup(AsyncResult<HttpServer> http, Future<Void> fut) {
         if (http.succeeded()) {
-            initConfigs();
-
             LOG.info("SUCCESS: wayf-cloud successfully initialized");
             fut.complete();
         } else {
@@ -140,10 +188,4 @@ public class WayfVerticle extends AbstractVerticle {
             fut.fail(http.cause());
         }
     }
-
-    private void initConfigs() {
-        LOG.info("Initializing server configs");
-
-        WayfReactivexConfig.initializePlugins();
-    }
 }
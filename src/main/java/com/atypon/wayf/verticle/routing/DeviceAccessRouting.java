@@ -23,6 +23,7 @@ import com.atypon.wayf.data.device.access.DeviceAccessQuery;
 import com.atypon.wayf.data.device.access.DeviceAccessType;
 import com.atypon.wayf.facade.DeviceAccessFacade;
 import com.atypon.wayf.facade.DeviceFacade;
+import com.atypon.wayf.request.RequestContextAccessor;
 import com.atypon.wayf.request.RequestReader;
 import com.atypon.wayf.verticle.WayfRequestHandlerFactory;
 import com.google.common.collect.Lists;
@@ -69,7 +70,9 @@ public class DeviceAccessRouting implements RoutingProvider {
 
         Device device = deviceFacade.read(new DeviceQuery().setGlobalId(globalId)).blockingGet();
 
-        DeviceAccessQuery deviceAccessQuery = new DeviceAccessQuery().setDeviceIds(Lists.newArrayList(device.getId()));
+        DeviceAccessQuery deviceAccessQuery = new DeviceAccessQuery()
+                .setDeviceIds(Lists.newArrayList(device.getId()))
+                .setCursor(RequestContextAccessor.get().getPageCursor());
 
         String type = RequestReader.getQueryValue(routingContext, "type");
 
@@ -26,12 +26,14 @@ import com.atypon.wayf.data.publisher.Publisher;
 import com.atypon.wayf.facade.ClientJsFacade;
 import com.atypon.wayf.facade.DeviceFacade;
 import com.atypon.wayf.facade.PublisherFacade;
+import com.atypon.wayf.reactivex.DaoPolicies;
 import com.atypon.wayf.request.RequestContextAccessor;
 import com.atypon.wayf.request.RequestReader;
 import com.atypon.wayf.request.ResponseWriter;
 import com.atypon.wayf.verticle.WayfRequestHandlerFactory;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
@@ -124,7 +126,8 @@ public class DeviceRoutingProvider implements RoutingProvider {
     public Observable<Device> filterDevice(RoutingContext routingContext) {
         LOG.debug("Received read Device request");
 
-        DeviceQuery query = buildQuery(routingContext);
+        DeviceQuery query = buildQuery(routingContext)
+                .setCursor(RequestContextAccessor.get().getPageCursor());
 
         return deviceFacade.filter(query);
     }
@@ -133,9 +136,9 @@ public class DeviceRoutingProvider implements RoutingProvider {
         String localId = RequestReader.readPathArgument(routingContext, LOCAL_ID_PARAM);
 
         Publisher publisher = Authenticatable.asPublisher(RequestContextAccessor.get().getAuthenticated());
-        String hashedLocalId = deviceFacade.encryptLocalId(publisher.getId(), localId);
 
-        return deviceFacade.registerLocalId(hashedLocalId);
+        return deviceFacade.encryptLocalIdAsync(publisher.getId(), localId)
+                .flatMapCompletable((hashedLocalId) -> deviceFacade.registerLocalId(hashedLocalId));
     }
 
     public Single<Device> createPublisherDeviceRelationship(RoutingContext routingContext) {
@@ -145,7 +148,7 @@ public class DeviceRoutingProvider implements RoutingProvider {
 
         AuthorizationToken token = RequestContextAccessor.get().getAuthorizationToken();
         if (token == null) {
-            throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "An Authorization token is required");
+            throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "An Authorization token is required");
         }
 
         LOG.debug("Token value [{}]", token.getValue());
@@ -157,18 +160,18 @@ public class DeviceRoutingProvider implements RoutingProvider {
             DecodedJWT jwt = JWT.decode(token.getValue());
 
             publisherCode = jwt.getClaim(ClientJsFacade.PUBLISHER_CODE_KEY).asString();
+        } catch (JWTDecodeException e) {
+            LOG.debug("Could not decode token", e);
+            throw ServiceException.clientError(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token");
         } catch (Exception e) {
-            throw new ServiceException(HttpStatus.SC_UNAUTHORIZED, "Could not authenticate token", e);
+            throw DaoPolicies.mapError(e);
         }
 
         LOG.debug("Publisher code {}", publisherCode);
 
         return publisherFacade.lookupCode(publisherCode)
-                .flatMap((publisher) -> {
-
-                    String hashedLocalId = deviceFacade.encryptLocalId(publisher.getId(), localId);
-
-                    return deviceFacade.relateLocalIdToDevice(publisher, hashedLocalId)
+                .flatMap((publisher) -> deviceFacade.encryptLocalIdAsync(publisher.getId(), localId)
+                        .flatMap((hashedLocalId) -> deviceFacade.relateLocalIdToDevice(publisher, hashedLocalId)
                             .map((device) -> {
                                 String globalId = device.getGlobalId();
 
@@ -182,7 +185,7 @@ public class DeviceRoutingProvider implements RoutingProvider {
                                 LOG.debug("Request origin [{}]", requestOrigin);
 
                                 if (requestOrigin == null || requestOrigin.isEmpty()) {
-                                    throw new ServiceException(HttpStatus.SC_BAD_REQUEST, "Origin header is required");
+                                    throw ServiceException.clientError(HttpStatus.SC_BAD_REQUEST, "Origin header is required");
                                 }
 
                                 routingContext.response().putHeader("Access-Control-Allow-Origin", requestOrigin);
@@ -191,9 +194,7 @@ public class DeviceRoutingProvider implements RoutingProvider {
                                 device.setGlobalId(null);
 
                                 return device;
-                            });
-
-                });
+                            })));
     }
 
     private DeviceQuery buildQuery(RoutingContext routingContext) {
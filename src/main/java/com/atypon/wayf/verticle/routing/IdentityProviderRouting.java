@@ -107,6 +107,9 @@ public class IdentityProviderRouting implements RoutingProvider {
             }
             query.setIds(ids);
         }
+
+        query.setCursor(RequestContextAccessor.get().getPageCursor());
+
         return identityProviderFacade.filter(query);
     }
 
@@ -117,9 +120,9 @@ public class IdentityProviderRouting implements RoutingProvider {
         IdentityProvider body = RequestReader.readRequestBody(routingContext, IdentityProvider.class).blockingGet();
 
         Publisher publisher = Authenticatable.asPublisher(RequestContextAccessor.get().getAuthenticated());
-        String hashedLocalId = deviceFacade.encryptLocalId(publisher.getId(), localId);
 
-        return identityProviderFacade.recordIdentityProviderUse(hashedLocalId, body);
+        return deviceFacade.encryptLocalIdAsync(publisher.getId(), localId)
+                .flatMap((hashedLocalId) -> identityProviderFacade.recordIdentityProviderUse(hashedLocalId, body));
     }
 
     public Completable removeIdentityProviderFromDevice(RoutingContext routingContext) {
@@ -128,11 +131,11 @@ public class IdentityProviderRouting implements RoutingProvider {
         String localId = RequestReader.readRequiredPathParameter(routingContext, LOCAL_ID_PARAM_NAME, LOCAL_ID_ARG_DESCRIPTION);
 
         Publisher publisher = Authenticatable.asPublisher(RequestContextAccessor.get().getAuthenticated());
-        String hashedLocalId = deviceFacade.encryptLocalId(publisher.getId(), localId);
 
         Long idpId = Long.valueOf(RequestReader.readRequiredPathParameter(routingContext, IDP_ID_PARAM_NAME, IDP_ID_ARG_DESCRIPTION));
 
-        return identityProviderFacade.blockIdentityProviderForLocalId(hashedLocalId, idpId);
+        return deviceFacade.encryptLocalIdAsync(publisher.getId(), localId)
+                .flatMapCompletable((hashedLocalId) -> identityProviderFacade.blockIdentityProviderForLocalId(hashedLocalId, idpId));
     }
 
     public Completable removeIdentityProviderFromMyDevice(RoutingContext routingContext) {
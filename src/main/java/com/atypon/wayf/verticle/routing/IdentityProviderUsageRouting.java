@@ -68,9 +68,9 @@ public class IdentityProviderUsageRouting implements RoutingProvider {
         String localId = RequestReader.readRequiredPathParameter(routingContext, LOCAL_ID_PARAM_NAME, LOCAL_ID_ARG_DESCRIPTION);
 
         Publisher publisher = Authenticatable.asPublisher(RequestContextAccessor.get().getAuthenticated());
-        String hashedLocalId = deviceFacade.encryptLocalId(publisher.getId(), localId);
 
-        return identityProviderUsageFacade.buildRecentHistory(hashedLocalId);
+        return deviceFacade.encryptLocalIdAsync(publisher.getId(), localId)
+                .flatMapObservable((hashedLocalId) -> identityProviderUsageFacade.buildRecentHistory(hashedLocalId));
     }
 
     public Observable<IdentityProviderUsage> readMyDeviceLocalHistory(RoutingContext routingContext) {
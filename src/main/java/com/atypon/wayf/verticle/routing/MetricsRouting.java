@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle.routing;
+
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class MetricsRouting implements RoutingProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRouting.class);
+
+    private static final String METRICS = "/metrics";
+
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    public MetricsRouting() {
+    }
+
+    public void addRoutings(Router router) {
+        // Served straight from the event loop: rendering only reads in-memory counters
+        router.get(METRICS).handler((rc) -> readMetrics(rc));
+    }
+
+    public void readMetrics(RoutingContext routingContext) {
+        LOG.debug("Received read metrics request");
+
+        routingContext.response()
+                .putHeader("content-type", MetricsRegistry.CONTENT_TYPE)
+                .end(metricsRegistry.scrape());
+    }
+}
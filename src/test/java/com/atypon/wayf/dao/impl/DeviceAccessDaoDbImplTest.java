@@ -34,6 +34,7 @@ import com.google.inject.Inject;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Random;
 
@@ -185,4 +186,24 @@ public class DeviceAccessDaoDbImplTest {
         assertEquals(createdDeviceAccess.getPublisher().getId(), filteredDeviceAccess.getPublisher().getId());
         assertEquals(createdDeviceAccess.getType(), filteredDeviceAccess.getType());
     }
+
+    @Test
+    public void testCreateAll() {
+        Device device = new Device();
+        device.setId(Long.valueOf(new Random().nextInt(32000)));
+
+        List<DeviceAccess> deviceAccesses = Lists.newArrayList(
+                new DeviceAccess.Builder().device(device).type(DeviceAccessType.READ_IDP_HISTORY).build(),
+                new DeviceAccess.Builder().device(device).type(DeviceAccessType.ADD_IDP).build());
+
+        for (DeviceAccess deviceAccess : deviceAccesses) {
+            deviceAccess.setCreatedDate(new Date());
+        }
+
+        deviceAccessDao.createAll(deviceAccesses).blockingAwait();
+
+        List<DeviceAccess> filterDeviceAccess = deviceAccessDao.filter(new DeviceAccessQuery().setDeviceIds(Lists.newArrayList(device.getId()))).toList().blockingGet();
+
+        assertEquals(2, filterDeviceAccess.size());
+    }
 }
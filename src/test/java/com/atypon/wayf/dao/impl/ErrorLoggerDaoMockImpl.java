@@ -20,6 +20,8 @@ import com.atypon.wayf.dao.ErrorLoggerDao;
 import com.atypon.wayf.data.ErrorLogEntry;
 import io.reactivex.Completable;
 
+import java.util.List;
+
 public class ErrorLoggerDaoMockImpl implements ErrorLoggerDao {
 
     private ErrorLogEntry lastLoggedError;
@@ -33,4 +35,12 @@ public class ErrorLoggerDaoMockImpl implements ErrorLoggerDao {
         this.lastLoggedError = logEntry;
         return Completable.complete();
     }
+
+    @Override
+    public Completable logErrors(List<ErrorLogEntry> logEntries) {
+        if (!logEntries.isEmpty()) {
+            this.lastLoggedError = logEntries.get(logEntries.size() - 1);
+        }
+        return Completable.complete();
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.dao.impl;
+
+import com.atypon.wayf.dao.IdentityProviderUsageDao;
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class IdentityProviderUsageDaoMockImpl implements IdentityProviderUsageDao {
+
+    private final Map<Long, List<DeviceAccess>> windowsByDeviceId = new HashMap<>();
+
+    public List<DeviceAccess> getWindow(Long deviceId) {
+        return windowsByDeviceId.get(deviceId);
+    }
+
+    @Override
+    public Maybe<List<DeviceAccess>> readRecentUses(Long deviceId) {
+        List<DeviceAccess> window = windowsByDeviceId.get(deviceId);
+        return window == null ? Maybe.empty() : Maybe.just(new LinkedList<>(window));
+    }
+
+    @Override
+    public Completable replaceRecentUses(Long deviceId, List<DeviceAccess> deviceAccesses) {
+        return Completable.fromAction(() -> windowsByDeviceId.put(deviceId, new LinkedList<>(deviceAccesses)));
+    }
+
+    @Override
+    public Completable recordUse(DeviceAccess deviceAccess) {
+        return Completable.fromAction(() -> {
+            List<DeviceAccess> window = windowsByDeviceId.get(deviceAccess.getDevice().getId());
+
+            if (window != null) {
+                window.add(0, deviceAccess);
+            }
+        });
+    }
+
+    @Override
+    public Completable reset(Long deviceId) {
+        return Completable.fromAction(() -> windowsByDeviceId.remove(deviceId));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.dao.impl;
+
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
+import com.atypon.wayf.data.identity.IdentityProvider;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdentityProviderUsageDaoRedisImplTest {
+
+    @Test
+    public void testMergeKeepsUsesNewerThanTheDatabase() {
+        List<DeviceAccess> fromDb = Arrays.asList(buildDeviceAccess(1L, 2000L), buildDeviceAccess(2L, 1000L));
+
+        // 3:3000 was recorded after the database was read, 1:2000 and 2:1000 are already in it
+        List<String> merged = IdentityProviderUsageDaoRedisImpl.mergeRecentUses(Arrays.asList("3:3000", "1:2000", "2:1000"), fromDb, 10);
+
+        assertEquals(Arrays.asList("3:3000", "1:2000", "2:1000"), merged);
+    }
+
+    @Test
+    public void testMergeWithoutDatabaseUses() {
+        List<String> merged = IdentityProviderUsageDaoRedisImpl.mergeRecentUses(Arrays.asList("3:3000", "1:2000"), Collections.emptyList(), 10);
+
+        assertEquals(Arrays.asList("3:3000", "1:2000"), merged);
+    }
+
+    @Test
+    public void testMergeIsCappedAtWindowSize() {
+        List<DeviceAccess> fromDb = Arrays.asList(buildDeviceAccess(1L, 2000L), buildDeviceAccess(2L, 1000L));
+
+        List<String> merged = IdentityProviderUsageDaoRedisImpl.mergeRecentUses(Arrays.asList("4:4000", "3:3000"), fromDb, 3);
+
+        assertEquals(Arrays.asList("4:4000", "3:3000", "1:2000"), merged);
+    }
+
+    private DeviceAccess buildDeviceAccess(Long idpId, long createdMillis) {
+        IdentityProvider identityProvider = new IdentityProvider();
+        identityProvider.setId(idpId);
+
+        DeviceAccess deviceAccess = new DeviceAccess.Builder().type(DeviceAccessType.ADD_IDP).identityProvider(identityProvider).build();
+        deviceAccess.setCreatedDate(new Date(createdMillis));
+
+        return deviceAccess;
+    }
+}
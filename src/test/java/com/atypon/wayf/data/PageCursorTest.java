@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.data;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class PageCursorTest {
+
+    @Test
+    public void testRoundTripKeepsFractionalSeconds() {
+        Timestamp createdDate = new Timestamp(1500000000000L);
+        createdDate.setNanos(123400000);
+
+        String token = new PageCursor(createdDate, 42L).encode();
+        PageCursor decoded = PageCursor.decode(token);
+
+        assertEquals(createdDate, decoded.getCreatedDate());
+        assertEquals(Long.valueOf(42L), decoded.getId());
+    }
+
+    @Test
+    public void testTokenIsUrlSafe() {
+        String token = new PageCursor(new Date(1500000000123L), Long.MAX_VALUE).encode();
+
+        assertFalse(token.contains("="));
+        assertFalse(token.contains("+"));
+        assertFalse(token.contains("/"));
+    }
+
+    @Test
+    public void testEmptyTokenHasNoCursor() {
+        assertNull(PageCursor.decode(null));
+        assertNull(PageCursor.decode(""));
+    }
+
+    @Test
+    public void testInvalidToken() {
+        try {
+            PageCursor.decode("not-a-cursor");
+            fail("Expected an invalid cursor to be rejected");
+        } catch (ServiceException e) {
+            assertEquals(HttpStatus.SC_BAD_REQUEST, e.getStatusCode());
+        }
+    }
+}
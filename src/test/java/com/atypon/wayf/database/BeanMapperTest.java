@@ -20,6 +20,7 @@ package com.atypon.wayf.database;
 import com.atypon.wayf.dao.impl.AuthenticationDaoDbImpl;
 import com.atypon.wayf.data.Authenticatable;
 import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
 import com.atypon.wayf.data.publisher.Publisher;
 import com.atypon.wayf.guice.WayfGuiceModule;
 import com.google.inject.Guice;
@@ -27,6 +28,7 @@ import com.google.inject.Inject;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -53,6 +55,26 @@ public class BeanMapperTest {
         assertEquals("testDeviceId", deviceAccess.getDevice().getGlobalId());
     }
 
+    @Test
+    public void testMapConvertsColumnTypes() throws Exception {
+        Timestamp createdDate = new Timestamp(System.currentTimeMillis());
+
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 456);
+        row.put("type", DeviceAccessType.ADD_IDP.toString());
+        row.put("device.id", 123);
+        row.put("identityProvider.id", 789);
+        row.put("createdDate", createdDate);
+
+        DeviceAccess deviceAccess = beanMapper.map(row, DeviceAccess.class);
+
+        assertEquals(new Long(456L), deviceAccess.getId());
+        assertEquals(DeviceAccessType.ADD_IDP, deviceAccess.getType());
+        assertEquals(new Long(123L), deviceAccess.getDevice().getId());
+        assertEquals(new Long(789L), deviceAccess.getIdentityProvider().getId());
+        assertEquals(createdDate, deviceAccess.getCreatedDate());
+    }
+
     @Test
     public void testBeanFactory() {
         Map<String, Object> row = new HashMap<>();
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.database;
+
+import com.atypon.wayf.data.device.Device;
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
+import com.atypon.wayf.data.identity.SamlEntity;
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.ConvertUtilsBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares row mapping through the generated accessors in {@link NestedFieldBeanMapper} with the BeanUtils based
+ * mapping it replaced. Run the main method from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedFieldBeanMapperBenchmark {
+
+    private NestedFieldBeanMapper beanMapper;
+    private BeanUtilsMapper beanUtilsMapper;
+
+    private Map<String, Object> deviceAccessRow;
+    private Map<String, Object> deviceRow;
+    private Map<String, Object> identityProviderRow;
+
+    @Setup
+    public void setUp() {
+        beanMapper = new NestedFieldBeanMapper().setBeanFactoryMap(new HashMap<>());
+        beanUtilsMapper = new BeanUtilsMapper();
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        deviceAccessRow = new HashMap<>();
+        deviceAccessRow.put("id", 1234);
+        deviceAccessRow.put("type", DeviceAccessType.ADD_IDP.toString());
+        deviceAccessRow.put("device.id", 5678);
+        deviceAccessRow.put("publisher.id", 12);
+        deviceAccessRow.put("identityProvider.id", 34);
+        deviceAccessRow.put("createdDate", now);
+        deviceAccessRow.put("modifiedDate", now);
+
+        deviceRow = new HashMap<>();
+        deviceRow.put("id", 5678);
+        deviceRow.put("globalId", "0e4b2e4c-7c0b-4c2b-9a4e-5a7b4c1d2e3f");
+        deviceRow.put("status", "ACTIVE");
+        deviceRow.put("info.userAgent", "Mozilla/5.0 (X11; Linux x86_64)");
+        deviceRow.put("createdDate", now);
+        deviceRow.put("modifiedDate", now);
+
+        identityProviderRow = new HashMap<>();
+        identityProviderRow.put("id", 34);
+        identityProviderRow.put("entityId", "https://idp.example.org/idp/shibboleth");
+        identityProviderRow.put("federationId", "ukfederation");
+        identityProviderRow.put("createdDate", now);
+        identityProviderRow.put("modifiedDate", now);
+    }
+
+    @Benchmark
+    public DeviceAccess mapDeviceAccess() {
+        return beanMapper.map(deviceAccessRow, DeviceAccess.class);
+    }
+
+    @Benchmark
+    public DeviceAccess mapDeviceAccessBeanUtils() throws Exception {
+        return beanUtilsMapper.map(deviceAccessRow, DeviceAccess.class);
+    }
+
+    @Benchmark
+    public Device mapDevice() {
+        return beanMapper.map(deviceRow, Device.class);
+    }
+
+    @Benchmark
+    public Device mapDeviceBeanUtils() throws Exception {
+        return beanUtilsMapper.map(deviceRow, Device.class);
+    }
+
+    @Benchmark
+    public SamlEntity mapIdentityProvider() {
+        return beanMapper.map(identityProviderRow, SamlEntity.class);
+    }
+
+    @Benchmark
+    public SamlEntity mapIdentityProviderBeanUtils() throws Exception {
+        return beanUtilsMapper.map(identityProviderRow, SamlEntity.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(NestedFieldBeanMapperBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * The reflective mapper that NestedFieldBeanMapper used before the accessor cache, kept as the baseline
+     */
+    private static class BeanUtilsMapper {
+        private static final String DELIMITER = ".";
+        private static final String REGEX_DELIMITER = "\\.";
+
+        private BeanUtilsBean enumConverterUtilsBean = new BeanUtilsBean(new ConvertUtilsBean() {
+            @Override
+            public Object convert(String value, Class clazz) {
+                if (clazz.isEnum()){
+                    return Enum.valueOf(clazz, value);
+                } else {
+                    return super.convert(value, clazz);
+                }
+            }
+        });
+
+        public <T> T map(Map<String, Object> row, Class<T> type) throws Exception {
+            T bean = type.newInstance();
+
+            for (String key : row.keySet()) {
+                Object value = row.get(key);
+
+                if (value == null) {
+                    continue;
+                }
+
+                if (key.contains(DELIMITER)) {
+                    handleNestedValue(bean, key.split(REGEX_DELIMITER), 0, value);
+                } else {
+                    enumConverterUtilsBean.setProperty(bean, key, value);
+                }
+            }
+
+            return bean;
+        }
+
+        private Object handleNestedValue(Object bean, String[] path, int index, Object value) throws Exception {
+            String fieldName = path[index];
+
+            if (index == path.length - 1) {
+                enumConverterUtilsBean.setProperty(bean, fieldName, value);
+            } else {
+                Object childBean = enumConverterUtilsBean.getPropertyUtils().getProperty(bean, fieldName);
+
+                if (childBean == null) {
+                    childBean = enumConverterUtilsBean.getPropertyUtils().getPropertyType(bean, fieldName).newInstance();
+                }
+
+                enumConverterUtilsBean.setProperty(bean, fieldName, handleNestedValue(childBean, path, ++index, value));
+            }
+
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.database;
+
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NestedFieldRowMapperTest {
+
+    private static final String[] LABELS = {"id", "type", "identityProvider.id", "publisher.id", "createdDate"};
+    private static final int[] TYPES = {Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.INTEGER, Types.TIMESTAMP};
+
+    private NestedFieldBeanMapper beanMapper;
+
+    private AtomicInteger metadataReads;
+    private Object[] currentRow;
+    private boolean lastWasNull;
+
+    @Before
+    public void setUp() {
+        beanMapper = new NestedFieldBeanMapper().setBeanFactoryMap(new HashMap<>());
+        metadataReads = new AtomicInteger();
+    }
+
+    @Test
+    public void testColumnPlan() throws Exception {
+        ResultSet resultSet = mockResultSet();
+        NestedFieldRowMapper rowMapper = new NestedFieldRowMapper(DeviceAccess.class, beanMapper, true);
+
+        Timestamp createdDate = new Timestamp(System.currentTimeMillis());
+
+        currentRow = new Object[] {1L, DeviceAccessType.ADD_IDP.toString(), 10, 20, createdDate};
+        DeviceAccess first = (DeviceAccess) rowMapper.mapRow(resultSet, 0);
+
+        currentRow = new Object[] {2L, DeviceAccessType.REMOVE_IDP.toString(), 11, null, createdDate};
+        DeviceAccess second = (DeviceAccess) rowMapper.mapRow(resultSet, 1);
+
+        // The metadata is only read for the first row of the result set
+        assertEquals(1, metadataReads.get());
+
+        assertEquals(new Long(1L), first.getId());
+        assertEquals(DeviceAccessType.ADD_IDP, first.getType());
+        assertEquals(new Long(10L), first.getIdentityProvider().getId());
+        assertEquals(new Long(20L), first.getPublisher().getId());
+        assertEquals(createdDate, first.getCreatedDate());
+
+        assertEquals(new Long(2L), second.getId());
+        assertEquals(DeviceAccessType.REMOVE_IDP, second.getType());
+        assertEquals(new Long(11L), second.getIdentityProvider().getId());
+        assertNull(second.getPublisher());
+    }
+
+    @Test
+    public void testColumnPlanMatchesRowMap() throws Exception {
+        ResultSet resultSet = mockResultSet();
+
+        currentRow = new Object[] {3L, DeviceAccessType.ADD_IDP.toString(), 12, 22, new Timestamp(System.currentTimeMillis())};
+
+        DeviceAccess fromPlan = (DeviceAccess) new NestedFieldRowMapper(DeviceAccess.class, beanMapper, true).mapRow(resultSet, 0);
+        DeviceAccess fromMap = (DeviceAccess) new NestedFieldRowMapper(DeviceAccess.class, beanMapper, false).mapRow(resultSet, 0);
+
+        assertEquals(fromMap.getId(), fromPlan.getId());
+        assertEquals(fromMap.getType(), fromPlan.getType());
+        assertEquals(fromMap.getIdentityProvider().getId(), fromPlan.getIdentityProvider().getId());
+        assertEquals(fromMap.getPublisher().getId(), fromPlan.getPublisher().getId());
+        assertEquals(fromMap.getCreatedDate(), fromPlan.getCreatedDate());
+    }
+
+    private ResultSet mockResultSet() {
+        ResultSetMetaData metadata = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return LABELS.length;
+                        case "getColumnType":
+                            return TYPES[(Integer) args[0] - 1];
+                        case "getColumnLabel":
+                            return LABELS[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getMetaData")) {
+                        metadataReads.incrementAndGet();
+                        return metadata;
+                    }
+
+                    if (method.getName().equals("wasNull")) {
+                        return lastWasNull;
+                    }
+
+                    Object value = currentRow[columnIndex(args[0])];
+                    lastWasNull = value == null;
+
+                    switch (method.getName()) {
+                        case "getLong":
+                            return value == null ? 0L : ((Number) value).longValue();
+                        case "getInt":
+                            return value == null ? 0 : ((Number) value).intValue();
+                        case "getDouble":
+                            return value == null ? 0.0 : ((Number) value).doubleValue();
+                        case "getString":
+                        case "getTimestamp":
+                            return value;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private int columnIndex(Object column) {
+        if (column instanceof Integer) {
+            return (Integer) column - 1;
+        }
+
+        for (int i = 0; i < LABELS.length; i++) {
+            if (LABELS[i].equals(column)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+}
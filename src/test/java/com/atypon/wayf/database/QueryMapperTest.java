@@ -17,6 +17,7 @@
 package com.atypon.wayf.database;
 
 import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
 import com.atypon.wayf.database.QueryMapper;
 import com.atypon.wayf.data.device.Device;
 import com.atypon.wayf.data.publisher.Publisher;
@@ -59,4 +60,37 @@ public class QueryMapperTest {
 
 
     }
+
+    @Test
+    public void testQueryPlan() throws Exception {
+        String query = "SELECT id FROM wayf.device_access " +
+                "    WHERE (:type IS NULL OR type = :type) AND publisher_id = :publisher.id " +
+                "    LIMIT :limit OFFSET :offset;";
+
+        QueryPlan queryPlan = QueryMapper.getQueryPlan(query);
+
+        // The plan is compiled once per query
+        Assert.assertSame(queryPlan, QueryMapper.getQueryPlan(query));
+
+        // Repeated parameters are only read once and limit/offset are left to the executor
+        Assert.assertEquals(2, queryPlan.getParameters().size());
+        Assert.assertEquals("type", queryPlan.getParameters().get(0).getName());
+        Assert.assertEquals("publisher.id", queryPlan.getParameters().get(1).getName());
+        Assert.assertEquals(2, queryPlan.getParameters().get(1).getPath().length);
+
+        DeviceAccess deviceAccess = new DeviceAccess();
+        deviceAccess.setType(DeviceAccessType.ADD_IDP);
+
+        Map<String, Object> arguments = QueryMapper.buildQueryArguments(query, deviceAccess);
+        Assert.assertEquals(DeviceAccessType.ADD_IDP.toString(), arguments.get("type"));
+        Assert.assertNull(arguments.get("publisher.id"));
+        Assert.assertTrue(arguments.containsKey("publisher.id"));
+
+        Publisher publisher = new Publisher();
+        publisher.setId(123L);
+        deviceAccess.setPublisher(publisher);
+
+        arguments = QueryMapper.buildQueryArguments(query, deviceAccess);
+        Assert.assertEquals(123L, arguments.get("publisher.id"));
+    }
 }
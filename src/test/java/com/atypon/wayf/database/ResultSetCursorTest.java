@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.database;
+
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.request.RequestContext;
+import io.reactivex.Flowable;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultSetCursorTest {
+    private NestedFieldRowMapper rowMapper;
+    private RequestContext requestContext;
+
+    private List<Long> rows;
+    private int rowIndex;
+    private boolean closed;
+
+    @Before
+    public void setUp() {
+        rowMapper = new NestedFieldRowMapper(DeviceAccess.class, new NestedFieldBeanMapper().setBeanFactoryMap(new HashMap<>()), true);
+        requestContext = new RequestContext();
+
+        rowIndex = -1;
+        closed = false;
+    }
+
+    private List<Long> read(int pageLimit) {
+        ResultSetCursor<DeviceAccess> cursor = new ResultSetCursor<>("SELECT id FROM device_access", mockDataSource(),
+                new SQLStateSQLExceptionTranslator(), rowMapper, requestContext, pageLimit);
+
+        return Flowable.generate(() -> cursor.open(new HashMap<>(), 10), ResultSetCursor<DeviceAccess>::next, ResultSetCursor::close)
+                .map(DeviceAccess::getId)
+                .toList()
+                .blockingGet();
+    }
+
+    @Test
+    public void testExplicitLimitReadsEveryRow() {
+        rows = Arrays.asList(1L, 2L, 3L);
+
+        assertEquals(rows, read(-1));
+        assertFalse(requestContext.getHasAnotherDbPage());
+        assertNull(requestContext.getNextPageCursor());
+        assertTrue(closed);
+    }
+
+    @Test
+    public void testLimitPlusOneHasAnotherPage() {
+        rows = Arrays.asList(1L, 2L, 3L);
+
+        assertEquals(Arrays.asList(1L, 2L), read(2));
+        assertEquals(Boolean.TRUE, requestContext.getHasAnotherDbPage());
+        assertTrue(closed);
+    }
+
+    @Test
+    public void testExactLimitHasNoOtherPage() {
+        rows = Arrays.asList(1L, 2L);
+
+        assertEquals(rows, read(2));
+        assertFalse(requestContext.getHasAnotherDbPage());
+    }
+
+    @Test
+    public void testEmptyResult() {
+        rows = Collections.emptyList();
+
+        assertTrue(read(2).isEmpty());
+        assertFalse(requestContext.getHasAnotherDbPage());
+        assertTrue(closed);
+    }
+
+    private DataSource mockDataSource() {
+        ResultSetMetaData metadata = (ResultSetMetaData) proxy(ResultSetMetaData.class, (method, args) -> {
+            switch (method) {
+                case "getColumnCount":
+                    return 1;
+                case "getColumnType":
+                    return Types.BIGINT;
+                case "getColumnLabel":
+                    return "id";
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+
+        ResultSet resultSet = (ResultSet) proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    return ++rowIndex < rows.size();
+                case "getMetaData":
+                    return metadata;
+                case "getLong":
+                    return rows.get(rowIndex);
+                case "wasNull":
+                    return false;
+                case "close":
+                    closed = true;
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+
+        PreparedStatement statement = (PreparedStatement) proxy(PreparedStatement.class, (method, args) ->
+                method.equals("executeQuery") ? resultSet : null);
+
+        Connection connection = (Connection) proxy(Connection.class, (method, args) ->
+                method.equals("prepareStatement") ? statement : null);
+
+        return (DataSource) proxy(DataSource.class, (method, args) -> connection);
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    private Object proxy(Class<?> type, Answer answer) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> answer.answer(method.getName(), args));
+    }
+}
@@ -122,4 +122,27 @@ public class AuthenticationFacadeImplTest {
 
         facade.parseAuthenticationValue(badToken);
     }
+
+    @Test
+    public void testAuthenticateAsyncUnknownToken() {
+        facade.getL1Cache().invalidateAll();
+        ((LoadingCache) facade.getL1Cache()).setCacheLoader((key) -> Maybe.empty());
+
+        AuthorizationToken token = new AuthorizationToken().setType(AuthorizationTokenType.API_TOKEN).setValue(UUID.randomUUID().toString());
+
+        facade.authenticateAsync(token)
+                .test()
+                .assertNoValues()
+                .assertError(ServiceException.class);
+    }
+
+    @Test
+    public void testAuthenticateAsyncJwtToken() {
+        AuthorizationToken token = new AuthorizationToken().setType(AuthorizationTokenType.JWT).setValue("jwt");
+
+        facade.authenticateAsync(token)
+                .test()
+                .assertNoValues()
+                .assertComplete();
+    }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.dao.IdentityProviderDao;
+import com.atypon.wayf.data.identity.IdentityProvider;
+import com.atypon.wayf.data.identity.IdentityProviderQuery;
+import com.atypon.wayf.data.identity.IdentityProviderType;
+import com.atypon.wayf.data.identity.OauthEntity;
+import com.atypon.wayf.data.identity.OauthProvider;
+import com.atypon.wayf.data.identity.OpenAthensEntity;
+import com.atypon.wayf.data.identity.SamlEntity;
+import com.atypon.wayf.request.RequestContext;
+import com.atypon.wayf.request.RequestContextAccessor;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CachingIdentityProviderFacadeImplTest {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private IdentityProviderDaoMock samlDao;
+    private IdentityProviderDaoMock openAthensDao;
+    private IdentityProviderDaoMock oauthDao;
+
+    private CachingIdentityProviderFacadeImpl facade;
+
+    @Before
+    public void setup() {
+        RequestContextAccessor.set(new RequestContext());
+
+        samlDao = new IdentityProviderDaoMock();
+        openAthensDao = new IdentityProviderDaoMock();
+        oauthDao = new IdentityProviderDaoMock();
+
+        Map<IdentityProviderType, IdentityProviderDao> daosByType = new HashMap<>();
+        daosByType.put(IdentityProviderType.SAML, samlDao);
+        daosByType.put(IdentityProviderType.OPEN_ATHENS, openAthensDao);
+        daosByType.put(IdentityProviderType.OAUTH, oauthDao);
+
+        facade = new CachingIdentityProviderFacadeImpl()
+                .setCaches(CacheBuilder.newBuilder().maximumSize(100).build(), CacheBuilder.newBuilder().maximumSize(100).build());
+        facade.setDaosByType(daosByType);
+    }
+
+    @After
+    public void teardown() {
+        RequestContextAccessor.set(null);
+    }
+
+    @Test
+    public void testReadIsCached() {
+        SamlEntity samlEntity = samlDao.add(buildSamlEntity("saml-read"));
+
+        assertEquals(samlEntity.getId(), facade.read(samlEntity.getId()).blockingGet().getId());
+        int readsAfterFirst = totalReads();
+
+        assertEquals(samlEntity.getId(), facade.read(samlEntity.getId()).blockingGet().getId());
+        assertEquals(readsAfterFirst, totalReads());
+    }
+
+    @Test
+    public void testFilterByIdsOnlyLoadsMissingIds() {
+        SamlEntity cachedEntity = samlDao.add(buildSamlEntity("saml-cached"));
+        SamlEntity missingEntity = samlDao.add(buildSamlEntity("saml-missing"));
+
+        facade.read(cachedEntity.getId()).blockingGet();
+
+        List<IdentityProvider> identityProviders = facade.filter(new IdentityProviderQuery()
+                .setIds(Lists.newArrayList(cachedEntity.getId(), missingEntity.getId())))
+                .toList()
+                .blockingGet();
+
+        assertEquals(2, identityProviders.size());
+        assertEquals(Lists.newArrayList(missingEntity.getId()), samlDao.lastFilter.getIds());
+
+        // Both are cached now, so the DAOs are not queried again
+        samlDao.lastFilter = null;
+        assertEquals(2, facade.filter(new IdentityProviderQuery()
+                .setIds(Lists.newArrayList(cachedEntity.getId(), missingEntity.getId())))
+                .toList()
+                .blockingGet()
+                .size());
+        assertEquals(null, samlDao.lastFilter);
+    }
+
+    @Test
+    public void testResolveIsCachedByNaturalKey() {
+        SamlEntity samlEntity = samlDao.add(buildSamlEntity("saml-resolve"));
+
+        assertEquals(samlEntity.getId(), facade.resolve(buildSamlEntity("saml-resolve")).blockingGet().getId());
+        int filtersAfterFirst = samlDao.filterCount;
+
+        assertEquals(samlEntity.getId(), facade.resolve(buildSamlEntity("saml-resolve")).blockingGet().getId());
+        assertEquals(filtersAfterFirst, samlDao.filterCount);
+    }
+
+    @Test
+    public void testResolveCreatesAndCachesNewProvider() {
+        OpenAthensEntity openAthensEntity = new OpenAthensEntity();
+        openAthensEntity.setOrganizationId("org-1");
+
+        IdentityProvider created = facade.resolve(openAthensEntity).blockingGet();
+        assertEquals(1, openAthensDao.createCount);
+
+        OpenAthensEntity sameOrganization = new OpenAthensEntity();
+        sameOrganization.setOrganizationId("org-1");
+
+        assertEquals(created.getId(), facade.resolve(sameOrganization).blockingGet().getId());
+        assertEquals(1, openAthensDao.createCount);
+    }
+
+    @Test
+    public void testCreateInvalidatesNaturalKey() {
+        OauthEntity oauthEntity = oauthDao.add(new OauthEntity());
+        oauthEntity.setProvider(OauthProvider.GOOGLE);
+
+        facade.resolve(copyOauth(oauthEntity)).blockingGet();
+        int filtersAfterResolve = oauthDao.filterCount;
+
+        IdentityProvider created = facade.create(copyOauth(oauthEntity)).blockingGet();
+        assertNotEquals(oauthEntity.getId(), created.getId());
+
+        // The key is no longer cached, so the next resolve goes back to the DAO
+        try {
+            facade.resolve(copyOauth(oauthEntity)).blockingGet();
+        } catch (RuntimeException e) {
+            // Two providers now share the key, which the base facade reports as an error
+        }
+
+        assertEquals(filtersAfterResolve + 1, oauthDao.filterCount);
+    }
+
+    private int totalReads() {
+        return samlDao.readCount + openAthensDao.readCount + oauthDao.readCount;
+    }
+
+    private static SamlEntity buildSamlEntity(String entityId) {
+        SamlEntity samlEntity = new SamlEntity();
+        samlEntity.setEntityId(entityId);
+        return samlEntity;
+    }
+
+    private static OauthEntity copyOauth(OauthEntity oauthEntity) {
+        OauthEntity copy = new OauthEntity();
+        copy.setProvider(oauthEntity.getProvider());
+        return copy;
+    }
+
+    private static class IdentityProviderDaoMock implements IdentityProviderDao {
+        private final List<IdentityProvider> identityProviders = new ArrayList<>();
+
+        private int readCount = 0;
+        private int filterCount = 0;
+        private int createCount = 0;
+        private IdentityProviderQuery lastFilter;
+
+        <T extends IdentityProvider> T add(T identityProvider) {
+            identityProvider.setId(NEXT_ID.getAndIncrement());
+            identityProvider.setCreatedDate(new Date());
+            identityProviders.add(identityProvider);
+            return identityProvider;
+        }
+
+        @Override
+        public Single<IdentityProvider> create(IdentityProvider identityProvider) {
+            createCount++;
+            return Single.just(add(identityProvider));
+        }
+
+        @Override
+        public Maybe<IdentityProvider> read(Long id) {
+            readCount++;
+
+            for (IdentityProvider identityProvider : identityProviders) {
+                if (identityProvider.getId().equals(id)) {
+                    return Maybe.just(identityProvider);
+                }
+            }
+
+            return Maybe.empty();
+        }
+
+        @Override
+        public Observable<IdentityProvider> filter(IdentityProviderQuery query) {
+            filterCount++;
+            lastFilter = query;
+
+            List<IdentityProvider> matches = new ArrayList<>();
+            for (IdentityProvider identityProvider : identityProviders) {
+                if (query.getIds() != null && !query.getIds().contains(identityProvider.getId())) {
+                    continue;
+                }
+
+                if (query.getEntityId() != null && !query.getEntityId().equals(((SamlEntity) identityProvider).getEntityId())) {
+                    continue;
+                }
+
+                if (query.getOrganizationId() != null && !query.getOrganizationId().equals(((OpenAthensEntity) identityProvider).getOrganizationId())) {
+                    continue;
+                }
+
+                if (query.getProvider() != null && query.getProvider() != ((OauthEntity) identityProvider).getProvider()) {
+                    continue;
+                }
+
+                matches.add(identityProvider);
+            }
+
+            return Observable.fromIterable(matches);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.dao.DeviceAccessDao;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.device.access.DeviceAccess;
+import com.atypon.wayf.data.device.access.DeviceAccessQuery;
+import com.atypon.wayf.data.device.access.DeviceAccessType;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeviceAccessBatchWriterTest {
+
+    @Test
+    public void testFlushesFullBatch() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(3, 60000L, 10, DeviceAccessBatchWriter.Durability.ENQUEUE, 10L);
+
+        for (int i = 0; i < 3; i++) {
+            writer.write(buildDeviceAccess()).blockingAwait();
+        }
+
+        assertTrue(dao.flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(3), dao.batchSizes);
+    }
+
+    @Test
+    public void testFlushesOnInterval() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(100, 50L, 10, DeviceAccessBatchWriter.Durability.ENQUEUE, 10L);
+
+        DeviceAccess deviceAccess = buildDeviceAccess();
+        writer.write(deviceAccess).blockingAwait();
+        writer.write(buildDeviceAccess()).blockingAwait();
+
+        assertTrue(dao.flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), dao.batchSizes);
+
+        // The access is stamped when it is queued, not when it is flushed
+        assertNotNull(deviceAccess.getCreatedDate());
+    }
+
+    @Test
+    public void testFlushDurabilityWaitsForInsert() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(100, 50L, 10, DeviceAccessBatchWriter.Durability.FLUSH, 10L);
+
+        writer.write(buildDeviceAccess()).blockingAwait();
+
+        assertEquals(Collections.singletonList(1), dao.batchSizes);
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        dao.blockFlushes();
+
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(1, 60000L, 1, DeviceAccessBatchWriter.Durability.ENQUEUE, 10L);
+
+        // The first write is taken by the flusher, which then blocks. The second fills the queue
+        writer.write(buildDeviceAccess()).blockingAwait();
+        assertTrue(dao.flushing.await(5, TimeUnit.SECONDS));
+        writer.write(buildDeviceAccess()).blockingAwait();
+
+        try {
+            writer.write(buildDeviceAccess()).blockingAwait();
+            fail("Expected the write to be rejected");
+        } catch (ServiceException e) {
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+        } finally {
+            dao.unblockFlushes();
+        }
+    }
+
+    @Test
+    public void testShutdownDrainsQueue() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(100, 200L, 10, DeviceAccessBatchWriter.Durability.ENQUEUE, 10L);
+
+        for (int i = 0; i < 5; i++) {
+            writer.write(buildDeviceAccess()).blockingAwait();
+        }
+
+        writer.shutdown();
+        writer.shutdown();
+
+        assertEquals(5, dao.flushedCount());
+
+        // Writes after shutdown bypass the queue
+        writer.write(buildDeviceAccess()).blockingAwait();
+        assertEquals(1, dao.createCount);
+    }
+
+    @Test
+    public void testWriteSubscribedAfterShutdownIsNotLost() throws Exception {
+        DeviceAccessDaoMock dao = new DeviceAccessDaoMock(1);
+        DeviceAccessBatchWriter writer = new DeviceAccessBatchWriter()
+                .setDeviceAccessDao(dao)
+                .setConfig(100, 50L, 10, DeviceAccessBatchWriter.Durability.FLUSH, 10L);
+
+        writer.write(buildDeviceAccess()).blockingAwait();
+
+        // Built while the writer was still enabled, but only subscribed once the flusher has drained and exited
+        Completable lateWrite = writer.write(buildDeviceAccess());
+        writer.shutdown();
+
+        assertTrue(lateWrite.blockingAwait(5, TimeUnit.SECONDS));
+        assertEquals(1, dao.flushedCount());
+        assertEquals(1, dao.createCount);
+    }
+
+    private DeviceAccess buildDeviceAccess() {
+        return new DeviceAccess.Builder().type(DeviceAccessType.READ_IDP_HISTORY).build();
+    }
+
+    private static class DeviceAccessDaoMock implements DeviceAccessDao {
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch flushed;
+        private final CountDownLatch flushing = new CountDownLatch(1);
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+        private volatile int createCount = 0;
+
+        DeviceAccessDaoMock(int expectedFlushes) {
+            this.flushed = new CountDownLatch(expectedFlushes);
+        }
+
+        void blockFlushes() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void unblockFlushes() {
+            blocked.countDown();
+        }
+
+        int flushedCount() {
+            int count = 0;
+            synchronized (batchSizes) {
+                for (Integer batchSize : batchSizes) {
+                    count += batchSize;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public Single<DeviceAccess> create(DeviceAccess deviceAccess) {
+            createCount++;
+            return Single.just(deviceAccess);
+        }
+
+        @Override
+        public Completable createAll(List<DeviceAccess> deviceAccesses) {
+            return Completable.fromAction(() -> {
+                flushing.countDown();
+                blocked.await(5, TimeUnit.SECONDS);
+
+                batchSizes.add(deviceAccesses.size());
+                flushed.countDown();
+            });
+        }
+
+        @Override
+        public Maybe<DeviceAccess> read(Long id) {
+            return Maybe.empty();
+        }
+
+        @Override
+        public Observable<DeviceAccess> filter(DeviceAccessQuery query) {
+            return Observable.empty();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceFacadeImplTest {
+
+    private static final String SALT = BCrypt.gensalt(4);
+
+    private DeviceFacadeImpl deviceFacade;
+    private PublisherFacadeMockImpl publisherFacade;
+    private ThreadPoolExecutor hashExecutor;
+
+    @Before
+    public void setUp() {
+        WayfReactivexConfig.initializePlugins();
+
+        publisherFacade = new PublisherFacadeMockImpl().setSalt(SALT);
+        hashExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadFactoryBuilder().setNameFormat("wayf-hash-test-%d").setDaemon(true).build());
+
+        deviceFacade = new DeviceFacadeImpl();
+        deviceFacade.setPublisherFacade(publisherFacade);
+        deviceFacade.setLocalIdHashCache(CacheBuilder.newBuilder().build());
+        deviceFacade.setLocalIdHashExecutor(hashExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        hashExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testAsyncHashResolvesSaltOffTheHashingThreads() {
+        String hash = deviceFacade.encryptLocalIdAsync(1L, "reader").blockingGet();
+
+        assertEquals(BCrypt.hashpw("reader", SALT), hash);
+        assertEquals(1, publisherFacade.getSaltLookupThreads().size());
+        assertFalse(publisherFacade.getSaltLookupThreads().get(0).startsWith("wayf-hash-test"));
+        assertEquals(1, hashExecutor.getTaskCount());
+
+        // Repeat lookups are served from the cache without the salt or the hashing pool
+        assertEquals(hash, deviceFacade.encryptLocalIdAsync(1L, "reader").blockingGet());
+        assertEquals(hash, deviceFacade.encryptLocalId(1L, "reader"));
+        assertEquals(1, publisherFacade.getSaltLookupThreads().size());
+        assertEquals(1, hashExecutor.getTaskCount());
+    }
+
+    @Test
+    public void testAsyncHashRejectsWhenQueueFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Occupy the only hashing thread and the only queue slot
+        hashExecutor.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        running.await();
+        hashExecutor.execute(() -> {});
+
+        Throwable error = deviceFacade.encryptLocalIdAsync(1L, "reader").test().awaitDone(5, TimeUnit.SECONDS).errors().get(0);
+        assertTrue(error instanceof ServiceException);
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((ServiceException) error).getStatusCode());
+
+        release.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hashExecutor.getCompletedTaskCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        // Once the queue drains the same local ID can be hashed
+        assertEquals(BCrypt.hashpw("reader", SALT), deviceFacade.encryptLocalIdAsync(1L, "reader").blockingGet());
+    }
+}
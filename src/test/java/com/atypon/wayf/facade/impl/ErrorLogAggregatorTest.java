@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.dao.ErrorLoggerDao;
+import com.atypon.wayf.data.ErrorLogEntry;
+import com.atypon.wayf.data.ServiceException;
+import io.reactivex.Completable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ErrorLogAggregatorTest {
+
+    @Test
+    public void testFingerprint() {
+        ServiceException first = new ServiceException(401, "Could not authenticate token [abc]");
+        ServiceException second = new ServiceException(401, "Could not authenticate token [def]");
+        second.setStackTrace(first.getStackTrace());
+
+        assertEquals(ErrorLogAggregator.fingerprint(401, first), ErrorLogAggregator.fingerprint(401, second));
+        assertNotEquals(ErrorLogAggregator.fingerprint(401, first), ErrorLogAggregator.fingerprint(500, first));
+        assertNotEquals(ErrorLogAggregator.fingerprint(500, first), ErrorLogAggregator.fingerprint(500, new IllegalStateException()));
+
+        // Without a frame, stackless errors are told apart by their message
+        assertNotEquals(ErrorLogAggregator.fingerprint(404, ServiceException.clientError(404, "Invalid local ID")),
+                ErrorLogAggregator.fingerprint(404, ServiceException.clientError(404, "Invalid Global ID")));
+    }
+
+    @Test
+    public void testAggregatesRepeatedErrors() throws Exception {
+        ErrorLoggerDaoMock dao = new ErrorLoggerDaoMock(1);
+        ErrorLogAggregator aggregator = new ErrorLogAggregator()
+                .setErrorLoggerDao(dao)
+                .setConfig(50L, 10, 100);
+
+        AtomicInteger entriesBuilt = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(aggregator.add("401|token", () -> buildEntry(entriesBuilt)));
+        }
+        assertTrue(aggregator.add("500|db", () -> buildEntry(entriesBuilt)));
+
+        assertTrue(dao.written.await(5, TimeUnit.SECONDS));
+
+        // Only the first occurrence of each fingerprint is built
+        assertEquals(2, entriesBuilt.get());
+        assertEquals(1, dao.batches.size());
+        assertEquals(2, dao.batches.get(0).size());
+
+        int occurrences = 0;
+        for (ErrorLogEntry entry : dao.batches.get(0)) {
+            occurrences += entry.getOccurrenceCount();
+        }
+        assertEquals(6, occurrences);
+    }
+
+    @Test
+    public void testDropsNewFingerprintsWhenFull() {
+        ErrorLogAggregator aggregator = new ErrorLogAggregator()
+                .setErrorLoggerDao(new ErrorLoggerDaoMock(1))
+                .setConfig(60000L, 1, 100);
+
+        AtomicInteger entriesBuilt = new AtomicInteger();
+
+        assertTrue(aggregator.add("401|token", () -> buildEntry(entriesBuilt)));
+        assertFalse(aggregator.add("500|db", () -> buildEntry(entriesBuilt)));
+        assertTrue(aggregator.add("401|token", () -> buildEntry(entriesBuilt)));
+
+        assertEquals(1, aggregator.getDroppedCount());
+        assertEquals(1, entriesBuilt.get());
+    }
+
+    @Test
+    public void testShutdownWritesWindow() {
+        ErrorLoggerDaoMock dao = new ErrorLoggerDaoMock(1);
+        ErrorLogAggregator aggregator = new ErrorLogAggregator()
+                .setErrorLoggerDao(dao)
+                .setConfig(60000L, 10, 1);
+
+        AtomicInteger entriesBuilt = new AtomicInteger();
+        aggregator.add("401|token", () -> buildEntry(entriesBuilt));
+        aggregator.add("500|db", () -> buildEntry(entriesBuilt));
+
+        aggregator.shutdown();
+
+        assertFalse(aggregator.isEnabled());
+        assertEquals(2, dao.batches.size());
+    }
+
+    @Test
+    public void testConcurrentAddsAreNotLostToFlushes() throws Exception {
+        ErrorLoggerDaoMock dao = new ErrorLoggerDaoMock(1);
+        ErrorLogAggregator aggregator = new ErrorLogAggregator()
+                .setErrorLoggerDao(dao)
+                .setConfig(1L, 10, 100);
+
+        AtomicInteger entriesBuilt = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        // Windows are flushed every millisecond while the errors come in
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 20000; j++) {
+                    aggregator.add("500|db", () -> buildEntry(entriesBuilt));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        aggregator.shutdown();
+
+        int occurrences = 0;
+        synchronized (dao) {
+            for (List<ErrorLogEntry> batch : dao.batches) {
+                for (ErrorLogEntry entry : batch) {
+                    occurrences += entry.getOccurrenceCount();
+                }
+            }
+        }
+
+        assertEquals(80000, occurrences);
+    }
+
+    private static ErrorLogEntry buildEntry(AtomicInteger entriesBuilt) {
+        entriesBuilt.incrementAndGet();
+        return new ErrorLogEntry().setResponseCode(500);
+    }
+
+    private static class ErrorLoggerDaoMock implements ErrorLoggerDao {
+        private final List<List<ErrorLogEntry>> batches = new ArrayList<>();
+        private final CountDownLatch written;
+
+        ErrorLoggerDaoMock(int expectedBatches) {
+            this.written = new CountDownLatch(expectedBatches);
+        }
+
+        @Override
+        public Completable logError(ErrorLogEntry logEntry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Completable logErrors(List<ErrorLogEntry> logEntries) {
+            batches.add(new ArrayList<>(logEntries));
+            written.countDown();
+            return Completable.complete();
+        }
+    }
+}
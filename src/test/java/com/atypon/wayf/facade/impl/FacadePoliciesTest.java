@@ -27,6 +27,8 @@ import java.util.List;
 
 import static com.atypon.wayf.reactivex.FacadePolicies.singleOrException;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class FacadePoliciesTest {
@@ -121,4 +123,20 @@ public class FacadePoliciesTest {
 
         assertEquals("ABC", result);
     }
+
+    @Test
+    public void testClientErrorsAreStackless() {
+        ServiceException clientError = (ServiceException) singleOrException(Maybe.empty(), HttpStatus.SC_NOT_FOUND, "Invalid local ID")
+                .test().errors().get(0);
+
+        assertTrue(clientError.isStackless());
+        assertEquals(0, clientError.getStackTrace().length);
+        assertEquals("Invalid local ID", clientError.getMessage());
+
+        ServiceException serverError = (ServiceException) singleOrException(Maybe.empty(), HttpStatus.SC_INTERNAL_SERVER_ERROR, "Missing salt")
+                .test().errors().get(0);
+
+        assertFalse(serverError.isStackless());
+        assertTrue(serverError.getStackTrace().length > 0);
+    }
 }
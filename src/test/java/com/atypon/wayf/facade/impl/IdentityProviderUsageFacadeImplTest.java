@@ -16,6 +16,7 @@
 
 package com.atypon.wayf.facade.impl;
 
+import com.atypon.wayf.dao.impl.IdentityProviderUsageDaoMockImpl;
 import com.atypon.wayf.data.device.Device;
 import com.atypon.wayf.data.device.access.DeviceAccess;
 import com.atypon.wayf.data.identity.IdentityProvider;
@@ -40,6 +41,7 @@ public class IdentityProviderUsageFacadeImplTest {
     private IdentityProviderUsageFacadeImpl usageFacade;
     private DeviceIdentityProviderBlacklistFacadeMockImpl blacklistFacade;
     private DeviceAccessFacadeMockImpl deviceAccessFacade;
+    private IdentityProviderUsageDaoMockImpl usageDao;
 
     @Before
     public void setUp() {
@@ -53,6 +55,9 @@ public class IdentityProviderUsageFacadeImplTest {
 
         usageFacade.setIdentityProviderFacade(new IdentityProviderFacadeMockImpl());
 
+        usageDao = new IdentityProviderUsageDaoMockImpl();
+        usageFacade.setIdentityProviderUsageDao(usageDao);
+
         WayfReactivexConfig.initializePlugins();
         RequestContextAccessor.set(new RequestContext());
     }
@@ -128,4 +133,49 @@ public class IdentityProviderUsageFacadeImplTest {
         assertEquals(startDate, usage123.getLastActiveDate());
         assertEquals(Double.valueOf("16.67"), usage123.getFrequency());
     }
+
+    @Test
+    public void testUsagesFromWindow() {
+        IdentityProvider idp123 = new IdentityProvider();
+        idp123.setId(123L);
+
+        Device testDevice = new Device();
+        testDevice.setId(13L);
+
+        DeviceAccess deviceAccess = new DeviceAccess();
+        deviceAccess.setDevice(testDevice);
+        deviceAccess.setIdentityProvider(idp123);
+        deviceAccess.setCreatedDate(new Date(0L));
+
+        List<DeviceAccess> deviceAccessList = new ArrayList<>();
+        deviceAccessList.add(deviceAccess);
+
+        deviceAccessFacade.setDeviceAccessList(deviceAccessList);
+        blacklistFacade.setBlacklist(new LinkedList<>());
+
+        // The first read builds the window from the device activity
+        assertEquals(1, usageFacade.buildRecentHistory(testDevice).size());
+        assertEquals(1, usageDao.getWindow(13L).size());
+
+        // Later reads and recorded uses only touch the window
+        deviceAccessFacade.setDeviceAccessList(null);
+
+        IdentityProvider idp456 = new IdentityProvider();
+        idp456.setId(456L);
+
+        DeviceAccess newUse = new DeviceAccess();
+        newUse.setDevice(testDevice);
+        newUse.setIdentityProvider(idp456);
+        newUse.setCreatedDate(new Date());
+
+        usageFacade.recordUse(newUse).blockingAwait();
+
+        List<IdentityProviderUsage> usages = usageFacade.buildRecentHistory(testDevice);
+        assertEquals(2, usages.size());
+        assertEquals(Double.valueOf("50.00"), usages.get(0).getFrequency());
+
+        // Resetting drops the window so that the next read rebuilds it
+        usageFacade.resetUsage(testDevice).blockingAwait();
+        assertEquals(null, usageDao.getWindow(13L));
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.atypon.wayf.facade.impl;
+
+import com.atypon.wayf.data.publisher.Publisher;
+import com.atypon.wayf.data.publisher.PublisherQuery;
+import com.atypon.wayf.facade.PublisherFacade;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class PublisherFacadeMockImpl implements PublisherFacade {
+
+    private String salt;
+    private List<String> saltLookupThreads = new CopyOnWriteArrayList<>();
+
+    public PublisherFacadeMockImpl setSalt(String salt) {
+        this.salt = salt;
+        return this;
+    }
+
+    public List<String> getSaltLookupThreads() {
+        return saltLookupThreads;
+    }
+
+    @Override
+    public Single<Publisher> create(Publisher publisher) {
+        return null;
+    }
+
+    @Override
+    public Single<Publisher> read(Long id) {
+        return null;
+    }
+
+    @Override
+    public Observable<Publisher> filter(PublisherQuery filter) {
+        return null;
+    }
+
+    @Override
+    public Single<Publisher> lookupCode(String publisherCode) {
+        return null;
+    }
+
+    @Override
+    public String getPublishersSalt(Long publisherId) {
+        saltLookupThreads.add(Thread.currentThread().getName());
+        return salt;
+    }
+
+    @Override
+    public Single<String> getPublishersSaltAsync(Long publisherId) {
+        return Single.fromCallable(() -> getPublishersSalt(publisherId));
+    }
+}
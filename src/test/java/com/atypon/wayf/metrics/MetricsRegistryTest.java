@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+    private static final String ROUTE = "/1/device/:localId/history";
+
+    @Test
+    public void testInFlight() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+        RequestTimer first = metricsRegistry.startRequest("GET", ROUTE);
+        RequestTimer second = metricsRegistry.startRequest("GET", ROUTE);
+        assertEquals(2, metricsRegistry.getRequestsInFlight("GET", ROUTE));
+
+        first.stop(200);
+        first.stop(200);
+        assertEquals(1, metricsRegistry.getRequestsInFlight("GET", ROUTE));
+
+        second.stop(404);
+        assertEquals(0, metricsRegistry.getRequestsInFlight("GET", ROUTE));
+
+        assertEquals(1, metricsRegistry.getLatencySnapshot("GET", ROUTE, 200).getTotalCount());
+        assertEquals(1, metricsRegistry.getLatencySnapshot("GET", ROUTE, 404).getTotalCount());
+    }
+
+    @Test
+    public void testScrape() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.startRequest("GET", ROUTE).stop(200);
+        metricsRegistry.startRequest("GET", ROUTE);
+
+        String scrape = metricsRegistry.scrape();
+
+        assertTrue(scrape.contains("# TYPE wayf_http_request_duration_seconds histogram\n"));
+        assertTrue(scrape.contains("wayf_http_request_duration_seconds_bucket{method=\"GET\",route=\"" + ROUTE + "\",status=\"200\",le=\"+Inf\"} 1\n"));
+        assertTrue(scrape.contains("wayf_http_request_duration_seconds_count{method=\"GET\",route=\"" + ROUTE + "\",status=\"200\"} 1\n"));
+        assertTrue(scrape.contains("wayf_http_requests_in_flight{method=\"GET\",route=\"" + ROUTE + "\"} 1\n"));
+        assertTrue(scrape.contains("# TYPE wayf_scheduler_queue_wait_seconds histogram\n"));
+        assertTrue(scrape.contains("wayf_scheduler_threads_created_total{scheduler=\"io\"} 0\n"));
+    }
+
+    @Test
+    public void testEscapeLabelValue() {
+        assertEquals("a\\\"b\\\\c\\n", MetricsRegistry.escapeLabelValue("a\"b\\c\n"));
+    }
+
+    @Test
+    public void testRegisteredMetrics() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.registerCounter("wayf_test_dropped_total", "Dropped things", () -> 3);
+        metricsRegistry.registerGauge("wayf_test_queued", "Queued things", () -> 7);
+
+        String scrape = metricsRegistry.scrape();
+
+        assertTrue(scrape.contains("# TYPE wayf_test_dropped_total counter\nwayf_test_dropped_total 3\n"));
+        assertTrue(scrape.contains("# TYPE wayf_test_queued gauge\nwayf_test_queued 7\n"));
+    }
+}
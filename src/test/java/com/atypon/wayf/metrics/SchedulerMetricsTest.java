@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchedulerMetricsTest {
+    private SchedulerMetrics schedulerMetrics;
+
+    @Before
+    public void setUp() {
+        schedulerMetrics = new SchedulerMetrics();
+        WayfReactivexConfig.initializePlugins(schedulerMetrics);
+    }
+
+    @After
+    public void cleanUp() {
+        WayfReactivexConfig.initializePlugins();
+    }
+
+    @Test
+    public void testIoScheduler() throws Exception {
+        Completable.fromAction(() -> Thread.sleep(5))
+                .subscribeOn(Schedulers.io())
+                .blockingAwait();
+
+        SchedulerMetrics.SchedulerStats io = schedulerMetrics.getStats(SchedulerMetrics.IO);
+        awaitExecutions(io, 1);
+
+        assertEquals(1, io.getExecution().getTotalCount());
+        assertEquals(1, io.getQueueWait().getTotalCount());
+        assertTrue(io.getExecution().valueAtPercentile(100) >= 5_000);
+        assertEquals(1, io.getThreadsCreated());
+        assertEquals(1, io.getLiveThreads());
+        assertEquals(0, io.getActiveThreads());
+
+        assertEquals(0, schedulerMetrics.getStats(SchedulerMetrics.COMPUTATION).getExecution().getTotalCount());
+    }
+
+    @Test
+    public void testComputationScheduler() throws Exception {
+        Completable.complete()
+                .subscribeOn(Schedulers.computation())
+                .blockingAwait();
+
+        awaitExecutions(schedulerMetrics.getStats(SchedulerMetrics.COMPUTATION), 1);
+        assertEquals(1, schedulerMetrics.getStats(SchedulerMetrics.COMPUTATION).getExecution().getTotalCount());
+    }
+
+    @Test
+    public void testUnmeasuredThread() {
+        assertEquals(null, schedulerMetrics.taskStarted(0));
+        schedulerMetrics.taskFinished(null, 0);
+    }
+
+    // A task is only recorded once it returns, which can be just after the caller has been signalled
+    private static void awaitExecutions(SchedulerMetrics.SchedulerStats stats, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (stats.getExecution().getTotalCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
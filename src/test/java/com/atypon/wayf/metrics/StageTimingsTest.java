@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.metrics;
+
+import com.atypon.wayf.request.RequestContext;
+import com.atypon.wayf.request.RequestContextAccessor;
+import io.reactivex.Maybe;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StageTimingsTest {
+
+    @Test
+    public void testServerTimingHeader() {
+        StageTimings timings = new StageTimings();
+
+        long start = StageTimings.start();
+        timings.record("db.readDevice", start);
+        timings.record("serialize", StageTimings.start());
+        timings.record("db.readDevice", start);
+
+        String header = timings.toServerTimingHeader();
+
+        assertTrue(header, header.matches("db\\.readDevice;dur=\\d+\\.\\d, serialize;dur=\\d+\\.\\d, total;dur=\\d+\\.\\d"));
+        assertTrue(timings.toLogString().contains("db.readDevice="));
+        assertTrue(timings.toLogString().contains("(2)"));
+    }
+
+    @Test
+    public void testEmptyHeader() {
+        assertTrue(new StageTimings().toServerTimingHeader().startsWith("total;dur="));
+    }
+
+    @Test
+    public void testTransformerRecordsAgainstCurrentRequest() {
+        RequestContext requestContext = new RequestContext();
+        RequestContextAccessor.set(requestContext);
+
+        try {
+            assertEquals("value", Maybe.just("value").compose(StageTimings.maybe("cache")).blockingGet());
+        } finally {
+            RequestContextAccessor.remove();
+        }
+
+        assertTrue(requestContext.getStageTimings().toServerTimingHeader().startsWith("cache;dur="));
+    }
+
+    @Test
+    public void testTransformerWithoutRequest() {
+        assertEquals("value", Maybe.just("value").compose(StageTimings.maybe("cache")).blockingGet());
+
+        StageTimings.recordCurrent("cache", StageTimings.start());
+        assertFalse(new StageTimings().toServerTimingHeader().contains("cache"));
+    }
+}
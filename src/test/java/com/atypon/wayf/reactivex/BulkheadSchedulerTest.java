@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.reactivex;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadSchedulerTest {
+
+    @Test
+    public void testRunsOnItsOwnThreads() throws Exception {
+        BulkheadScheduler scheduler = new BulkheadScheduler("test", 1, 0);
+
+        String threadName = scheduler.subscribeOn(Single.fromCallable(() -> Thread.currentThread().getName())).blockingGet();
+
+        assertTrue(threadName.startsWith("wayf-test-"));
+
+        awaitSlotsReleased(scheduler);
+    }
+
+    @Test
+    public void testDeliversResultsOnItsOwnThreads() throws Exception {
+        BulkheadScheduler scheduler = new BulkheadScheduler("test", 1, 0);
+
+        String threadName = scheduler.subscribeOn(Single.just(1))
+                .map((value) -> Thread.currentThread().getName())
+                .blockingGet();
+
+        assertTrue(threadName.startsWith("wayf-test-"));
+
+        awaitSlotsReleased(scheduler);
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        BulkheadScheduler scheduler = new BulkheadScheduler("test", 1, 1);
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        scheduler.registerMetrics(metricsRegistry);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Completable blocked = Completable.fromAction(() -> release.await());
+
+        // One running, one queued
+        TestObserver<Void> running = scheduler.subscribeOn(blocked).test();
+        TestObserver<Void> queued = scheduler.subscribeOn(blocked).test();
+        assertEquals(2, scheduler.getInFlight());
+
+        Throwable rejection = scheduler.subscribeOn(blocked).test().errors().get(0);
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((ServiceException) rejection).getStatusCode());
+        assertEquals(1, scheduler.getRejectedCount());
+        assertTrue(metricsRegistry.scrape().contains("wayf_scheduler_rejected_total{scheduler=\"test\"} 1"));
+
+        release.countDown();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        running.assertComplete();
+        queued.assertComplete();
+
+        // The slots are given back
+        scheduler.subscribeOn(Completable.complete()).blockingAwait();
+        awaitSlotsReleased(scheduler);
+    }
+
+    @Test
+    public void testDisposedCallKeepsItsSlotUntilItsThreadIsFree() throws Exception {
+        BulkheadScheduler scheduler = new BulkheadScheduler("test", 1, 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Completable blocked = Completable.fromAction(() -> {
+            started.countDown();
+            release.await();
+        });
+
+        TestObserver<Void> running = scheduler.subscribeOn(blocked).test();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        TestObserver<Void> queued = scheduler.subscribeOn(Completable.complete()).test();
+
+        // Giving up on the calls doesn't free the thread, or the queue, any sooner
+        running.dispose();
+        queued.dispose();
+        assertEquals(2, scheduler.getInFlight());
+
+        Throwable rejection = scheduler.subscribeOn(Completable.complete()).test().errors().get(0);
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((ServiceException) rejection).getStatusCode());
+
+        release.countDown();
+        awaitSlotsReleased(scheduler);
+    }
+
+    // A slot is released once the result has been handed off, which can be just after it arrives
+    private static void awaitSlotsReleased(BulkheadScheduler scheduler) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(0, scheduler.getInFlight());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.reactivex;
+
+import com.atypon.wayf.data.ServiceException;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DaoPoliciesTest {
+
+    @Test
+    public void testRetriesTransientErrors() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 60000);
+        AtomicInteger calls = new AtomicInteger();
+
+        Single<String> call = Single.fromCallable(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new DeadlockLoserDataAccessException("deadlock", null);
+            }
+
+            return "done";
+        });
+
+        assertEquals("done", DaoPolicies.guardSingle(call, breaker).blockingGet());
+        assertEquals(3, calls.get());
+        assertEquals(2, breaker.getRetryCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testDoesNotRetryOtherErrors() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+        AtomicInteger calls = new AtomicInteger();
+
+        Single<String> call = Single.fromCallable(() -> {
+            calls.incrementAndGet();
+            throw new DataIntegrityViolationException("duplicate");
+        });
+
+        DaoPolicies.guardSingle(call, breaker).test().assertError(DataIntegrityViolationException.class);
+
+        // The database answered, so the breaker stays closed
+        assertEquals(1, calls.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testWrappedDependencyFailuresCount() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+
+        Completable call = Completable.error(new ServiceException(HttpStatus.SC_INTERNAL_SERVER_ERROR, new JedisConnectionException("refused")));
+        DaoPolicies.guardCompletable(call, breaker).test().awaitTerminalEvent();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOwnErrorsDoNotCount() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+        BulkheadScheduler scheduler = new BulkheadScheduler("test", 1, 0);
+
+        Completable blocked = Completable.never();
+        scheduler.subscribeOn(blocked).test();
+
+        Throwable rejection = DaoPolicies.guardCompletable(Completable.complete(), breaker, scheduler).test().errors().get(0);
+
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((ServiceException) rejection).getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailsFastWhenOpen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+        AtomicInteger calls = new AtomicInteger();
+
+        Single<String> call = Single.fromCallable(() -> {
+            calls.incrementAndGet();
+            throw new CannotGetJdbcConnectionException("refused", new SQLException());
+        });
+
+        DaoPolicies.guardSingle(call, breaker).test().assertError(CannotGetJdbcConnectionException.class);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Throwable error = DaoPolicies.guardSingle(call, breaker).test().errors().get(0);
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((ServiceException) error).getStatusCode());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testSlowCallsTimeOutAndCount() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+
+        DaoPolicies.setCallTimeoutMillis(50);
+        try {
+            DaoPolicies.guardSingle(Single.never(), breaker).test().awaitDone(5, TimeUnit.SECONDS).assertError(TimeoutException.class);
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            breaker = new CircuitBreaker("test", 1, 60000);
+            DaoPolicies.guardFlowable(Flowable.never(), breaker).test().awaitDone(5, TimeUnit.SECONDS).assertError(TimeoutException.class);
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            // Only the first element is timed, a stream may take as long as it needs once it has started
+            breaker = new CircuitBreaker("test", 1, 60000);
+            DaoPolicies.guardFlowable(Flowable.intervalRange(0, 3, 0, 40, TimeUnit.MILLISECONDS), breaker)
+                    .test().awaitDone(5, TimeUnit.SECONDS).assertValueCount(3).assertComplete();
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            DaoPolicies.setCallTimeoutMillis(3000);
+        }
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        for (int attempt = 1; attempt < 40; attempt++) {
+            long delay = DaoPolicies.backoffMillis(attempt);
+            assertTrue(delay >= 0 && delay <= 200);
+        }
+    }
+
+    @Test
+    public void testMapError() {
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, DaoPolicies.mapError(new CannotGetJdbcConnectionException("refused", new SQLException())).getStatusCode());
+        assertEquals(HttpStatus.SC_INTERNAL_SERVER_ERROR, DaoPolicies.mapError(new IllegalStateException()).getStatusCode());
+        assertEquals(HttpStatus.SC_NOT_FOUND, DaoPolicies.mapError(ServiceException.clientError(HttpStatus.SC_NOT_FOUND, "missing")).getStatusCode());
+        assertFalse(DaoPolicies.isDependencyFailure(new DataIntegrityViolationException("duplicate")));
+
+        // A dependency failure is never reported as the client's fault, and keeps its stack trace
+        ServiceException outage = DaoPolicies.mapError(new JedisConnectionException("refused"));
+        assertFalse(ServiceException.isClientError(outage));
+        assertFalse(outage.isStackless());
+        assertTrue(ServiceException.isClientError(ServiceException.clientError(HttpStatus.SC_UNAUTHORIZED, "bad token")));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.request;
+
+import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import io.reactivex.Flowable;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChunkedResponseSubscriberTest {
+    private static final int PORT = 18089;
+
+    private Vertx vertx;
+    private HttpServer server;
+    private ResponseWriter responseWriter;
+
+    private volatile Flowable<?> elements;
+    private volatile RequestContext requestContext;
+
+    @Before
+    public void setUp() throws Exception {
+        WayfReactivexConfig.initializePlugins();
+
+        vertx = Vertx.vertx();
+        responseWriter = new ResponseWriter();
+
+        Router router = Router.router(vertx);
+        router.get("/stream").handler((routingContext) -> {
+            RequestContextAccessor.set(requestContext);
+            responseWriter.streamSuccess(routingContext, vertx.getOrCreateContext(), elements);
+            RequestContextAccessor.remove();
+        });
+
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        vertx.createHttpServer()
+                .requestHandler(router::accept)
+                .listen(PORT, (result) -> listening.complete(result.result()));
+
+        server = listening.get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        vertx.close();
+    }
+
+    @Test
+    public void testStreamsArray() throws Exception {
+        elements = Flowable.range(1, 100);
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream");
+
+        Response response = get();
+
+        assertEquals(200, response.statusCode);
+        assertEquals("chunked", response.transferEncoding);
+        assertEquals("", response.link);
+        assertEquals(Flowable.range(1, 100).map(String::valueOf).toList().blockingGet().toString().replace(" ", ""), response.body);
+    }
+
+    @Test
+    public void testStreamsPastFullWriteQueue() throws Exception {
+        String element = String.join("", Collections.nCopies(100, "x"));
+
+        elements = Flowable.range(0, 20000).map((i) -> element);
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream");
+
+        Response response = get();
+
+        assertEquals(200, response.statusCode);
+        assertEquals(20000 * (element.length() + 3) + 1, response.body.length());
+    }
+
+    @Test
+    public void testStreamsEmptyArray() throws Exception {
+        elements = Flowable.empty();
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream");
+
+        Response response = get();
+
+        assertEquals(200, response.statusCode);
+        assertEquals("[]", response.body);
+    }
+
+    @Test
+    public void testLinkHeader() throws Exception {
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream").setLimit(2);
+        elements = Flowable.just(1, 2).doOnSubscribe((subscription) -> requestContext.setHasAnotherDbPage(Boolean.TRUE));
+
+        Response response = get();
+
+        assertEquals("[1,2]", response.body);
+        assertEquals("<http://localhost:" + PORT + "/stream?limit=2&offset=2>; rel=\"next\"", response.link);
+    }
+
+    @Test
+    public void testLinkHeaderKnownOnlyAtCompletion() throws Exception {
+        // The cursor only finds out that there is another page after reading the last row of this one
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream").setLimit(2);
+        elements = Flowable.just(1, 2).doOnComplete(() -> requestContext.setHasAnotherDbPage(Boolean.TRUE));
+
+        Response response = get();
+
+        assertEquals("[1,2]", response.body);
+        assertEquals("<http://localhost:" + PORT + "/stream?limit=2&offset=2>; rel=\"next\"", response.link);
+        assertNull(response.trailer);
+    }
+
+    @Test
+    public void testStreamsPastHeldBackPage() throws Exception {
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream").setLimit(2);
+        elements = Flowable.range(1, 5);
+
+        Response response = get();
+
+        assertEquals(200, response.statusCode);
+        assertEquals("", response.link);
+        assertEquals("[1,2,3,4,5]", response.body);
+    }
+
+    @Test
+    public void testFailureWithinPageSetsStatus() throws Exception {
+        requestContext = new RequestContext().setRequestUrl("http://localhost:" + PORT + "/stream");
+        elements = Flowable.just(1).concatWith(Flowable.error(new IllegalStateException("failed")));
+
+        Response response = get();
+
+        // Nothing has been written yet, so the failure still gets its own status
+        assertEquals(500, response.statusCode);
+    }
+
+    private Response get() throws Exception {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+
+        vertx.createHttpClient().getNow(PORT, "localhost", "/stream", (HttpClientResponse clientResponse) ->
+                clientResponse.bodyHandler((body) -> {
+                    Response response = new Response();
+                    response.statusCode = clientResponse.statusCode();
+                    response.transferEncoding = clientResponse.getHeader("transfer-encoding");
+                    response.link = clientResponse.getHeader("Link");
+                    response.trailer = clientResponse.getTrailer("Link");
+                    response.body = body.toString();
+
+                    future.complete(response);
+                }));
+
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static class Response {
+        private int statusCode;
+        private String transferEncoding;
+        private String link;
+        private String trailer;
+        private String body;
+    }
+}
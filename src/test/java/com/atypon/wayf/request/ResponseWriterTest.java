@@ -16,7 +16,10 @@
 
 package com.atypon.wayf.request;
 
+import com.atypon.wayf.data.ErrorResponse;
+import com.atypon.wayf.data.PageCursor;
 import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.device.Device;
 import com.atypon.wayf.facade.ErrorLoggerFacade;
 import com.atypon.wayf.facade.impl.ErrorLoggerFacadeMockImpl;
 import io.vertx.core.Handler;
@@ -34,11 +37,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class ResponseWriterTest {
 
@@ -65,6 +71,15 @@ public class ResponseWriterTest {
         assertEquals("<http://localhost:8080/list?param1=1&limit=30&offset=30>; rel=\"next\"", link);
     }
 
+    @Test
+    public void testHasMoreWithCursor() {
+        PageCursor nextPageCursor = new PageCursor(new Date(1500000000000L), 31L);
+
+        RequestContextAccessor.set(new RequestContext().setRequestUrl("http://localhost:8080/list?param1=1&limit=30&offset=30").setOffset(30).setLimit(30).setHasAnotherDbPage(Boolean.TRUE).setNextPageCursor(nextPageCursor));
+        String link = responseWriter._getLinkHeaderValue();
+        assertEquals("<http://localhost:8080/list?param1=1&limit=30&cursor=" + nextPageCursor.encode() + ">; rel=\"next\"", link);
+    }
+
     @Test
     public void testHasNoMore() {
         RequestContextAccessor.set(new RequestContext().setRequestUrl("/list").setOffset(0).setLimit(30).setHasAnotherDbPage(Boolean.FALSE));
@@ -83,6 +98,60 @@ public class ResponseWriterTest {
         assertEquals(ServiceException.class, exception.getClass());
     }
 
+    @Test
+    public void testEncodeCompact() {
+        Date createdDate = new Date();
+
+        Device device = new Device();
+        device.setId(1234L);
+        device.setCreatedDate(createdDate);
+
+        String encoded = responseWriter._encode(device, false);
+
+        assertEquals("{\"id\":1234,\"createdDate\":\"" + ResponseWriter.DATE_FORMAT.format(createdDate) + "\"}", encoded);
+    }
+
+    @Test
+    public void testEncodePretty() {
+        Device device = new Device();
+        device.setId(1234L);
+
+        String encoded = responseWriter._encode(device, true);
+
+        assertTrue(encoded.contains("\n"));
+        assertEquals(new JsonObject(responseWriter._encode(device, false)), new JsonObject(encoded));
+    }
+
+    @Test
+    public void testEncodeClientError() {
+        String encoded = responseWriter.encodeClientError("Unknown device", false).toString();
+        assertEquals("{\"message\":\"Unknown device\"}", encoded);
+
+        // The cached body is reused for the same message
+        assertEquals(encoded, responseWriter.encodeClientError("Unknown device", false).toString());
+
+        assertTrue(responseWriter.encodeClientError("Unknown device", true).toString().contains("\n"));
+        assertEquals("{}", responseWriter.encodeClientError(null, false).toString());
+    }
+
+    @Test
+    public void testErrorResponseStacktrace() {
+        IllegalStateException failure = new IllegalStateException("broken");
+
+        ErrorResponse withStacktrace = responseWriter.buildErrorResponse(failure);
+        assertEquals("broken", withStacktrace.getMessage());
+        assertTrue(withStacktrace.getStacktrace().contains(IllegalStateException.class.getName()));
+
+        ErrorResponse withoutStacktrace = responseWriter.setIncludeStacktrace(false).buildErrorResponse(failure);
+        assertEquals("broken", withoutStacktrace.getMessage());
+        assertNull(withoutStacktrace.getStacktrace());
+    }
+
+    @Test
+    public void testEncodeNullBody() {
+        assertEquals("", responseWriter._encode(null, false));
+    }
+
     private class ResponseWriterMock extends ResponseWriter {
         public ResponseWriterMock() {
         }
@@ -91,6 +160,10 @@ public class ResponseWriterTest {
             super.errorLoggerFacade = errorLoggerFacade;
         }
 
+        public String _encode(Object body, boolean prettyPrint) {
+            return super.encode(body, prettyPrint).toString();
+        }
+
         public String _getLinkHeaderValue() {
             return super.buildLinkHeaderValue();
         }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.facade.ErrorLoggerFacade;
+import com.atypon.wayf.facade.impl.ErrorLoggerFacadeMockImpl;
+import com.atypon.wayf.request.RequestContext;
+import com.atypon.wayf.request.RequestContextAccessor;
+import com.atypon.wayf.request.ResponseWriter;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import io.reactivex.Flowable;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.net.NetSocket;
+import io.vertx.ext.web.Router;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+    private static final int PORT = 18093;
+
+    private Vertx vertx;
+    private AdmissionController admissionController;
+    private ResponseWriter responseWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("admission.enabled", "true");
+        properties.setProperty("admission.initialLimit", "1");
+        properties.setProperty("admission.minLimit", "1");
+        properties.setProperty("admission.maxLimit", "1");
+        properties.setProperty("admission.read.targetLatencyMillis", "5000");
+        properties.setProperty("admission.write.targetLatencyMillis", "5000");
+        properties.setProperty("admission.backoffRatio", "0.9");
+        properties.setProperty("admission.retryAfterSeconds", "2");
+
+        Injector injector = Guice.createInjector((binder) -> {
+            Names.bindProperties(binder, properties);
+            binder.bind(ErrorLoggerFacade.class).to(ErrorLoggerFacadeMockImpl.class);
+        });
+
+        admissionController = injector.getInstance(AdmissionController.class);
+        responseWriter = injector.getInstance(ResponseWriter.class);
+
+        vertx = Vertx.vertx();
+
+        Router router = Router.router(vertx);
+        router.route().handler(admissionController);
+        router.get("/slow").handler((event) -> vertx.setTimer(300, (id) -> event.response().end("ok")));
+        router.get("/metrics").handler((event) -> event.response().end("metrics"));
+        router.get("/stream").handler((event) -> {
+            RequestContextAccessor.set(new RequestContext().setRequestUrl("/stream").setLimit(1).setOffset(0));
+
+            try {
+                // More than a page, so the headers go out, then the stream stays open until the client goes away
+                responseWriter.streamSuccess(event, vertx.getOrCreateContext(), Flowable.just("first", "second").concatWith(Flowable.never()));
+            } finally {
+                RequestContextAccessor.remove();
+            }
+        });
+
+        CountDownLatch listening = new CountDownLatch(1);
+        vertx.createHttpServer().requestHandler(router::accept).listen(PORT, (result) -> listening.countDown());
+        assertTrue(listening.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void testRejectsBeyondLimit() throws Exception {
+        HttpClient client = vertx.createHttpClient();
+        List<HttpClientResponse> responses = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+
+        client.getNow(PORT, "localhost", "/slow", (response) -> { responses.add(response); done.countDown(); });
+        Thread.sleep(50);
+        client.getNow(PORT, "localhost", "/slow", (response) -> { responses.add(response); done.countDown(); });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        HttpClientResponse rejected = responses.get(0);
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, rejected.statusCode());
+        assertEquals("2", rejected.getHeader(AdmissionController.RETRY_AFTER_HEADER));
+        assertEquals(HttpStatus.SC_OK, responses.get(1).statusCode());
+
+        awaitInFlight(0);
+    }
+
+    @Test
+    public void testExemptPathsAreNotLimited() throws Exception {
+        HttpClient client = vertx.createHttpClient();
+        CompletableFuture<Integer> slow = new CompletableFuture<>();
+        CompletableFuture<Integer> metrics = new CompletableFuture<>();
+
+        client.getNow(PORT, "localhost", "/slow", (response) -> slow.complete(response.statusCode()));
+        Thread.sleep(50);
+        client.getNow(PORT, "localhost", "/metrics", (response) -> metrics.complete(response.statusCode()));
+
+        assertEquals(Integer.valueOf(HttpStatus.SC_OK), metrics.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(HttpStatus.SC_OK), slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClientDisconnectMidStreamReleasesSlot() throws Exception {
+        CountDownLatch firstChunk = new CountDownLatch(1);
+
+        vertx.createNetClient().connect(PORT, "localhost", (result) -> {
+            NetSocket socket = result.result();
+
+            socket.handler((data) -> {
+                if (data.toString().contains("first")) {
+                    firstChunk.countDown();
+                    socket.close();
+                }
+            });
+            socket.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        });
+
+        assertTrue(firstChunk.await(5, TimeUnit.SECONDS));
+
+        awaitInFlight(0);
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = admissionController.getLimit(HttpMethod.GET);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limit.getInFlight() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(expected, limit.getInFlight());
+    }
+}
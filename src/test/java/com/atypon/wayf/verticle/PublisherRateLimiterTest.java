@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.cache.Cache;
+import com.atypon.wayf.dao.RateLimitDao;
+import com.atypon.wayf.data.Authenticatable;
+import com.atypon.wayf.data.RateLimitDecision;
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.data.publisher.Publisher;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PublisherRateLimiterTest {
+    private static final long PUBLISHER_ID = 7L;
+
+    private final Map<Long, Publisher> publishers = new HashMap<>();
+    private boolean publisherLookupFails;
+
+    private RateLimitDao rateLimitDao;
+    private MetricsRegistry metricsRegistry;
+
+    private Map<String, String> headers;
+    private HttpServerResponse response;
+
+    @Before
+    public void setUp() {
+        rateLimitDao = (key, perSecond, burst) -> Single.error(new IllegalStateException("Redis is not used"));
+        metricsRegistry = new MetricsRegistry();
+
+        headers = new HashMap<>();
+        response = (HttpServerResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {HttpServerResponse.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("putHeader")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+
+                    headers.put(args[0].toString(), args[1].toString());
+                    return proxy;
+                });
+    }
+
+    private PublisherRateLimiter buildRateLimiter(boolean redisEnabled) {
+        Properties properties = new Properties();
+        properties.setProperty("rateLimit.enabled", "true");
+        properties.setProperty("rateLimit.redis.enabled", String.valueOf(redisEnabled));
+        properties.setProperty("rateLimit.default.perSecond", "1");
+        properties.setProperty("rateLimit.default.burst", "2");
+
+        Injector injector = Guice.createInjector((binder) -> {
+            Names.bindProperties(binder, properties);
+            binder.bind(new TypeLiteral<Cache<Long, Publisher>>() {}).annotatedWith(Names.named("publisherRateLimitCache")).toInstance(new PublisherCacheStub());
+            binder.bind(RateLimitDao.class).toInstance((key, perSecond, burst) -> rateLimitDao.acquire(key, perSecond, burst));
+            binder.bind(MetricsRegistry.class).toInstance(metricsRegistry);
+        });
+
+        return injector.getInstance(PublisherRateLimiter.class);
+    }
+
+    private static Publisher publisher(Long id) {
+        Publisher publisher = new Publisher();
+        publisher.setId(id);
+        return publisher;
+    }
+
+    private Throwable acquire(PublisherRateLimiter rateLimiter, Authenticatable authenticated) {
+        return rateLimiter.acquire(authenticated, response).blockingGet();
+    }
+
+    @Test
+    public void testDefaultsAndHeaders() {
+        PublisherRateLimiter rateLimiter = buildRateLimiter(false);
+
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        assertEquals("1", headers.get(PublisherRateLimiter.LIMIT_HEADER));
+        assertEquals("1", headers.get(PublisherRateLimiter.REMAINING_HEADER));
+
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        assertEquals("0", headers.get(PublisherRateLimiter.REMAINING_HEADER));
+        assertNull(headers.get(AdmissionController.RETRY_AFTER_HEADER));
+
+        Throwable rejection = acquire(rateLimiter, publisher(PUBLISHER_ID));
+        assertEquals(429, ((ServiceException) rejection).getStatusCode());
+        assertEquals("1", headers.get(AdmissionController.RETRY_AFTER_HEADER));
+        assertTrue(metricsRegistry.scrape().contains("wayf_rate_limit_rejected_total 1\n"));
+    }
+
+    @Test
+    public void testPublisherColumnsOverrideDefaults() {
+        Publisher limited = publisher(PUBLISHER_ID);
+        limited.setRateLimitPerSecond(50);
+        limited.setRateLimitBurst(1);
+        publishers.put(PUBLISHER_ID, limited);
+
+        PublisherRateLimiter rateLimiter = buildRateLimiter(false);
+
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        assertEquals("50", headers.get(PublisherRateLimiter.LIMIT_HEADER));
+
+        assertEquals(429, ((ServiceException) acquire(rateLimiter, publisher(PUBLISHER_ID))).getStatusCode());
+
+        // Other publishers keep their own bucket
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID + 1)));
+    }
+
+    @Test
+    public void testZeroRateIsUnlimited() {
+        Publisher unlimited = publisher(PUBLISHER_ID);
+        unlimited.setRateLimitPerSecond(0);
+        publishers.put(PUBLISHER_ID, unlimited);
+
+        PublisherRateLimiter rateLimiter = buildRateLimiter(false);
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        }
+
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void testOnlyPublishersAreLimited() {
+        PublisherRateLimiter rateLimiter = buildRateLimiter(false);
+
+        Authenticatable admin = (Authenticatable) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Authenticatable.class},
+                (proxy, method, args) -> method.getName().equals("getType") ? Authenticatable.Type.ADMIN : PUBLISHER_ID);
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(acquire(rateLimiter, admin));
+            assertNull(acquire(rateLimiter, null));
+        }
+    }
+
+    @Test
+    public void testFailedLookupUsesDefaults() {
+        publisherLookupFails = true;
+
+        PublisherRateLimiter rateLimiter = buildRateLimiter(false);
+
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        assertEquals("1", headers.get(PublisherRateLimiter.LIMIT_HEADER));
+    }
+
+    @Test
+    public void testUsesRedisDecision() {
+        rateLimitDao = (key, perSecond, burst) -> {
+            assertEquals(String.valueOf(PUBLISHER_ID), key);
+            return Single.just(RateLimitDecision.rejected(perSecond, 2500));
+        };
+
+        PublisherRateLimiter rateLimiter = buildRateLimiter(true);
+
+        assertEquals(429, ((ServiceException) acquire(rateLimiter, publisher(PUBLISHER_ID))).getStatusCode());
+        assertEquals("3", headers.get(AdmissionController.RETRY_AFTER_HEADER));
+    }
+
+    @Test
+    public void testFallsBackToLocalBucketWithoutRedis() {
+        PublisherRateLimiter rateLimiter = buildRateLimiter(true);
+
+        assertNull(acquire(rateLimiter, publisher(PUBLISHER_ID)));
+        assertEquals("1", headers.get(PublisherRateLimiter.REMAINING_HEADER));
+        assertTrue(metricsRegistry.scrape().contains("wayf_rate_limit_redis_fallbacks_total 1\n"));
+    }
+
+    private class PublisherCacheStub implements Cache<Long, Publisher> {
+        @Override
+        public Maybe<Publisher> get(Long key) {
+            if (publisherLookupFails) {
+                return Maybe.error(new IllegalStateException("Database is unavailable"));
+            }
+
+            Publisher publisher = publishers.get(key);
+            return publisher != null ? Maybe.just(publisher) : Maybe.empty();
+        }
+
+        @Override
+        public Completable put(Long key, Publisher value) {
+            return Completable.fromAction(() -> publishers.put(key, value));
+        }
+
+        @Override
+        public Completable invalidate(Long... keys) {
+            return Completable.complete();
+        }
+
+        @Override
+        public Completable invalidateAll() {
+            return Completable.complete();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.cache.Cache;
+import com.atypon.wayf.cache.impl.LoadingCacheGuavaImpl;
+import com.atypon.wayf.dao.RateLimitDao;
+import com.atypon.wayf.data.device.Device;
+import com.atypon.wayf.data.device.DeviceStatus;
+import com.atypon.wayf.data.publisher.Publisher;
+import com.atypon.wayf.facade.AuthenticationFacade;
+import com.atypon.wayf.facade.ErrorLoggerFacade;
+import com.atypon.wayf.facade.impl.ErrorLoggerFacadeMockImpl;
+import com.atypon.wayf.guice.WayfGuiceModule;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import com.atypon.wayf.reactivex.BulkheadScheduler;
+import com.atypon.wayf.reactivex.CircuitBreaker;
+import com.atypon.wayf.reactivex.DaoPolicies;
+import com.atypon.wayf.reactivex.WayfReactivexConfig;
+import com.atypon.wayf.request.ResponseWriter;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.CookieHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the request latency of the execution modes of {@link WayfRequestHandlerFactory}. Each request goes over
+ * HTTP through a handler built by the real factory, with the real request executor and response scheduler, and its
+ * delegate is a device read guarded by {@link DaoPolicies#guardSingle} on a bounded jdbc scheduler, the way the DAOs
+ * make their calls. Only the database itself is left out. Run the main method from the test classpath, e.g. from the
+ * IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class RequestExecutionBenchmark {
+    private static final int PORT = 18094;
+    private static final String DEVICE_PATH = "/1/device/benchmark";
+
+    @Param({"RX", "SINGLE_HOP"})
+    public WayfRequestHandlerFactory.ExecutionMode executionMode;
+
+    private Vertx vertx;
+    private HttpClient client;
+    private ExecutorService requestExecutor;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.load(getClass().getClassLoader().getResourceAsStream("wayf-defaults.properties"));
+        properties.setProperty("request.executionMode", executionMode.name());
+
+        WayfGuiceModule module = new WayfGuiceModule();
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        requestExecutor = module.getRequestExecutor(0, 1024);
+        BulkheadScheduler responseScheduler = module.getResponseScheduler(0, 1024, metricsRegistry);
+
+        LoadingCacheGuavaImpl<Long, Publisher> publisherCache = new LoadingCacheGuavaImpl<>();
+        publisherCache.setGuavaCache(CacheBuilder.newBuilder().build());
+        publisherCache.setCacheLoader((key) -> Maybe.empty());
+
+        Injector injector = Guice.createInjector((binder) -> {
+            Names.bindProperties(binder, properties);
+            binder.bind(MetricsRegistry.class).toInstance(metricsRegistry);
+            binder.bind(ExecutorService.class).annotatedWith(Names.named("requestExecutor")).toInstance(requestExecutor);
+            binder.bind(BulkheadScheduler.class).annotatedWith(Names.named("responseScheduler")).toInstance(responseScheduler);
+            binder.bind(ErrorLoggerFacade.class).to(ErrorLoggerFacadeMockImpl.class);
+            binder.bind(new TypeLiteral<Cache<Long, Publisher>>() {}).annotatedWith(Names.named("publisherRateLimitCache"))
+                    .toInstance(publisherCache);
+            binder.bind(RateLimitDao.class).toInstance((key, perSecond, burst) -> Single.error(new UnsupportedOperationException()));
+
+            // Requests carry no token, so nothing is ever authenticated
+            binder.bind(AuthenticationFacade.class).toInstance((AuthenticationFacade) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] {AuthenticationFacade.class},
+                    (proxy, method, args) -> {
+                        throw new UnsupportedOperationException(method.getName());
+                    }));
+        });
+
+        // As the deployment verticle does, so that the request state follows each hop
+        WayfReactivexConfig.initializePlugins(metricsRegistry.getSchedulerMetrics());
+
+        WayfRequestHandlerFactory handlerFactory = injector.getInstance(WayfRequestHandlerFactory.class);
+        ResponseWriter responseWriter = injector.getInstance(ResponseWriter.class);
+
+        CircuitBreaker circuitBreaker = module.getJdbcCircuitBreaker(10, 5000L, metricsRegistry);
+        BulkheadScheduler jdbcScheduler = module.getJdbcScheduler(0, 256, 8, metricsRegistry);
+        Device device = buildDevice();
+
+        vertx = Vertx.vertx();
+
+        Router router = Router.router(vertx);
+        router.route().handler(CookieHandler.create());
+        router.get(DEVICE_PATH).handler(handlerFactory.single((event) ->
+                DaoPolicies.guardSingle(Single.fromCallable(() -> device), circuitBreaker, jdbcScheduler)));
+
+        for (Route route : router.getRoutes()) {
+            route.failureHandler((event) -> responseWriter.buildFailure(event));
+        }
+
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(router::accept).listen(PORT, (result) -> {
+            if (result.succeeded()) {
+                listening.complete(null);
+            } else {
+                listening.completeExceptionally(result.cause());
+            }
+        });
+        listening.get(5, TimeUnit.SECONDS);
+
+        client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setMaxPoolSize(64));
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+        requestExecutor.shutdownNow();
+    }
+
+    private static Device buildDevice() {
+        Device device = new Device();
+        device.setId(1234L);
+        device.setGlobalId("0e4b2e4c-7c0b-4c2b-9a4e-5a7b4c1d2e3f");
+        device.setStatus(DeviceStatus.ACTIVE);
+        device.setCreatedDate(new Date());
+
+        return device;
+    }
+
+    @Benchmark
+    public String readDevice() throws Exception {
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        client.getNow(PORT, "localhost", DEVICE_PATH, (httpResponse) -> {
+            if (httpResponse.statusCode() != 200) {
+                response.completeExceptionally(new IllegalStateException("Unexpected status " + httpResponse.statusCode()));
+                return;
+            }
+
+            httpResponse.bodyHandler((body) -> response.complete(body.toString()));
+        });
+
+        return response.get(5, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RequestExecutionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
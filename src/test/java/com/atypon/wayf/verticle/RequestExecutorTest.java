@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.data.ServiceException;
+import com.atypon.wayf.metrics.MetricsRegistry;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestExecutorTest {
+    private ExecutorService pool;
+    private MetricsRegistry metricsRegistry;
+    private CountDownLatch blocked;
+
+    private final List<Long> served = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        pool = Executors.newSingleThreadExecutor();
+        metricsRegistry = new MetricsRegistry();
+
+        // Holds the only thread so that requests queue up
+        blocked = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private RequestExecutor buildExecutor(int queueDepth, String weights) {
+        return new RequestExecutor()
+                .setExecutor(pool)
+                .setQueueDepth(queueDepth)
+                .setDefaultWeight(1)
+                .setMetricsRegistry(metricsRegistry)
+                .setWeights(weights);
+    }
+
+    private void submit(RequestExecutor executor, Long publisherId) {
+        executor.execute(publisherId, () -> served.add(publisherId));
+    }
+
+    private void drain(int count) throws Exception {
+        blocked.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (served.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(count, served.size());
+    }
+
+    @Test
+    public void testBurstDoesNotDelayOtherPublishers() throws Exception {
+        RequestExecutor executor = buildExecutor(100, "");
+
+        for (int i = 0; i < 10; i++) {
+            submit(executor, 1L);
+        }
+        submit(executor, 2L);
+
+        drain(11);
+
+        assertTrue(served.indexOf(2L) <= 1);
+    }
+
+    @Test
+    public void testServesByWeight() throws Exception {
+        RequestExecutor executor = buildExecutor(100, "1:3");
+
+        for (int i = 0; i < 8; i++) {
+            submit(executor, 1L);
+            submit(executor, 2L);
+        }
+
+        drain(16);
+
+        // Three requests of publisher 1 for each of publisher 2 while both are queued
+        assertEquals(6, served.subList(0, 8).stream().filter((publisherId) -> publisherId == 1L).count());
+    }
+
+    @Test
+    public void testRejectsBeyondQueueDepth() throws Exception {
+        RequestExecutor executor = buildExecutor(2, "");
+
+        submit(executor, 1L);
+        submit(executor, null);
+
+        try {
+            submit(executor, 2L);
+            fail("Expected the request to be rejected");
+        } catch (ServiceException e) {
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+        }
+
+        drain(2);
+    }
+
+    @Test
+    public void testQueueMetrics() throws Exception {
+        RequestExecutor executor = buildExecutor(100, "");
+
+        submit(executor, 1L);
+        submit(executor, 1L);
+        submit(executor, null);
+
+        String scrape = metricsRegistry.scrape();
+        assertTrue(scrape.contains("wayf_request_queue_depth{publisher=\"1\"} 2\n"));
+        assertTrue(scrape.contains("wayf_request_queue_depth{publisher=\"" + RequestExecutor.UNAUTHENTICATED + "\"} 1\n"));
+
+        drain(3);
+
+        assertEquals(2, metricsRegistry.getRequestQueueWaitSnapshot("1").getTotalCount());
+        assertTrue(metricsRegistry.scrape().contains("wayf_request_queue_depth{publisher=\"1\"} 0\n"));
+    }
+
+    @Test
+    public void testParseWeights() {
+        Map<Long, Integer> weights = RequestExecutor.parseWeights(" 12:4, 57:2 ");
+
+        assertEquals(2, weights.size());
+        assertEquals(Integer.valueOf(4), weights.get(12L));
+        assertEquals(Integer.valueOf(2), weights.get(57L));
+        assertTrue(RequestExecutor.parseWeights("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidWeight() {
+        RequestExecutor.parseWeights("12:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidDefaultWeight() {
+        new RequestExecutor().setDefaultWeight(0);
+    }
+
+    @Test
+    public void testCapsHeavyWeights() {
+        assertEquals(Integer.valueOf(RequestExecutor.MAX_WEIGHT), RequestExecutor.parseWeights("12:" + Integer.MAX_VALUE).get(12L));
+        assertEquals(RequestExecutor.MAX_WEIGHT, RequestExecutor.checkWeight(RequestExecutor.MAX_WEIGHT + 1));
+        assertEquals(3, RequestExecutor.checkWeight(3));
+    }
+}
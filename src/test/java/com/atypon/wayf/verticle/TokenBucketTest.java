@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Atypon Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.atypon.wayf.verticle;
+
+import com.atypon.wayf.data.RateLimitDecision;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+    private static final long START = TimeUnit.SECONDS.toNanos(100);
+
+    @Test
+    public void testAllowsBurstThenRejects() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+
+        assertEquals(2, bucket.tryAcquire(START).getRemaining());
+        assertEquals(1, bucket.tryAcquire(START).getRemaining());
+        assertEquals(0, bucket.tryAcquire(START).getRemaining());
+
+        RateLimitDecision rejected = bucket.tryAcquire(START);
+        assertFalse(rejected.isAllowed());
+        assertEquals(10, rejected.getLimit());
+
+        // One token comes back every 100ms
+        assertEquals(101, rejected.getRetryAfterMillis());
+    }
+
+    @Test
+    public void testRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+
+        assertTrue(bucket.tryAcquire(START).isAllowed());
+        assertFalse(bucket.tryAcquire(START + TimeUnit.MILLISECONDS.toNanos(50)).isAllowed());
+        assertTrue(bucket.tryAcquire(START + TimeUnit.MILLISECONDS.toNanos(100)).isAllowed());
+    }
+
+    @Test
+    public void testIdleTimeDoesNotExceedBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long later = START + TimeUnit.HOURS.toNanos(1);
+
+        assertTrue(bucket.tryAcquire(later).isAllowed());
+        assertTrue(bucket.tryAcquire(later).isAllowed());
+        assertFalse(bucket.tryAcquire(later).isAllowed());
+    }
+}
@@ -22,7 +22,7 @@ import com.atypon.wayf.integration.DeviceTestUtil;
 import com.atypon.wayf.integration.IdentityProviderTestUtil;
 import com.atypon.wayf.integration.PublisherTestUtil;
 import com.atypon.wayf.request.ResponseWriter;
-import com.atypon.wayf.verticle.WayfVerticle;
+import com.atypon.wayf.verticle.WayfDeploymentVerticle;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
@@ -94,7 +94,7 @@ public abstract class BaseHttpTest {
     public static void setUpClass(TestContext context) throws IOException {
         vertx = Vertx.vertx();
 
-        vertx.deployVerticle(WayfVerticle.class.getName(), context.asyncAssertSuccess());
+        vertx.deployVerticle(WayfDeploymentVerticle.class.getName(), context.asyncAssertSuccess());
     }
 
     @AfterClass
@@ -30,7 +30,8 @@ CREATE TABLE `device` (
   `created_date` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `modified_date` timestamp NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
-  UNIQUE KEY `global_id_UNIQUE` (`global_id`)
+  UNIQUE KEY `global_id_UNIQUE` (`global_id`),
+  KEY `created_date_id` (`created_date`, `id`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -51,7 +52,8 @@ CREATE TABLE `identity_provider` (
   `created_date` timestamp(4) NOT NULL DEFAULT CURRENT_TIMESTAMP(4),
   `modified_date` timestamp NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
-  UNIQUE KEY `id_UNIQUE` (`id`)
+  UNIQUE KEY `id_UNIQUE` (`id`),
+  KEY `type_created_date_id` (`type`, `created_date`, `id`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=latin1;
 
 DROP VIEW IF EXISTS `saml_entity`;
@@ -144,6 +146,8 @@ CREATE TABLE `publisher` (
   `salt` varchar(30) NOT NULL,
   `status` varchar(15) NOT NULL,
   `contact_id` int(11) NULL,
+  `rate_limit_per_second` int(11) NULL,
+  `rate_limit_burst` int(11) NULL,
   `created_date` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `modified_date` timestamp NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`)
@@ -166,7 +170,8 @@ CREATE TABLE `device_access` (
   `publisher_id` varchar(36) DEFAULT NULL,
   `created_date` timestamp(4) NOT NULL DEFAULT CURRENT_TIMESTAMP(4),
   `modified_date` timestamp NULL DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
-  PRIMARY KEY (`id`)
+  PRIMARY KEY (`id`),
+  KEY `device_created_date_id` (`device_id`, `created_date`, `id`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
@@ -197,6 +202,7 @@ CREATE TABLE `error_log` (
   `exception_message` VARCHAR(250) NULL,
   `exception_stacktrace` TEXT NULL,
   `error_date` DATETIME NULL,
+  `occurrence_count` INT NOT NULL DEFAULT 1,
   `created_date` DATETIME NULL DEFAULT CURRENT_TIMESTAMP,
   `modified_date` DATETIME DEFAULT NULL ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
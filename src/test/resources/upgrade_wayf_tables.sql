@@ -0,0 +1,23 @@
+--
+-- Brings the tables of an existing WAYF database up to date with create_wayf_tables.sql. Run the statements added
+-- since the database was created, in order
+--
+
+-- Occurrence counts of aggregated error log rows
+ALTER TABLE `error_log`
+  ADD COLUMN `occurrence_count` INT NOT NULL DEFAULT 1 AFTER `error_date`;
+
+-- Per-publisher rate limits. Null columns use the server's defaults
+ALTER TABLE `publisher`
+  ADD COLUMN `rate_limit_per_second` int(11) NULL AFTER `contact_id`,
+  ADD COLUMN `rate_limit_burst` int(11) NULL AFTER `rate_limit_per_second`;
+
+-- Indexes for keyset (seek) pagination of device activity, devices and identity providers
+ALTER TABLE `device_access`
+  ADD KEY `device_created_date_id` (`device_id`, `created_date`, `id`);
+
+ALTER TABLE `device`
+  ADD KEY `created_date_id` (`created_date`, `id`);
+
+ALTER TABLE `identity_provider`
+  ADD KEY `type_created_date_id` (`type`, `created_date`, `id`);